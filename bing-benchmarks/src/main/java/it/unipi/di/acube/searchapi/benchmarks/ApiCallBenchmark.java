@@ -0,0 +1,63 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.WebsearchApi;
+import it.unipi.di.acube.searchapi.callers.BingSearchApiCaller;
+import it.unipi.di.acube.searchapi.callers.GoogleSearchApiCaller;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * Uncached queries to the stub APIs over HTTP, including the parsing of the responses, either whole or while they are
+ * streamed (Bing only).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ApiCallBenchmark {
+    @Param({ "false", "true" })
+    public boolean streamingParse;
+
+    private StubApiServer server;
+    private WebsearchApi bing;
+    private WebsearchApi google;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubApiServer(0);
+        bing = new WebsearchApi(new BingSearchApiCaller("benchmark").setEndpoint(server.getBingEndpoint())
+                .setStreamingParse(streamingParse));
+        google = new WebsearchApi(new GoogleSearchApiCaller("benchmark", "benchmark").setEndpoint(server.getGoogleEndpoint()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public WebsearchResponse bing() throws Exception {
+        return bing.query("entity linking", 50);
+    }
+
+    @Benchmark
+    public WebsearchResponse google() throws Exception {
+        return google.query("entity linking", 10);
+    }
+}
@@ -0,0 +1,72 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+import it.unipi.di.acube.searchapi.CachedWebsearchApi.CachedWebsearchApiBuilder;
+import it.unipi.di.acube.searchapi.CachedWebsearchApi.StoreFormat;
+import it.unipi.di.acube.searchapi.callers.BingSearchApiCaller;
+import it.unipi.di.acube.searchapi.stores.MmapResponseStore;
+
+/**
+ * A cached API kept in a temporary directory, calling the Bing endpoint of a stub server.
+ */
+class BenchmarkCache {
+    private static final int GROUP_COMMIT_ENTRIES = 1000;
+
+    private final StubApiServer server;
+    private final Path dir;
+    private final CachedWebsearchApi api;
+
+    /**
+     * @param store
+     *            the storage backend: "mapdb" or "mmap".
+     * @param storeFormat
+     *            the format of the stored pages.
+     * @param memoryCache
+     *            the size of the in-memory cache, or 0 to disable it.
+     * @param groupCommit
+     *            whether to commit writes in groups rather than one query at a time.
+     */
+    BenchmarkCache(String store, StoreFormat storeFormat, long memoryCache, boolean groupCommit)
+            throws IOException, ClassNotFoundException {
+        server = new StubApiServer(0);
+        dir = Files.createTempDirectory("websearch-benchmark");
+        String path = new File(dir.toFile(), "cache").getPath();
+        CachedWebsearchApiBuilder builder = CachedWebsearchApi.builder()
+                .api(new BingSearchApiCaller("benchmark").setEndpoint(server.getBingEndpoint())).storeFormat(storeFormat);
+        if (store.equals("mapdb"))
+            builder.path(path);
+        else if (store.equals("mmap"))
+            builder.store(new MmapResponseStore(path));
+        else
+            throw new IllegalArgumentException("Unknown store: " + store);
+        if (memoryCache > 0)
+            builder.memoryCache(memoryCache);
+        if (groupCommit)
+            builder.groupCommit(GROUP_COMMIT_ENTRIES, 1, TimeUnit.SECONDS);
+        api = builder.create();
+    }
+
+    CachedWebsearchApi getApi() {
+        return api;
+    }
+
+    StubApiServer getServer() {
+        return server;
+    }
+
+    void close() throws IOException {
+        api.close();
+        server.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+import it.unipi.di.acube.searchapi.stores.MapDbResponseStore;
+import it.unipi.di.acube.searchapi.stores.MmapResponseStore;
+
+/**
+ * A store of one of the storage backends, kept in a temporary directory, and filled with synthetic entries shaped like those
+ * of a cache: a compact key and a value of {@value #VALUE_LENGTH} bytes.
+ */
+class BenchmarkStore {
+    static final int VALUE_LENGTH = 1000;
+    private static final int LOAD_BATCH = 1000;
+
+    private final Path dir;
+    private final ResponseStore store;
+
+    /**
+     * @param store
+     *            the storage backend: "mapdb" (MapDB file), "offheap" (MapDB in direct memory) or "mmap".
+     */
+    BenchmarkStore(String store) throws IOException {
+        dir = Files.createTempDirectory("websearch-benchmark");
+        String path = new File(dir.toFile(), "store").getPath();
+        if (store.equals("mapdb"))
+            this.store = MapDbResponseStore.builder().path(path).create();
+        else if (store.equals("offheap"))
+            this.store = MapDbResponseStore.builder().memory().create();
+        else if (store.equals("mmap"))
+            this.store = new MmapResponseStore(path);
+        else
+            throw new IllegalArgumentException("Unknown store: " + store);
+    }
+
+    /**
+     * @return the key of the i-th synthetic entry.
+     */
+    static String key(int i) {
+        return BaseEncoding.base64Url().omitPadding()
+                .encode(Hashing.murmur3_128().hashString("entry " + i, StandardCharsets.UTF_8).asBytes());
+    }
+
+    /**
+     * Write synthetic entries in batches, committing each batch.
+     *
+     * @param keys
+     *            the keys of the entries.
+     */
+    void load(List<String> keys) throws IOException {
+        byte[] value = new byte[VALUE_LENGTH];
+        new Random(0).nextBytes(value);
+        Map<String, byte[]> batch = new HashMap<>();
+        for (String key : keys) {
+            batch.put(key, value);
+            if (batch.size() == LOAD_BATCH) {
+                store.putAll(batch);
+                store.commit();
+                batch.clear();
+            }
+        }
+        store.putAll(batch);
+        store.commit();
+    }
+
+    ResponseStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the size of the files of the store, in bytes.
+     */
+    long getFileSize() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.map(Path::toFile).filter(File::isFile).mapToLong(File::length).sum();
+        }
+    }
+
+    /**
+     * @return the resident set size of this process in bytes, or -1 if it is not available (only Linux is supported).
+     */
+    static long getRss() {
+        try (Stream<String> lines = Files.lines(Paths.get("/proc/self/status"))) {
+            return lines.filter(line -> line.startsWith("VmRSS:"))
+                    .mapToLong(line -> 1024 * Long.parseLong(line.replaceAll("\\D", ""))).findFirst().orElse(-1);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    void close() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
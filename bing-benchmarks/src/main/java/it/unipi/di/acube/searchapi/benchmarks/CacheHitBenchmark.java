@@ -0,0 +1,81 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+import it.unipi.di.acube.searchapi.CachedWebsearchApi.StoreFormat;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * Queries whose response is cached, picked at random among the cached ones, with each storage backend and store format,
+ * with and without the in-memory cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CacheHitBenchmark {
+    private static final int CACHED_QUERIES = 1000;
+    private static final int NEEDED_RESULTS = 50;
+
+    @Param({ "mapdb", "mmap" })
+    public String store;
+
+    @Param({ "JSON", "COMPACT" })
+    public StoreFormat storeFormat;
+
+    @Param({ "0", "100000" })
+    public long memoryCache;
+
+    private BenchmarkCache cache;
+    private CachedWebsearchApi api;
+    private String[] queries;
+
+    @Setup
+    public void setup() throws Exception {
+        cache = new BenchmarkCache(store, storeFormat, memoryCache, true);
+        api = cache.getApi();
+        queries = new String[CACHED_QUERIES];
+        for (int i = 0; i < CACHED_QUERIES; i++) {
+            queries[i] = "cached query " + i;
+            api.query(queries[i], NEEDED_RESULTS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        long requests = cache.getServer().getRequests();
+        cache.close();
+        if (requests != CACHED_QUERIES)
+            throw new IllegalStateException(String.format("%d calls to the API, %d expected.", requests, CACHED_QUERIES));
+    }
+
+    @Benchmark
+    public WebsearchResponse hit() throws Exception {
+        return api.query(queries[ThreadLocalRandom.current().nextInt(CACHED_QUERIES)], NEEDED_RESULTS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public WebsearchResponse hitConcurrent() throws Exception {
+        return api.query(queries[ThreadLocalRandom.current().nextInt(CACHED_QUERIES)], NEEDED_RESULTS);
+    }
+}
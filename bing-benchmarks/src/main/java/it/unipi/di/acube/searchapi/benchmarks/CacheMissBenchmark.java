@@ -0,0 +1,72 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+import it.unipi.di.acube.searchapi.CachedWebsearchApi.StoreFormat;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * Queries never issued before, end to end: the call to the stub API over HTTP, the parsing of its response, and the
+ * encoding, writing and commit of the page, with each storage backend and store format, committing each query or in groups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CacheMissBenchmark {
+    private static final int NEEDED_RESULTS = 50;
+
+    @Param({ "mapdb", "mmap" })
+    public String store;
+
+    @Param({ "JSON", "COMPACT" })
+    public StoreFormat storeFormat;
+
+    @Param({ "false", "true" })
+    public boolean groupCommit;
+
+    private final AtomicLong queries = new AtomicLong();
+    private BenchmarkCache cache;
+    private CachedWebsearchApi api;
+
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException {
+        cache = new BenchmarkCache(store, storeFormat, 0, groupCommit);
+        api = cache.getApi();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cache.close();
+    }
+
+    @Benchmark
+    public WebsearchResponse miss() throws Exception {
+        return api.query("query " + queries.incrementAndGet(), NEEDED_RESULTS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public WebsearchResponse missConcurrent() throws Exception {
+        return api.query("query " + queries.incrementAndGet(), NEEDED_RESULTS);
+    }
+}
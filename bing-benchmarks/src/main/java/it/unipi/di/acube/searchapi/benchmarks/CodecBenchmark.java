@@ -0,0 +1,58 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.codecs.GzipCodec;
+import it.unipi.di.acube.searchapi.codecs.Lz4Codec;
+import it.unipi.di.acube.searchapi.interfaces.ResponseCodec;
+
+/**
+ * Encoding and decoding of recorded API responses with the codecs of the cache store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CodecBenchmark {
+    @Param({ StubApiServer.BING_PAYLOAD, StubApiServer.GOOGLE_PAYLOAD })
+    public String payload;
+
+    @Param({ "gzip", "lz4" })
+    public String codecName;
+
+    private String response;
+    private ResponseCodec codec;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        response = StubApiServer.readPayload(payload);
+        codec = codecName.equals("gzip") ? new GzipCodec() : new Lz4Codec();
+        encoded = codec.encode(response);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return codec.encode(response);
+    }
+
+    @Benchmark
+    public String decode() throws IOException {
+        return codec.decode(encoded);
+    }
+}
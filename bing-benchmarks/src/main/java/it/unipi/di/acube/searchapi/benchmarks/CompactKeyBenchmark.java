@@ -0,0 +1,109 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.callers.BingSearchApiCaller;
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+import it.unipi.di.acube.searchapi.stores.MapDbResponseStore;
+
+/**
+ * Lookups in a MapDB file store keyed by the URIs of the calls, as written by earlier versions, or by their compact keys: a
+ * 128-bit hash of the URI, encoded in base 64, computed as by {@link it.unipi.di.acube.searchapi.CachedWebsearchApi}. The
+ * time to build the key of a call from its URI is measured separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompactKeyBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({ "uri", "compact" })
+    public String keys;
+
+    @Param({ "100000" })
+    public int entries;
+
+    private Path dir;
+    private ResponseStore store;
+    private String[] uris;
+    private String[] storeKeys;
+
+    @Setup
+    public void setup() throws IOException, URISyntaxException {
+        BingSearchApiCaller caller = new BingSearchApiCaller("benchmark");
+        uris = new String[entries];
+        storeKeys = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            uris[i] = caller.getQueryURI("query number " + i, 0).toString();
+            storeKeys[i] = key(uris[i]);
+        }
+        dir = Files.createTempDirectory("websearch-benchmark");
+        store = MapDbResponseStore.builder().path(new File(dir.toFile(), "store").getPath()).create();
+        byte[] value = new byte[BenchmarkStore.VALUE_LENGTH];
+        Map<String, byte[]> batch = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            batch.put(storeKeys[i], value);
+            if (batch.size() == BATCH) {
+                store.putAll(batch);
+                batch.clear();
+            }
+        }
+        store.putAll(batch);
+        store.commit();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private String key(String uri) {
+        if (keys.equals("uri"))
+            return uri;
+        return BaseEncoding.base64Url().omitPadding()
+                .encode(Hashing.murmur3_128().hashString(uri, StandardCharsets.UTF_8).asBytes());
+    }
+
+    @Benchmark
+    public String keyBuild() {
+        return key(uris[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    public byte[] lookup() throws IOException {
+        return store.get(key(uris[ThreadLocalRandom.current().nextInt(entries)]));
+    }
+}
@@ -0,0 +1,51 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.StringCompress;
+
+/**
+ * Compression of recorded API responses with {@link StringCompress}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompressionBenchmark {
+    @Param({ StubApiServer.BING_PAYLOAD, StubApiServer.GOOGLE_PAYLOAD })
+    public String payload;
+
+    private String response;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws IOException {
+        response = StubApiServer.readPayload(payload);
+        compressed = StringCompress.compress(response);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return StringCompress.compress(response);
+    }
+
+    @Benchmark
+    public String decompress() throws IOException {
+        return StringCompress.decompress(compressed);
+    }
+}
@@ -0,0 +1,120 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+import it.unipi.di.acube.searchapi.callers.BingSearchApiCaller;
+import it.unipi.di.acube.searchapi.codecs.GzipCodec;
+import it.unipi.di.acube.searchapi.stores.MapDbResponseStore;
+
+/**
+ * Export of a cache of {@value #ENTRIES} recorded responses to an archive, import of the archive into an empty cache, and
+ * merge of the cache into an empty cache. The cache is filled with values keyed by URI, as written by earlier versions,
+ * whose keys are then migrated. Each operation moves the whole cache: scores are per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class ExportImportBenchmark {
+    private static final int ENTRIES = 20000;
+    private static final int BATCH = 1000;
+
+    private Path dir;
+    private CachedWebsearchApi source;
+    private String archive;
+    private CachedWebsearchApi target;
+    private String exported;
+
+    private static CachedWebsearchApi open(String path) throws IOException, ClassNotFoundException {
+        return CachedWebsearchApi.builder().api(new BingSearchApiCaller("benchmark")).path(path).create();
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("websearch-benchmark");
+        String sourcePath = new File(dir.toFile(), "source").getPath();
+        MapDbResponseStore store = MapDbResponseStore.builder().path(sourcePath).create();
+        byte[] value = new GzipCodec().encode(StubApiServer.readPayload(StubApiServer.BING_PAYLOAD));
+        BingSearchApiCaller caller = new BingSearchApiCaller("benchmark");
+        Map<String, byte[]> batch = new HashMap<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            batch.put(caller.getQueryURI("query number " + i, 0).toString(), value);
+            if (batch.size() == BATCH) {
+                store.putAll(batch);
+                batch.clear();
+            }
+        }
+        store.putAll(batch);
+        store.close();
+        source = open(sourcePath);
+        source.migrateKeys();
+        archive = new File(dir.toFile(), "archive").getPath();
+        source.exportCache(archive);
+    }
+
+    @Setup(Level.Iteration)
+    public void createTarget() throws IOException, ClassNotFoundException {
+        target = open(new File(dir.toFile(), "target").getPath());
+        exported = new File(dir.toFile(), "exported").getPath();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteTarget() throws IOException {
+        target.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(Path::toFile).filter(file -> file.getName().startsWith("target") || file.getName().startsWith("exported"))
+                    .forEach(File::delete);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        source.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public long exportCache() throws IOException {
+        return source.exportCache(exported);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public long importCache() throws IOException {
+        return target.importCache(archive);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public long mergeCache() throws IOException {
+        return target.mergeCache(source);
+    }
+}
@@ -0,0 +1,69 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.WebsearchApi;
+import it.unipi.di.acube.searchapi.callers.BingSearchApiCaller;
+import it.unipi.di.acube.searchapi.callers.HedgedApiCaller;
+import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * Uncached queries to a stub API that replies to most calls after {@value #LATENCY_MILLIS} ms, and to a fraction
+ * ({@value #SLOW_FRACTION}) of them after {@value #SLOW_LATENCY_MILLIS} ms, with and without hedging. Latencies are sampled,
+ * so that their percentiles can be compared: hedging should cut the tail at the cost of a few more calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class HedgedCallBenchmark {
+    private static final long LATENCY_MILLIS = 5;
+    private static final double SLOW_FRACTION = 0.05;
+    private static final long SLOW_LATENCY_MILLIS = 100;
+
+    @Param({ "false", "true" })
+    public boolean hedged;
+
+    private StubApiServer server;
+    private HedgedApiCaller hedgedCaller;
+    private WebsearchApi api;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubApiServer(LATENCY_MILLIS, SLOW_FRACTION, SLOW_LATENCY_MILLIS);
+        WebSearchApiCaller caller = new BingSearchApiCaller("benchmark").setEndpoint(server.getBingEndpoint());
+        if (hedged)
+            caller = hedgedCaller = new HedgedApiCaller(caller, 0.9, 0.1, 4 * LATENCY_MILLIS, null);
+        api = new WebsearchApi(caller);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (hedgedCaller != null)
+            System.out.printf("%n%d calls, %d hedged, %d won by the hedge, hedge delay %d ms.%n", server.getRequests()
+                    - hedgedCaller.getHedges(), hedgedCaller.getHedges(), hedgedCaller.getHedgeWins(),
+                    hedgedCaller.getHedgeDelayMillis());
+        server.close();
+    }
+
+    @Benchmark
+    public WebsearchResponse call() throws Exception {
+        return api.query("entity linking", 50);
+    }
+}
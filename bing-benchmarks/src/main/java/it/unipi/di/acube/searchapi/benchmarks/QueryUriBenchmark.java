@@ -0,0 +1,57 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.callers.BingSearchApiCaller;
+import it.unipi.di.acube.searchapi.callers.GoogleSearchApiCaller;
+
+/**
+ * Building of the URIs of the calls, that are also the keys of the cache, by one thread and by several threads sharing a
+ * caller.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryUriBenchmark {
+    private static final String QUERY = "entity linking \"wikipedia\" città";
+    private final BingSearchApiCaller bing = new BingSearchApiCaller("benchmark");
+    private final GoogleSearchApiCaller google = new GoogleSearchApiCaller("benchmark", "benchmark");
+
+    @Benchmark
+    public URI bingUri() throws URISyntaxException {
+        return bing.getQueryURI(QUERY, 50);
+    }
+
+    @Benchmark
+    public URI googleUri() throws URISyntaxException {
+        return google.getQueryURI(QUERY, 10);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public URI bingUriConcurrent() throws URISyntaxException {
+        return bing.getQueryURI(QUERY, 50);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public URI googleUriConcurrent() throws URISyntaxException {
+        return google.getQueryURI(QUERY, 10);
+    }
+}
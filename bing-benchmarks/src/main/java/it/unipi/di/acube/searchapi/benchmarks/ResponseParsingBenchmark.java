@@ -0,0 +1,77 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.callers.BingSearchApiCaller;
+import it.unipi.di.acube.searchapi.callers.GoogleSearchApiCaller;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * Parsing of recorded API responses, and building of {@link WebsearchResponse}s from the parsed JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResponseParsingBenchmark {
+    private BingSearchApiCaller bing;
+    private GoogleSearchApiCaller google;
+    private String bingPayload;
+    private String googlePayload;
+    private List<URI> bingUris;
+    private List<URI> googleUris;
+    private List<JSONObject> bingResponses;
+    private List<JSONObject> googleResponses;
+
+    @Setup
+    public void setup() throws IOException, JSONException, URISyntaxException {
+        bing = new BingSearchApiCaller("benchmark");
+        google = new GoogleSearchApiCaller("benchmark", "benchmark");
+        bingPayload = StubApiServer.readPayload(StubApiServer.BING_PAYLOAD);
+        googlePayload = StubApiServer.readPayload(StubApiServer.GOOGLE_PAYLOAD);
+        bingUris = Collections.singletonList(bing.getQueryURI("entity linking", 0));
+        googleUris = Collections.singletonList(google.getQueryURI("entity linking", 0));
+        bingResponses = Collections.singletonList(new JSONObject(bingPayload));
+        googleResponses = Collections.singletonList(new JSONObject(googlePayload));
+    }
+
+    @Benchmark
+    public JSONObject parseBing() throws JSONException {
+        return new JSONObject(bingPayload);
+    }
+
+    @Benchmark
+    public JSONObject parseGoogle() throws JSONException {
+        return new JSONObject(googlePayload);
+    }
+
+    @Benchmark
+    public WebsearchResponse buildBingResponse() throws JSONException {
+        return bing.buildResponseFromJson(bingUris, bingResponses, bing.getResultsPerCall());
+    }
+
+    @Benchmark
+    public WebsearchResponse buildGoogleResponse() throws JSONException {
+        return google.buildResponseFromJson(googleUris, googleResponses, google.getResultsPerCall());
+    }
+}
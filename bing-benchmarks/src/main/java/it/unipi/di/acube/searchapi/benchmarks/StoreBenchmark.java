@@ -0,0 +1,78 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+
+/**
+ * Point reads of random entries from each storage backend, filled with synthetic entries (1M by default). The time taken to
+ * fill the store, the size of its files and the resident set size of the process once it is filled are printed: the
+ * throughput of bulk loads is measured by {@link StoreLoadBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StoreBenchmark {
+    @Param({ "mapdb", "offheap", "mmap" })
+    public String store;
+
+    @Param({ "1000000" })
+    public int entries;
+
+    private BenchmarkStore benchmarkStore;
+    private ResponseStore responseStore;
+    private String[] keys;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> keyList = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++)
+            keyList.add(BenchmarkStore.key(i));
+        keys = keyList.toArray(new String[entries]);
+        benchmarkStore = new BenchmarkStore(store);
+        long start = System.nanoTime();
+        benchmarkStore.load(keyList);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        responseStore = benchmarkStore.getStore();
+        System.out.printf("%nLoaded %d entries in %d ms, files %d MB, RSS %d MB.%n", entries, elapsedMillis,
+                benchmarkStore.getFileSize() >> 20, BenchmarkStore.getRss() >> 20);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.out.printf("%nRSS %d MB after reads.%n", BenchmarkStore.getRss() >> 20);
+        benchmarkStore.close();
+    }
+
+    @Benchmark
+    public byte[] get() throws IOException {
+        return responseStore.get(keys[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] getConcurrent() throws IOException {
+        return responseStore.get(keys[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+}
@@ -0,0 +1,65 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk loads of synthetic entries (1M by default) into an empty store of each storage backend, in batches committed one
+ * at a time. Each operation is a whole load: the throughput in entries per second is the number of entries divided by its
+ * time. The resident set size of the process after each load is printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=4g")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class StoreLoadBenchmark {
+    @Param({ "mapdb", "offheap", "mmap" })
+    public String store;
+
+    @Param({ "1000000" })
+    public int entries;
+
+    private List<String> keys;
+    private BenchmarkStore benchmarkStore;
+
+    @Setup
+    public void setup() {
+        keys = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++)
+            keys.add(BenchmarkStore.key(i));
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() throws IOException {
+        benchmarkStore = new BenchmarkStore(store);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStore() throws IOException {
+        System.out.printf("%nRSS %d MB, files %d MB.%n", BenchmarkStore.getRss() >> 20, benchmarkStore.getFileSize() >> 20);
+        benchmarkStore.close();
+    }
+
+    @Benchmark
+    public void load() throws IOException {
+        benchmarkStore.load(keys);
+    }
+}
@@ -0,0 +1,140 @@
+package it.unipi.di.acube.searchapi.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.io.Resources;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server standing in for the Bing and Google CSE APIs, that replays recorded responses: every call to the
+ * Bing endpoint returns the same Bing response, and every call to the Google endpoint the same Google response, whatever the
+ * query and offset. Callers are pointed at it with their setEndpoint method. Replies can be delayed, and a fraction of them
+ * delayed further, to emulate the latency of the real APIs and its tail.
+ */
+public class StubApiServer implements Closeable {
+    public static final String BING_PAYLOAD = "payloads/bing-web-search.json";
+    public static final String GOOGLE_PAYLOAD = "payloads/google-cse.json";
+    private static final String BING_PATH = "/bing/v7.0/search";
+    private static final String GOOGLE_PATH = "/customsearch/v1";
+
+    static {
+        /* Without this, the headers and body of each response are sent in separate packets, and the latter waits for the
+         * acknowledgement of the former, delaying each call by tens of milliseconds. */
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Start a server on a free port of the loopback interface.
+     * 
+     * @param latencyMillis
+     *            the time waited before replying to each request, to emulate the latency of the real APIs.
+     * @throws IOException
+     *             if the server could not be started, or the recorded responses could not be read.
+     */
+    public StubApiServer(long latencyMillis) throws IOException {
+        this(latencyMillis, 0, 0);
+    }
+
+    /**
+     * Start a server on a free port of the loopback interface, replying slowly to a random fraction of the requests.
+     * 
+     * @param latencyMillis
+     *            the time waited before replying to each request.
+     * @param slowFraction
+     *            the fraction of requests replied to after slowLatencyMillis instead, between 0 and 1.
+     * @param slowLatencyMillis
+     *            the time waited before replying to slow requests.
+     * @throws IOException
+     *             if the server could not be started, or the recorded responses could not be read.
+     */
+    public StubApiServer(long latencyMillis, double slowFraction, long slowLatencyMillis) throws IOException {
+        byte[] bingResponse = readPayload(BING_PAYLOAD).getBytes(StandardCharsets.UTF_8);
+        byte[] googleResponse = readPayload(GOOGLE_PAYLOAD).getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(BING_PATH, exchange -> reply(exchange, bingResponse,
+                ThreadLocalRandom.current().nextDouble() < slowFraction ? slowLatencyMillis : latencyMillis));
+        server.createContext(GOOGLE_PATH, exchange -> reply(exchange, googleResponse,
+                ThreadLocalRandom.current().nextDouble() < slowFraction ? slowLatencyMillis : latencyMillis));
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "stub-api-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @param resource
+     *            the name of a recorded response, e.g. {@link #BING_PAYLOAD}.
+     * @return the JSON text of the response.
+     * @throws IOException
+     *             if the response could not be read.
+     */
+    public static String readPayload(String resource) throws IOException {
+        return Resources.toString(Resources.getResource(resource), StandardCharsets.UTF_8);
+    }
+
+    private void reply(HttpExchange exchange, byte[] response, long latencyMillis) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latencyMillis > 0)
+                Thread.sleep(latencyMillis);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String getAddress() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the endpoint to give to {@link it.unipi.di.acube.searchapi.callers.BingSearchApiCaller#setEndpoint(String)}.
+     */
+    public String getBingEndpoint() {
+        return getAddress() + BING_PATH;
+    }
+
+    /**
+     * @return the endpoint to give to {@link it.unipi.di.acube.searchapi.callers.GoogleSearchApiCaller#setEndpoint(String)}.
+     */
+    public String getGoogleEndpoint() {
+        return getAddress() + GOOGLE_PATH;
+    }
+
+    /**
+     * @return the number of requests received so far.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,238 @@
+package it.unipi.di.acube.searchapi;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Sequential file format for exporting and importing the content of a cache. The file starts with a magic number and a
+ * version (4 bytes each), followed by records laid out as: type (1 byte), key length, value length (4 bytes each), key
+ * (UTF-8), value. Metadata records come before entry records, and the file ends with a record of type {@link #END}, so that
+ * truncated files are detected. The value of the end record is the CRC-32 of all previous records, so that corrupt files
+ * are detected as well; it is empty in files written by earlier versions, which are not checked.
+ */
+final class CacheArchive {
+    private static final int MAGIC = 0x57534341;
+    private static final int VERSION = 1;
+    private static final byte END = 0, METADATA = 1, ENTRY = 2;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int RECORD_HEADER_LENGTH = 9;
+    private static final int CHECKSUM_LENGTH = 4;
+
+    private CacheArchive() {
+    }
+
+    private static class Record {
+        private final byte type;
+        private final String key;
+        private final byte[] value;
+
+        private Record(byte type, String key, byte[] value) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static void updateChecksum(CRC32 checksum, byte type, byte[] key, byte[] value) {
+        checksum.update(ByteBuffer.allocate(RECORD_HEADER_LENGTH).put(type).putInt(key.length).putInt(value.length).array());
+        checksum.update(key);
+        checksum.update(value);
+    }
+
+    /**
+     * Writes an archive. All metadata must be written before the first entry, and the archive must be finished with
+     * {@link #finish()}: archives closed before that are truncated.
+     */
+    static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 checksum = new CRC32();
+        private boolean writingEntries = false;
+
+        Writer(String path) throws IOException {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        void writeMetadata(String name, byte[] value) throws IOException {
+            if (writingEntries)
+                throw new IllegalStateException("Metadata must be written before entries.");
+            write(METADATA, name, value);
+        }
+
+        void writeEntry(String key, byte[] value) throws IOException {
+            writingEntries = true;
+            write(ENTRY, key, value);
+        }
+
+        private void write(byte type, String key, byte[] value) throws IOException {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            updateChecksum(checksum, type, keyBytes, value);
+            if (buffer.remaining() < RECORD_HEADER_LENGTH + keyBytes.length)
+                flush();
+            buffer.put(type).putInt(keyBytes.length).putInt(value.length).put(keyBytes);
+            if (buffer.remaining() < value.length) {
+                flush();
+                if (value.length > buffer.capacity()) {
+                    ByteBuffer large = ByteBuffer.wrap(value);
+                    while (large.hasRemaining())
+                        channel.write(large);
+                    return;
+                }
+            }
+            buffer.put(value);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Write the end of the archive, and force it to disk.
+         */
+        void finish() throws IOException {
+            if (buffer.remaining() < RECORD_HEADER_LENGTH + CHECKSUM_LENGTH)
+                flush();
+            buffer.put(END).putInt(0).putInt(CHECKSUM_LENGTH).putInt((int) checksum.getValue());
+            flush();
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads an archive. The metadata is read when the archive is opened, entries are then read one at a time.
+     */
+    static class Reader implements Closeable {
+        private final String path;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Map<String, byte[]> metadata = new HashMap<>();
+        private final CRC32 checksum = new CRC32();
+        private Record firstEntry;
+
+        Reader(String path) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            try {
+                buffer.flip();
+                fill(8);
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                    throw new IOException(path + " is not a cache archive, or has an unknown version.");
+                Record record;
+                while ((record = read()) != null && record.type == METADATA)
+                    metadata.put(record.key, record.value);
+                firstEntry = record;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the metadata of the archive.
+         */
+        Map<String, byte[]> getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return the next entry of the archive, or null if all entries have been read.
+         * @throws IOException
+         *             if the archive could not be read, or is truncated.
+         */
+        Map.Entry<String, byte[]> nextEntry() throws IOException {
+            Record record = firstEntry != null ? firstEntry : read();
+            firstEntry = null;
+            if (record == null)
+                return null;
+            if (record.type != ENTRY)
+                throw new IOException(path + " has metadata after entries.");
+            return new AbstractMap.SimpleImmutableEntry<>(record.key, record.value);
+        }
+
+        /**
+         * @return the next record, or null at the end of the archive.
+         */
+        private Record read() throws IOException {
+            fill(RECORD_HEADER_LENGTH);
+            byte type = buffer.get();
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            if (type == END) {
+                readEnd(keyLength, valueLength);
+                return null;
+            }
+            if ((type != METADATA && type != ENTRY) || keyLength < 0 || valueLength < 0)
+                throw new IOException(path + " is corrupt.");
+            if ((long) keyLength + valueLength > buffer.remaining() + channel.size() - channel.position())
+                throw new EOFException(path + " is truncated.");
+            byte[] key = new byte[keyLength];
+            readFully(key);
+            byte[] value = new byte[valueLength];
+            readFully(value);
+            updateChecksum(checksum, type, key, value);
+            return new Record(type, new String(key, StandardCharsets.UTF_8), value);
+        }
+
+        /**
+         * Check the checksum held by the end record, if any.
+         */
+        private void readEnd(int keyLength, int valueLength) throws IOException {
+            if (keyLength != 0 || (valueLength != 0 && valueLength != CHECKSUM_LENGTH))
+                throw new IOException(path + " is corrupt.");
+            if (valueLength == 0)
+                return;
+            fill(CHECKSUM_LENGTH);
+            if (buffer.getInt() != (int) checksum.getValue())
+                throw new IOException(path + " is corrupt: its checksum does not match.");
+        }
+
+        private void readFully(byte[] bytes) throws IOException {
+            int read = Math.min(bytes.length, buffer.remaining());
+            buffer.get(bytes, 0, read);
+            if (read == bytes.length)
+                return;
+            ByteBuffer rest = ByteBuffer.wrap(bytes, read, bytes.length - read);
+            while (rest.hasRemaining())
+                if (channel.read(rest) < 0)
+                    throw new EOFException(path + " is truncated.");
+        }
+
+        /**
+         * Make sure at least the given number of bytes are buffered.
+         */
+        private void fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes)
+                return;
+            buffer.compact();
+            while (buffer.position() < bytes)
+                if (channel.read(buffer) < 0)
+                    throw new EOFException(path + " is truncated.");
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
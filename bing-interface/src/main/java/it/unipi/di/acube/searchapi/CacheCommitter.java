@@ -0,0 +1,144 @@
+package it.unipi.di.acube.searchapi;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics;
+import it.unipi.di.acube.searchapi.metrics.NoopSearchMetrics;
+import it.unipi.di.acube.searchapi.stores.ShardedResponseStore;
+
+/**
+ * Decides when writes to the cache store are committed. By default, each query is committed as soon as its pages are
+ * written. In group-commit mode, writes are committed together once a number of entries is pending, or after a maximum delay
+ * since the last commit, whichever comes first: writes that are not committed yet are lost in case of crash. No lock is held
+ * while committing, so that writes are never blocked by a commit in progress. When the store is sharded, a query only
+ * commits the shards it wrote.
+ */
+class CacheCommitter {
+    private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final ResponseStore store;
+    private final int maxPendingEntries;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger pendingEntries = new AtomicInteger();
+    private volatile SearchMetrics metrics = NoopSearchMetrics.INSTANCE;
+
+    /**
+     * Create a committer that commits each query on its own.
+     */
+    CacheCommitter(ResponseStore store) {
+        this.store = store;
+        this.maxPendingEntries = 0;
+        this.timer = null;
+    }
+
+    /**
+     * Create a group committer.
+     * 
+     * @param maxPendingEntries
+     *            the number of written entries that triggers a commit.
+     * @param maxDelay
+     *            the maximum time a written entry is left uncommitted.
+     * @param unit
+     *            the time unit of maxDelay.
+     */
+    CacheCommitter(ResponseStore store, int maxPendingEntries, long maxDelay, TimeUnit unit) {
+        this.store = store;
+        this.maxPendingEntries = maxPendingEntries;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "websearch-cache-commit");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                commit();
+            } catch (RuntimeException e) {
+                LOG.error("Could not commit cache.", e);
+            }
+        }, maxDelay, maxDelay, unit);
+    }
+
+    /**
+     * @param metrics
+     *            the metrics receiving the latency of commits.
+     */
+    void setMetrics(SearchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Notify that entries have been written to the store.
+     * 
+     * @param entries
+     *            the number of entries written.
+     * @param inBatch
+     *            whether the entries belong to a batch that will be committed at its end.
+     */
+    void written(int entries, boolean inBatch) {
+        int pending = pendingEntries.addAndGet(entries);
+        if (timer != null ? pending >= maxPendingEntries : !inBatch)
+            commit();
+    }
+
+    /**
+     * Notify that entries have been written to the store. If they are committed straight away and the store is sharded,
+     * only the shards holding them are committed.
+     * 
+     * @param keys
+     *            the keys of the entries written.
+     * @param inBatch
+     *            whether the entries belong to a batch that will be committed at its end.
+     */
+    void written(Collection<String> keys, boolean inBatch) {
+        if (timer != null || inBatch || !(store instanceof ShardedResponseStore)) {
+            written(keys.size(), inBatch);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            ((ShardedResponseStore) store).commit(keys);
+            metrics.committed(keys.size(), System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Commit all pending writes. If the commit fails, the writes are left pending, so that the next commit retries them.
+     */
+    void commit() {
+        int entries = pendingEntries.getAndSet(0);
+        if (entries == 0)
+            return;
+        long start = System.nanoTime();
+        try {
+            store.commit();
+        } catch (IOException e) {
+            pendingEntries.addAndGet(entries);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            pendingEntries.addAndGet(entries);
+            throw e;
+        }
+        metrics.committed(entries, System.nanoTime() - start);
+    }
+
+    /**
+     * Commit all pending writes and stop committing periodically.
+     */
+    void close() {
+        if (timer != null)
+            timer.shutdownNow();
+        commit();
+    }
+}
@@ -2,29 +2,167 @@ package it.unipi.di.acube.searchapi;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
-import org.mapdb.HTreeMap;
-import org.mapdb.HTreeMap.KeySet;
-import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.unipi.di.acube.searchapi.codecs.DictionaryCodec;
+import it.unipi.di.acube.searchapi.codecs.GzipCodec;
+import it.unipi.di.acube.searchapi.codecs.Lz4Codec;
+import it.unipi.di.acube.searchapi.interfaces.ResponseCodec;
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics;
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics.CacheTier;
 import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
+import it.unipi.di.acube.searchapi.interfaces.WebsearchResponseHandler;
 import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.stores.MapDbResponseStore;
+import it.unipi.di.acube.searchapi.stores.ShardedResponseStore;
 
 public class CachedWebsearchApi extends WebsearchApi {
     private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    private DB db;
-    private HTreeMap<String, byte[]> queryResponses;
+    private final static int DEFAULT_CONCURRENCY = 32;
+    private final static String DICTIONARY_METADATA = "dictionary.";
+    private final static int IMPORT_BATCH_SIZE = 1024;
+    private final static HashFunction KEY_HASH = Hashing.murmur3_128();
+    private final static BaseEncoding KEY_ENCODING = BaseEncoding.base64Url().omitPadding();
+    /**
+     * Name of the metadata value marking stores that contain no entry keyed by URI.
+     */
+    private final static String KEYS_METADATA = "keys";
+    private final static byte[] COMPACT_KEYS = "compact".getBytes(StandardCharsets.UTF_8);
+    private final ResponseStore store;
+    private final CacheCommitter committer;
+    private volatile boolean compactKeysOnly = false;
+    private final ConcurrentMap<Byte, ResponseCodec> codecs = new ConcurrentHashMap<>();
+    private ResponseCodec codec;
     private String cachePath;
+    private Cache<String, StoredResponse> memoryCache;
+    private StoreFormat storeFormat = StoreFormat.JSON;
+    private long softTtlMillis = 0;
+    private long hardTtlMillis = 0;
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong diskMisses = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong expiredMisses = new AtomicLong();
+    private final AtomicLong corruptEntries = new AtomicLong();
+    private final AtomicLong reusedPages = new AtomicLong();
+    private final ConcurrentMap<String, InFlightQuery> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> refreshing = new ConcurrentHashMap<>();
+
+    /**
+     * Format of the pages stored in the cache.
+     *
+     */
+    public enum StoreFormat {
+        /**
+         * The raw JSON response of the API, compressed. Cached responses expose the JSON responses.
+         */
+        JSON,
+        /**
+         * Only the fields exposed by {@link WebsearchResponse}, in a compact binary format that is faster to read and
+         * smaller on disk. Cached responses do not expose the JSON responses.
+         */
+        COMPACT
+    }
+
+    /**
+     * A response, with the write time of its oldest page.
+     */
+    private static class StoredResponse {
+        private final WebsearchResponse response;
+        private final long writeTime;
+
+        private StoredResponse(WebsearchResponse response, long writeTime) {
+            this.response = response;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * A query whose pages are being fetched and stored by a thread, that other threads missing on the same query wait for.
+     */
+    private static class InFlightQuery {
+        private final int neededResults;
+        private final CompletableFuture<WebsearchResponse> response = new CompletableFuture<>();
+
+        private InFlightQuery(int neededResults) {
+            this.neededResults = neededResults;
+        }
+    }
+
+    /**
+     * The first pages of a response read from the cache. Pages may be stored in both formats: once a compact page is read,
+     * all pages are kept as compact pages.
+     */
+    private final class CachedPages {
+        private final List<URI> uris = new Vector<>();
+        private final List<JSONObject> jsonResponses = new Vector<>();
+        private List<CompactPage> compactPages = null;
+        private int resultsSoFar = 0;
+        private long writeTime = TimestampedValue.UNKNOWN_WRITE_TIME;
+        private boolean complete = false;
+        private boolean expired = false;
+
+        private void add(URI uri, JSONObject jsonResponse) throws JSONException {
+            int results = api.countResults(jsonResponse);
+            if (compactPages != null)
+                compactPages.add(CompactPage.fromJson(api, uri, jsonResponse));
+            uris.add(uri);
+            jsonResponses.add(jsonResponse);
+            resultsSoFar += results;
+        }
+
+        private void add(URI uri, CompactPage page) throws JSONException {
+            if (compactPages == null)
+                compactPages = toCompactPages(uris, jsonResponses);
+            uris.add(uri);
+            compactPages.add(page);
+            resultsSoFar += page.countResults();
+        }
+
+        private boolean isComplete(int neededResults) throws JSONException {
+            return compactPages == null ? api.queryComplete(jsonResponses, neededResults)
+                    : CompactPage.queryComplete(compactPages, neededResults);
+        }
+
+        private WebsearchResponse buildResponse(int neededResults) throws JSONException {
+            return compactPages == null ? api.buildResponseFromJson(uris, jsonResponses, neededResults)
+                    : CompactPage.buildResponse(uris, compactPages, neededResults);
+        }
+    }
 
     /**
      * Builder for CachedWebsearchApi.
@@ -34,6 +172,22 @@ public class CachedWebsearchApi extends WebsearchApi {
         private WebSearchApiCaller api;
         private String cachePath;
         private CachedWebsearchApi cachedApi;
+        private ResponseStore store;
+        private int concurrency = DEFAULT_CONCURRENCY;
+        private boolean transactions = true;
+        private int shards = 0;
+        private Executor executor;
+        private boolean parallelFetch = false;
+        private RetryPolicy retryPolicy;
+        private SearchMetrics metrics;
+        private long memoryCacheSize = 0;
+        private StoreFormat storeFormat = StoreFormat.JSON;
+        private ResponseCodec codec;
+        private int groupCommitEntries = 0;
+        private long groupCommitDelay;
+        private TimeUnit groupCommitUnit;
+        private long softTtlMillis = 0;
+        private long hardTtlMillis = 0;
 
         /**
          * @param api
@@ -66,97 +220,1261 @@ public class CachedWebsearchApi extends WebsearchApi {
             return this;
         }
 
+        /**
+         * @param store
+         *            the store keeping the cached responses, e.g. a {@link MapDbResponseStore} kept in memory, or a
+         *            {@link it.unipi.di.acube.searchapi.stores.MmapResponseStore}. If not specified, responses are kept in a
+         *            MapDB file at the storage path. The store is closed with the API.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder store(ResponseStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /**
+         * @param concurrency
+         *            the number of lock segments each shard of the cache is striped into. Writes to keys falling in different
+         *            segments do not block each other. Rounded up to a power of two. Ignored if the database is reused with
+         *            {@link #dbFrom(CachedWebsearchApi)}, or if a store is given with {@link #store(ResponseStore)}.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder concurrency(int concurrency) {
+            if (concurrency < 1)
+                throw new IllegalArgumentException("Concurrency must be positive.");
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param transactions
+         *            whether the database writes a write-ahead log, so that after a crash it is recovered to its last commit
+         *            when opened again. Disabling it makes writes faster (e.g. for bulk imports), but a cache that is not
+         *            closed cleanly may be corrupted. Ignored if the database is reused with
+         *            {@link #dbFrom(CachedWebsearchApi)}, or if a store is given with {@link #store(ResponseStore)}. Default is
+         *            true.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder transactions(boolean transactions) {
+            this.transactions = transactions;
+            return this;
+        }
+
+        /**
+         * @param shards
+         *            the number of shards the cache is partitioned into, by hash of the cached URI. Each shard is stored in a
+         *            file of its own, named after the storage path followed by the shard number (e.g. cache.db.0), and is
+         *            committed on its own: writes to different shards proceed in parallel, shards can be placed on different
+         *            disks, and each shard can be rebuilt with {@link CachedWebsearchApi#rebuildShard(int)} while the others
+         *            are in use. The file at the storage path keeps the compression dictionaries and the number of shards.
+         *            If the cache exists and is not sharded, its entries are moved to the shards. By default, an existing
+         *            cache keeps its number of shards, and new caches are not sharded. To shard a store given with
+         *            {@link #store(ResponseStore)}, use a {@link ShardedResponseStore} instead.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder shards(int shards) {
+            if (shards < 1)
+                throw new IllegalArgumentException("The number of shards must be positive.");
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param executor
+         *            the executor running asynchronous queries. If not specified, a shared executor is used (see
+         *            {@link WebsearchApi#WebsearchApi(WebSearchApiCaller, Executor)}).
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param parallelFetch
+         *            whether to fetch the pages of a query in parallel (see {@link WebsearchApi#setParallelFetch(boolean)}).
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder parallelFetch(boolean parallelFetch) {
+            this.parallelFetch = parallelFetch;
+            return this;
+        }
+
+        /**
+         * @param retryPolicy
+         *            the policy deciding which failed calls are issued again (see
+         *            {@link WebsearchApi#setRetryPolicy(RetryPolicy)}).
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * @param metrics
+         *            the metrics receiving the events of the queries and of the cache (see
+         *            {@link CachedWebsearchApi#setMetrics(SearchMetrics)}).
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder metrics(SearchMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Enable an in-memory cache of complete responses in front of the database, so that the responses to frequent
+         * queries are served without reading and parsing the stored pages. When full, least recently used responses are
+         * evicted first. Responses are shared among callers and must not be modified.
+         * 
+         * @param maxWebEntries
+         *            the maximum number of web entries (results) contained in the responses kept in memory.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder memoryCache(long maxWebEntries) {
+            if (maxWebEntries < 1)
+                throw new IllegalArgumentException("Memory cache size must be positive.");
+            this.memoryCacheSize = maxWebEntries;
+            return this;
+        }
+
+        /**
+         * @param storeFormat
+         *            the format of newly stored pages. Pages already stored in a different format can still be read. Default is
+         *            {@link StoreFormat#JSON}.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder storeFormat(StoreFormat storeFormat) {
+            this.storeFormat = storeFormat;
+            return this;
+        }
+
+        /**
+         * @param codec
+         *            the codec used to encode newly stored JSON responses. Responses already stored with a different codec can
+         *            still be read. By default, the dictionary most recently trained with
+         *            {@link CachedWebsearchApi#trainDictionary(int)} is used if any, GZip otherwise.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder codec(ResponseCodec codec) {
+            if (codec.getTag() == CompactPage.FORMAT_TAG || codec.getTag() == TimestampedValue.TAG)
+                throw new IllegalArgumentException("Codec tag is reserved for compact pages and timestamps.");
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * Enable group commit: instead of committing each query to disk as soon as its response is stored, commit once a
+         * number of entries has been written, or after a maximum delay, whichever comes first. Responses stored in the last
+         * maxDelay before a crash may be lost. {@link CachedWebsearchApi#close()} commits all pending entries.
+         * 
+         * @param maxPendingEntries
+         *            the number of pending entries that triggers a commit.
+         * @param maxDelay
+         *            the maximum time an entry is left uncommitted (the durability window).
+         * @param unit
+         *            the time unit of maxDelay.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder groupCommit(int maxPendingEntries, long maxDelay, TimeUnit unit) {
+            if (maxPendingEntries < 1 || maxDelay <= 0)
+                throw new IllegalArgumentException("Group commit size and delay must be positive.");
+            this.groupCommitEntries = maxPendingEntries;
+            this.groupCommitDelay = maxDelay;
+            this.groupCommitUnit = unit;
+            return this;
+        }
+
+        /**
+         * Set a soft time-to-live for cached responses. A response whose oldest page was stored longer than this ago is
+         * still returned straight away, but the query is issued again in the background to refresh the cache. At most one
+         * refresh per query is in flight at any time. Pages stored by versions of this library that did not record write
+         * times never expire. By default, responses never go stale.
+         * 
+         * @param ttl
+         *            the soft time-to-live.
+         * @param unit
+         *            the time unit of ttl.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder softTtl(long ttl, TimeUnit unit) {
+            if (ttl <= 0)
+                throw new IllegalArgumentException("TTL must be positive.");
+            this.softTtlMillis = unit.toMillis(ttl);
+            return this;
+        }
+
+        /**
+         * Set a hard time-to-live for cached responses. A response whose oldest page was stored longer than this ago is
+         * considered not cached, and the query is issued again before returning. Pages stored by versions of this library
+         * that did not record write times never expire. By default, responses never expire.
+         * 
+         * @param ttl
+         *            the hard time-to-live.
+         * @param unit
+         *            the time unit of ttl.
+         * @return this builder.
+         */
+        public CachedWebsearchApiBuilder hardTtl(long ttl, TimeUnit unit) {
+            if (ttl <= 0)
+                throw new IllegalArgumentException("TTL must be positive.");
+            this.hardTtlMillis = unit.toMillis(ttl);
+            return this;
+        }
+
+        private MapDbResponseStore openMapDb(String path) throws IOException {
+            return MapDbResponseStore.builder().path(path).concurrency(concurrency).transactions(transactions).create();
+        }
+
+        private ResponseStore openStore() throws IOException {
+            MapDbResponseStore main = openMapDb(cachePath);
+            List<MapDbResponseStore> shardStores = new ArrayList<>();
+            try {
+                int storedShards = ShardedResponseStore.storedShards(main);
+                if (storedShards > 0 && shards > 0 && storedShards != shards)
+                    throw new IllegalArgumentException(
+                            String.format("Websearch cache %s has %d shards, %d given.", cachePath, storedShards, shards));
+                int shardCount = storedShards > 0 ? storedShards : Math.max(shards, 1);
+                if (shardCount == 1)
+                    return main;
+                for (int i = 0; i < shardCount; i++)
+                    shardStores.add(openMapDb(cachePath + "." + i));
+                return new ShardedResponseStore(main, shardStores);
+            } catch (IOException | RuntimeException e) {
+                for (MapDbResponseStore shardStore : shardStores)
+                    shardStore.close();
+                main.close();
+                throw e;
+            }
+        }
+
         public CachedWebsearchApi create() throws FileNotFoundException, ClassNotFoundException, IOException {
-            if (cachedApi == null && cachePath == null)
+            if (store != null && (cachedApi != null || cachePath != null))
+                throw new IllegalArgumentException("Give either a store, a storage path or a cached API to reuse.");
+            if (store == null && cachedApi == null && cachePath == null)
                 throw new IllegalArgumentException("You need to either specify a storage path or give a cached API to reuse.");
+            if (softTtlMillis > 0 && hardTtlMillis > 0 && softTtlMillis >= hardTtlMillis)
+                throw new IllegalArgumentException("Soft TTL must be shorter than hard TTL.");
             if (cachedApi != null && cachePath != null && !cachePath.equals(cachedApi.cachePath))
                 throw new IllegalArgumentException(String.format(
                         "Trying to reuse Websearch cache but different path provided: %s vs %s", cachePath, cachedApi.cachePath));
-            if (cachePath == null)
+            if (cachePath == null && cachedApi != null)
                 cachePath = cachedApi.cachePath;
-            DB db;
+            ResponseStore cacheStore;
+            CacheCommitter committer;
             if (cachedApi != null) {
                 LOG.debug("Reusing already open Webcache database.");
-                db = cachedApi.db;
+                if (shards > 0 && shards != cachedApi.getShards())
+                    throw new IllegalArgumentException(String.format("Trying to reuse Websearch cache with %d shards, %d given.",
+                            cachedApi.getShards(), shards));
+                cacheStore = cachedApi.store;
+                committer = cachedApi.committer;
             } else {
-                db = DBMaker.fileDB(cachePath).fileMmapEnable().closeOnJvmShutdownWeakReference().make();
+                cacheStore = store != null ? store : openStore();
+                committer = groupCommitEntries > 0
+                        ? new CacheCommitter(cacheStore, groupCommitEntries, groupCommitDelay, groupCommitUnit)
+                        : new CacheCommitter(cacheStore);
             }
-            return new CachedWebsearchApi(api, db, cachePath,
-                    db.hashMap("queries", Serializer.STRING, Serializer.BYTE_ARRAY).createOrOpen());
+            CachedWebsearchApi cached = new CachedWebsearchApi(api, executor, cacheStore, committer, cachePath);
+            cached.setParallelFetch(parallelFetch);
+            cached.storeFormat = storeFormat;
+            cached.softTtlMillis = softTtlMillis;
+            cached.hardTtlMillis = hardTtlMillis;
+            cached.registerCodec(new GzipCodec());
+            cached.registerCodec(new Lz4Codec());
+            cached.codec = cached.codecs.get(GzipCodec.TAG);
+            for (int id = 0; cacheStore.getMetadata(DICTIONARY_METADATA + id) != null; id++)
+                cached.codec = cached.registerCodec(new DictionaryCodec(id, cacheStore.getMetadata(DICTIONARY_METADATA + id)));
+            if (codec != null)
+                cached.codec = cached.registerCodec(codec);
+            if (memoryCacheSize > 0)
+                cached.memoryCache = CacheBuilder.newBuilder().maximumWeight(memoryCacheSize)
+                        .weigher((String key, StoredResponse stored) -> stored.response.getWebEntries().size() + 1)
+                        .recordStats().build();
+            if (retryPolicy != null)
+                cached.setRetryPolicy(retryPolicy);
+            if (metrics != null)
+                cached.setMetrics(metrics);
+            if (cacheStore.size() == 0 && cacheStore.getMetadata(KEYS_METADATA) == null) {
+                cacheStore.putMetadata(KEYS_METADATA, COMPACT_KEYS);
+                cacheStore.commit();
+            }
+            cached.compactKeysOnly = Arrays.equals(cacheStore.getMetadata(KEYS_METADATA), COMPACT_KEYS);
+            return cached;
         }
     }
 
-    private CachedWebsearchApi(WebSearchApiCaller api, DB db, String cachePath, HTreeMap<String, byte[]> queryResponses)
-            throws FileNotFoundException, ClassNotFoundException, IOException {
-        super(api);
-        this.db = db;
-        this.queryResponses = queryResponses;
+    private CachedWebsearchApi(WebSearchApiCaller api, Executor executor, ResponseStore store, CacheCommitter committer,
+            String cachePath) throws FileNotFoundException, ClassNotFoundException, IOException {
+        super(api, executor);
+        this.store = store;
+        this.committer = committer;
         this.cachePath = cachePath;
     }
 
+    /**
+     * @param metrics
+     *            the metrics receiving the events of the queries issued by this API, and of its cache: hits and misses of
+     *            each tier, time spent decoding pages, and commits. Commits are reported to the metrics of the API the cache
+     *            storage was opened by. By default, events are ignored.
+     * @return this.
+     */
     @Override
-    public synchronized WebsearchResponse query(String query, int neededResults) throws Exception {
-        int resultsSoFar = 0;
-        boolean cached = true;
-        List<URI> calledUris = new Vector<>();
-        List<JSONObject> jsonResponses = new Vector<>();
+    public CachedWebsearchApi setMetrics(SearchMetrics metrics) {
+        super.setMetrics(metrics);
+        committer.setMetrics(metrics);
+        return this;
+    }
+
+    /**
+     * Get the response for a query, from the cache if all needed pages are stored, from the API otherwise. This method is
+     * thread-safe and does not hold any lock while calling the API: cache hits are never blocked by cache misses in flight.
+     */
+    @Override
+    public WebsearchResponse query(String query, int neededResults) throws Exception {
+        WebsearchResponse cached = cachedResponse(query, neededResults, false);
+        if (cached != null)
+            return cached;
+        return queryAndStore(query, neededResults, false);
+    }
+
+    /**
+     * Get the response for a query without blocking the calling thread. If all needed pages are cached, the returned future
+     * is already completed.
+     */
+    @Override
+    public CompletableFuture<WebsearchResponse> queryAsync(String query, int neededResults) {
+        WebsearchResponse cached;
+        try {
+            cached = cachedResponse(query, neededResults, false);
+        } catch (Exception e) {
+            CompletableFuture<WebsearchResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        return submit(() -> queryAndStore(query, neededResults, false));
+    }
+
+    /**
+     * Get the responses for a batch of queries. All queries whose response is cached are served first, then the others are
+     * issued to the API, with at most maxConcurrency queries in flight at any time. Responses are passed to the handler as
+     * soon as they are ready, in no particular order; calls to the handler are never concurrent. New responses are committed
+     * to the cache storage once, at the end of the batch. This method returns when all queries have been handled.
+     * 
+     * @param queries
+     *            the queries.
+     * @param neededResults
+     *            how many results are needed for each query.
+     * @param maxConcurrency
+     *            the maximum number of queries issued to the API at the same time.
+     * @param handler
+     *            the handler receiving responses and failures.
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting for queries to complete.
+     * @throws RuntimeException
+     *             if the handler threw it. No more queries are issued after that: the ones in flight are completed and
+     *             passed to the handler, new responses are committed, and the first exception thrown by the handler is
+     *             rethrown, with the following ones suppressed.
+     */
+    public void queryAll(Collection<String> queries, int neededResults, int maxConcurrency, WebsearchResponseHandler handler)
+            throws InterruptedException {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        List<String> misses = new Vector<>();
+        for (String query : queries) {
+            WebsearchResponse cached;
+            try {
+                cached = cachedResponse(query, neededResults, true);
+            } catch (Exception e) {
+                handler.onFailure(query, e);
+                continue;
+            }
+            if (cached == null)
+                misses.add(query);
+            else
+                handler.onResponse(query, cached);
+        }
+        LOG.debug("Batch of {} queries: {} cached, {} to be issued.", queries.size(), queries.size() - misses.size(),
+                misses.size());
+
+        Semaphore permits = new Semaphore(maxConcurrency);
+        AtomicReference<RuntimeException> handlerFailure = new AtomicReference<>();
+        try {
+            for (String query : misses) {
+                permits.acquire();
+                if (handlerFailure.get() != null) {
+                    permits.release();
+                    break;
+                }
+                submit(() -> {
+                    WebsearchResponse cached = cachedResponse(query, neededResults, true);
+                    return cached != null ? cached : queryAndStore(query, neededResults, true);
+                }).whenComplete((response, e) -> {
+                    try {
+                        synchronized (handler) {
+                            try {
+                                if (e == null)
+                                    handler.onResponse(query, response);
+                                else
+                                    handler.onFailure(query, e instanceof Exception ? (Exception) e : new ExecutionException(e));
+                            } catch (RuntimeException handlerException) {
+                                LOG.warn("Handler failed on query {}: {}", query, handlerException.toString());
+                                if (!handlerFailure.compareAndSet(null, handlerException))
+                                    handlerFailure.get().addSuppressed(handlerException);
+                            }
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            permits.acquire(maxConcurrency);
+        } finally {
+            committer.commit();
+        }
+        if (handlerFailure.get() != null)
+            throw handlerFailure.get();
+    }
+
+    /**
+     * @return the response built from cached pages, or null if some of the needed pages are not cached or expired.
+     */
+    private WebsearchResponse cachedResponse(String query, int neededResults, boolean inBatch) throws Exception {
+        URI firstUri = api.getQueryURI(query, 0);
+        String memoryKey = memoryCacheKey(firstUri, neededResults);
+        if (memoryCache != null) {
+            StoredResponse stored = memoryCache.getIfPresent(memoryKey);
+            if (stored != null) {
+                if (!isExpired(stored.writeTime)) {
+                    metrics.cacheHit(CacheTier.MEMORY);
+                    return refreshIfStale(query, neededResults, memoryKey, stored);
+                }
+                memoryCache.invalidate(memoryKey);
+            }
+            metrics.cacheMiss(CacheTier.MEMORY);
+        }
+
+        CachedPages pages = readPages(query, neededResults, firstUri, inBatch);
+        if (!pages.complete) {
+            diskMisses.incrementAndGet();
+            metrics.cacheMiss(CacheTier.STORE);
+            if (pages.expired) {
+                expiredMisses.incrementAndGet();
+                LOG.debug("<expired> {}", firstUri);
+            }
+            return null;
+        }
+        diskHits.incrementAndGet();
+        metrics.cacheHit(CacheTier.STORE);
+        if (LOG.isDebugEnabled())
+            for (URI uri : pages.uris)
+                LOG.debug("<cached> {}", uri);
+        StoredResponse stored = new StoredResponse(pages.buildResponse(neededResults), pages.writeTime);
+        if (memoryCache != null)
+            memoryCache.put(memoryKey, stored);
+        return refreshIfStale(query, neededResults, memoryKey, stored);
+    }
+
+    /**
+     * Read the pages of a response from the cache, in order, until the response is complete or a page is not cached, expired
+     * or corrupt. Corrupt pages are removed, and their removal is committed at once unless inBatch is set.
+     * 
+     * @return the pages read, that are the first pages of the response.
+     */
+    private CachedPages readPages(String query, int neededResults, URI firstUri, boolean inBatch) throws Exception {
+        CachedPages pages = new CachedPages();
         do {
-            URI uri = api.getQueryURI(query, resultsSoFar);
-            calledUris.add(uri);
-            cached = queryResponses.containsKey(uri.toString());
-            if (cached) {
-                JSONObject cachedResponse = new JSONObject(StringCompress.decompress(queryResponses.get(uri.toString())));
-                jsonResponses.add(cachedResponse);
-                resultsSoFar += api.countResults(cachedResponse);
+            URI uri = pages.uris.isEmpty() ? firstUri : api.getQueryURI(query, pages.resultsSoFar);
+            byte[] value = storedValue(uri.toString());
+            if (value == null)
+                break;
+            long writeTime = TimestampedValue.writeTime(value);
+            if (isExpired(writeTime)) {
+                pages.expired = true;
+                break;
+            }
+            value = TimestampedValue.payload(value);
+            ResponseCodec valueCodec = getCodec(value);
+            long start = System.nanoTime();
+            try {
+                if (valueCodec == null)
+                    pages.add(uri, CompactPage.decode(value));
+                else
+                    pages.add(uri, new JSONObject(valueCodec.decode(value)));
+                metrics.pageDecoded(System.nanoTime() - start);
+            } catch (IOException | JSONException | RuntimeException e) {
+                dropCorrupt(uri.toString(), e, inBatch);
+                break;
             }
-        } while (cached && !api.queryComplete(jsonResponses, neededResults));
+            pages.writeTime = Math.min(pages.writeTime, writeTime);
+            pages.complete = pages.isComplete(neededResults);
+        } while (!pages.complete);
+        return pages;
+    }
+
+    /**
+     * Remove an entry that could not be decoded, so that its query is issued again. If the entry was copied from a value
+     * stored under its URI, that value is removed as well.
+     */
+    private void dropCorrupt(String uri, Exception e, boolean inBatch) throws IOException {
+        String key = cacheKey(uri);
+        LOG.warn("Dropping corrupt cache entry {}: {}", key, e.toString());
+        corruptEntries.incrementAndGet();
+        store.remove(key);
+        if (compactKeysOnly) {
+            committer.written(Collections.singletonList(key), inBatch);
+            return;
+        }
+        store.remove(uri);
+        committer.written(Arrays.asList(key, uri), inBatch);
+    }
 
-        if (cached) {
-            for (URI uri : calledUris)
-                LOG.info("<cached> {}", uri);
-            return api.buildResponseFromJson(calledUris, jsonResponses, neededResults);
-        } else {
-            WebsearchResponse result = super.query(query, neededResults);
-            for (int i = 0; i < result.getCalledURIs().size(); i++) {
-                queryResponses.put(result.getCalledURIs().get(i).toString(),
-                        StringCompress.compress(result.getJsonResponses().get(i).toString()));
+    /**
+     * Check that all entries of the cache can be decoded, and remove the ones that can not. Entries encoded with codecs
+     * unknown to this cache are kept. This reads the whole cache.
+     * 
+     * @return the number of entries removed.
+     * @throws IOException
+     *             if the store could not be read or written.
+     */
+    public synchronized long verifyCache() throws IOException {
+        long start = System.currentTimeMillis();
+        long verified = 0;
+        List<String> corrupt = new ArrayList<>();
+        for (String key : store.keys()) {
+            verified++;
+            try {
+                byte[] value = store.get(key);
+                if (value == null)
+                    continue;
+                byte[] payload = TimestampedValue.payload(value);
+                ResponseCodec valueCodec;
+                try {
+                    valueCodec = getCodec(payload);
+                } catch (IOException e) {
+                    LOG.warn("Keeping cache entry {} encoded with an unknown codec.", key);
+                    continue;
+                }
+                if (valueCodec == null)
+                    CompactPage.decode(payload);
+                else
+                    valueCodec.decode(payload);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Corrupt cache entry {}: {}", key, e.toString());
+                corrupt.add(key);
             }
-            db.commit();
-            return result;
         }
+        for (String key : corrupt)
+            store.remove(key);
+        committer.written(corrupt.size(), true);
+        committer.commit();
+        corruptEntries.addAndGet(corrupt.size());
+        if (memoryCache != null && !corrupt.isEmpty())
+            memoryCache.invalidateAll();
+        LOG.info("Verified {} cache entries in {} ms, removed {} corrupt entries.", verified, System.currentTimeMillis() - start,
+                corrupt.size());
+        return corrupt.size();
+    }
+
+    /**
+     * @param uri
+     *            the URI of a call to the API.
+     * @return the key of the call in the store: a 128-bit hash of the URI, encoded in base 64.
+     */
+    private static String cacheKey(String uri) {
+        return KEY_ENCODING.encode(KEY_HASH.hashString(uri, StandardCharsets.UTF_8).asBytes());
+    }
+
+    /**
+     * @return whether the key is the URI of a call, as used by earlier versions, rather than a compact key.
+     */
+    private static boolean isUriKey(String key) {
+        return key.contains("://");
+    }
+
+    /**
+     * @return the stored value for the call to the given URI, or null if the call is not cached. Values stored under their
+     *         URI by earlier versions are copied to their compact key, and committed along with other writes. The value
+     *         under the URI is kept until {@link #migrateKeys()}, so that it is never lost before its copy is committed.
+     */
+    private byte[] storedValue(String uri) throws IOException {
+        String key = cacheKey(uri);
+        byte[] value = store.get(key);
+        if (value != null || compactKeysOnly)
+            return value;
+        value = store.get(uri);
+        if (value == null)
+            return store.get(key);
+        value = withUri(uri, value);
+        store.put(key, value);
+        committer.written(1, true);
+        return value;
+    }
+
+    /**
+     * @return the value stored under an URI by earlier versions, in an envelope containing the URI.
+     */
+    private static byte[] withUri(String uri, byte[] value) {
+        return TimestampedValue.wrap(TimestampedValue.payload(value), TimestampedValue.writeTime(value), uri);
+    }
+
+    /**
+     * @return whether the value stored under an URI by earlier versions was copied to its compact key.
+     */
+    private boolean isCopied(String uri) {
+        try {
+            return store.get(cacheKey(uri)) != null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Move all values stored under their URI by earlier versions to their compact key. Values read are copied anyway, but
+     * doing it at once makes later lookups of calls that are not cached faster, and removes the values left under their URI.
+     * If the same call is stored under both keys, the value written last is kept.
+     * 
+     * @return the number of values moved.
+     * @throws IOException
+     *             if the store could not be read or written.
+     */
+    public synchronized long migrateKeys() throws IOException {
+        long start = System.currentTimeMillis();
+        long migrated = 0;
+        Map<String, byte[]> batch = new HashMap<>();
+        List<String> uriKeys = new ArrayList<>();
+        try {
+            for (Map.Entry<String, byte[]> entry : store.entries()) {
+                if (!isUriKey(entry.getKey()))
+                    continue;
+                String key = cacheKey(entry.getKey());
+                byte[] existing = store.get(key);
+                if (existing == null || getWriteTime(existing) < getWriteTime(entry.getValue()))
+                    batch.put(key, withUri(entry.getKey(), entry.getValue()));
+                uriKeys.add(entry.getKey());
+                if (uriKeys.size() == IMPORT_BATCH_SIZE)
+                    migrated += moveBatch(batch, uriKeys);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        migrated += moveBatch(batch, uriKeys);
+        store.putMetadata(KEYS_METADATA, COMPACT_KEYS);
+        committer.commit();
+        store.commit();
+        compactKeysOnly = true;
+        LOG.info("Moved {} values to compact keys in {} ms.", migrated, System.currentTimeMillis() - start);
+        return migrated;
+    }
+
+    private int moveBatch(Map<String, byte[]> batch, List<String> uriKeys) throws IOException {
+        int moved = uriKeys.size();
+        writeBatch(batch);
+        for (String uriKey : uriKeys)
+            store.remove(uriKey);
+        committer.written(moved, true);
+        uriKeys.clear();
+        return moved;
+    }
+
+    private boolean isExpired(long writeTime) {
+        return hardTtlMillis > 0 && System.currentTimeMillis() - writeTime > hardTtlMillis;
+    }
+
+    /**
+     * If the response is past its soft time-to-live, issue its query again in the background, unless this is already being
+     * done.
+     * 
+     * @return the response.
+     */
+    private WebsearchResponse refreshIfStale(String query, int neededResults, String memoryKey, StoredResponse stored) {
+        if (softTtlMillis <= 0 || System.currentTimeMillis() - stored.writeTime <= softTtlMillis)
+            return stored.response;
+        staleHits.incrementAndGet();
+        if (refreshing.putIfAbsent(memoryKey, Boolean.TRUE) == null) {
+            LOG.debug("<refreshing> {}", memoryKey);
+            submit(() -> storeResponse(super.query(query, neededResults), neededResults, false)).whenComplete((response, e) -> {
+                refreshing.remove(memoryKey);
+                if (e != null)
+                    LOG.warn("Could not refresh {}: {}", memoryKey, e.getMessage());
+            });
+        }
+        return stored.response;
+    }
+
+    /**
+     * @return the compact version of the JSON pages read so far, to handle caches with pages stored in both formats.
+     */
+    private List<CompactPage> toCompactPages(List<URI> uris, List<JSONObject> jsonResponses) throws JSONException {
+        List<CompactPage> pages = new Vector<>();
+        for (int i = 0; i < jsonResponses.size(); i++)
+            pages.add(CompactPage.fromJson(api, uris.get(i), jsonResponses.get(i)));
+        return pages;
+    }
+
+    private static String memoryCacheKey(URI firstUri, int neededResults) {
+        return neededResults + "@" + firstUri;
+    }
+
+    /**
+     * Issue the calls for the pages of a response that are not cached, and store their responses, unless the same query is
+     * already being issued by another thread. In that case, wait until that thread has stored its pages: if it needed as many
+     * results, share its response (or its failure), otherwise read the cache again, and issue the calls for the pages that
+     * are still missing. Only the thread issuing the calls stores and commits their pages.
+     */
+    private WebsearchResponse queryAndStore(String query, int neededResults, boolean inBatch) throws Exception {
+        String key = api.getQueryURI(query, 0).toString();
+        while (true) {
+            InFlightQuery flight = new InFlightQuery(neededResults);
+            InFlightQuery running = inFlight.putIfAbsent(key, flight);
+            if (running == null) {
+                try {
+                    WebsearchResponse response = fetchAndStore(query, neededResults, inBatch);
+                    flight.response.complete(response);
+                    return response;
+                } catch (Throwable e) {
+                    flight.response.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    inFlight.remove(key, flight);
+                }
+            }
+            LOG.debug("<waiting> {}", key);
+            try {
+                WebsearchResponse response = running.response.get();
+                if (running.neededResults == neededResults)
+                    return response;
+            } catch (ExecutionException e) {
+                if (running.neededResults == neededResults)
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            WebsearchResponse cached = cachedResponse(query, neededResults, inBatch);
+            if (cached != null)
+                return cached;
+        }
+    }
+
+    /**
+     * Issue the calls for the pages of a response that are not cached, and store their responses. If the first pages of the
+     * response are cached, for instance because fewer results were needed by an earlier query, they are reused and only the
+     * following pages are fetched, in parallel if enabled.
+     */
+    private WebsearchResponse fetchAndStore(String query, int neededResults, boolean inBatch) throws Exception {
+        CachedPages pages = readPages(query, neededResults, api.getQueryURI(query, 0), inBatch);
+        if (pages.uris.isEmpty())
+            return storeResponse(super.query(query, neededResults), neededResults, inBatch);
+        if (pages.complete)
+            return pages.buildResponse(neededResults);
+
+        int reused = pages.uris.size();
+        List<URI> uris = new Vector<>();
+        List<JSONObject> jsonResponses = new Vector<>();
+        fetchPages(query, pages.resultsSoFar, neededResults - pages.resultsSoFar, uris, jsonResponses);
+        if (api.recacheNeeded(jsonResponses))
+            return storeResponse(super.query(query, neededResults), neededResults, inBatch);
+        for (int i = 0; i < uris.size(); i++)
+            pages.add(uris.get(i), jsonResponses.get(i));
+        LOG.debug("<completed> {} with {} cached pages", pages.uris.get(0), reused);
+        reusedPages.addAndGet(reused);
+
+        long writeTime = storePages(uris, jsonResponses, inBatch);
+        WebsearchResponse result = pages.buildResponse(neededResults);
+        if (memoryCache != null)
+            memoryCache.put(memoryCacheKey(pages.uris.get(0), neededResults),
+                    new StoredResponse(result, Math.min(pages.writeTime, writeTime)));
+        return result;
+    }
+
+    /**
+     * Store all pages of a response returned by the API.
+     */
+    private WebsearchResponse storeResponse(WebsearchResponse result, int neededResults, boolean inBatch) throws Exception {
+        long writeTime = storePages(result.getCalledURIs(), result.getJsonResponses(), inBatch);
+        if (memoryCache != null)
+            memoryCache.put(memoryCacheKey(result.getCalledURIs().get(0), neededResults),
+                    new StoredResponse(result, writeTime));
+        return result;
+    }
+
+    /**
+     * @return the write time of the pages.
+     */
+    private long storePages(List<URI> uris, List<JSONObject> jsonResponses, boolean inBatch) throws Exception {
+        long writeTime = System.currentTimeMillis();
+        List<String> keys = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            URI uri = uris.get(i);
+            JSONObject jsonResponse = jsonResponses.get(i);
+            byte[] payload = storeFormat == StoreFormat.COMPACT ? CompactPage.fromJson(api, uri, jsonResponse).encode()
+                    : codec.encode(jsonResponse.toString());
+            String key = cacheKey(uri.toString());
+            store.put(key, TimestampedValue.wrap(payload, writeTime, uri.toString()));
+            keys.add(key);
+        }
+        committer.written(keys, inBatch);
+        return writeTime;
+    }
+
+    private ResponseCodec registerCodec(ResponseCodec codec) {
+        ResponseCodec registered = codecs.putIfAbsent(codec.getTag(), codec);
+        if (registered == null)
+            return codec;
+        if (registered.getClass() != codec.getClass() || (codec instanceof DictionaryCodec
+                && !Arrays.equals(((DictionaryCodec) codec).getDictionary(), ((DictionaryCodec) registered).getDictionary())))
+            throw new IllegalArgumentException(String.format("Codecs %s and %s have the same tag.", codec.getName(),
+                    registered.getName()));
+        return registered;
+    }
+
+    /**
+     * @param value
+     *            a value stored in the cache, or its payload (see {@link #getPayload(byte[])}).
+     * @return the codec that encoded the value, or null if the value is a page stored in {@link StoreFormat#COMPACT} format.
+     * @throws IOException
+     *             if the value was not encoded by any known codec.
+     */
+    public ResponseCodec getCodec(byte[] value) throws IOException {
+        int offset = TimestampedValue.payloadOffset(value);
+        if (value.length == offset)
+            throw new IOException("Empty cache value.");
+        byte tag = value[offset];
+        if (tag == CompactPage.FORMAT_TAG)
+            return null;
+        ResponseCodec codec = codecs.get(tag);
+        if (codec == null && DictionaryCodec.isDictionaryTag(tag)) {
+            /* The dictionary may have been trained by another API sharing the database. */
+            byte[] dictionary = store.getMetadata(DICTIONARY_METADATA + DictionaryCodec.idFromTag(tag));
+            if (dictionary != null)
+                codec = registerCodec(new DictionaryCodec(DictionaryCodec.idFromTag(tag), dictionary));
+        }
+        if (codec == null)
+            throw new IOException(String.format("Unknown codec tag 0x%02x", tag));
+        return codec;
+    }
+
+    /**
+     * @param value
+     *            a value stored in the cache.
+     * @return the payload of the value, i.e. the encoded response or compact page, without the write time.
+     */
+    public static byte[] getPayload(byte[] value) {
+        return TimestampedValue.payload(value);
+    }
+
+    /**
+     * @param value
+     *            a value stored in the cache.
+     * @return the time the value was written, in milliseconds since the epoch, or -1 if the value was stored by a version of
+     *         this library that did not record write times.
+     */
+    public static long getWriteTime(byte[] value) {
+        long writeTime = TimestampedValue.writeTime(value);
+        return writeTime == TimestampedValue.UNKNOWN_WRITE_TIME ? -1 : writeTime;
+    }
+
+    /**
+     * Train a compression dictionary on the JSON responses stored in the cache, store it, and use it to encode responses
+     * stored from now on (also by APIs opening this cache later). Responses stored before are not re-encoded.
+     * 
+     * @param maxSamples
+     *            the maximum number of responses the dictionary is trained on.
+     * @return the codec using the new dictionary.
+     * @throws IOException
+     *             if some response could not be read.
+     */
+    public synchronized DictionaryCodec trainDictionary(int maxSamples) throws IOException {
+        int id = 0;
+        while (store.getMetadata(DICTIONARY_METADATA + id) != null)
+            id++;
+        if (id > DictionaryCodec.MAX_ID)
+            throw new IllegalStateException("Too many dictionaries.");
+        List<String> samples = new Vector<>();
+        for (byte[] value : Iterables.transform(store.entries(), Map.Entry::getValue)) {
+            if (samples.size() == maxSamples)
+                break;
+            ResponseCodec valueCodec = getCodec(value);
+            if (valueCodec != null)
+                samples.add(valueCodec.decode(TimestampedValue.payload(value)));
+        }
+        DictionaryCodec trained = DictionaryCodec.train(id, samples);
+        store.putMetadata(DICTIONARY_METADATA + id, trained.getDictionary());
+        store.commit();
+        LOG.info("Trained dictionary {} ({} bytes) on {} responses.", id, trained.getDictionary().length, samples.size());
+        codec = registerCodec(trained);
+        return trained;
     }
 
     /**
      * Add all records contained in the cache passed by argument to the static cache, overwriting in case of conflicting keys.
+     * Records must be encoded with codecs known to this cache.
      * 
      * @param newCache
      *            the cache whose records are added.
+     * @deprecated the whole cache must fit in memory. Use {@link #mergeCache(CachedWebsearchApi)} or
+     *             {@link #importCache(String)}, which stream records.
      */
+    @Deprecated
     public synchronized void mergeCache(HashMap<String, byte[]> newCache) {
-        for (String key : newCache.keySet())
-            queryResponses.put(key, newCache.get(key));
-        db.commit();
+        Map<String, byte[]> entries = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : newCache.entrySet())
+            if (isUriKey(entry.getKey()))
+                entries.put(cacheKey(entry.getKey()), withUri(entry.getKey(), entry.getValue()));
+            else
+                entries.put(entry.getKey(), entry.getValue());
+        try {
+            store.putAll(entries);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        committer.written(newCache.size(), true);
+        committer.commit();
+        if (memoryCache != null)
+            memoryCache.invalidateAll();
+    }
+
+    /**
+     * Add all records of another cache to this cache, streaming them. In case of conflicting keys, the record written last
+     * is kept (records stored by versions of this library that did not record write times are considered the oldest).
+     * Compression dictionaries of the other cache are added to this cache, if needed, and records encoded with them are
+     * re-tagged accordingly.
+     * 
+     * @param source
+     *            the cache whose records are added.
+     * @return the number of records written to this cache.
+     * @throws IOException
+     *             if some record could not be read or written.
+     */
+    public synchronized long mergeCache(CachedWebsearchApi source) throws IOException {
+        Iterator<Map.Entry<String, byte[]>> entries = source.store.entries().iterator();
+        return importEntries(source.getDictionaries(), () -> entries.hasNext() ? entries.next() : null);
+    }
+
+    /**
+     * Write all records of this cache, along with its compression dictionaries, to a file that can be imported with
+     * {@link #importCache(String)}. Records are streamed to the file sequentially.
+     * 
+     * @param path
+     *            the path of the file.
+     * @return the number of records written.
+     * @throws IOException
+     *             if the file could not be written, or some record could not be read. The file is then left unfinished, and
+     *             {@link #importCache(String)} rejects it.
+     */
+    public long exportCache(String path) throws IOException {
+        long exported = 0;
+        try (CacheArchive.Writer writer = new CacheArchive.Writer(path)) {
+            for (Map.Entry<Integer, byte[]> dictionary : getDictionaries().entrySet())
+                writer.writeMetadata(DICTIONARY_METADATA + dictionary.getKey(), dictionary.getValue());
+            try {
+                for (Map.Entry<String, byte[]> entry : store.entries()) {
+                    writer.writeEntry(entry.getKey(), entry.getValue());
+                    exported++;
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.finish();
+        }
+        LOG.info("Exported {} records to {}.", exported, path);
+        return exported;
+    }
+
+    /**
+     * Add all records of a file written by {@link #exportCache(String)} to this cache, streaming them. Conflicting keys and
+     * compression dictionaries are handled as in {@link #mergeCache(CachedWebsearchApi)}. The file is read twice: first
+     * to check it, so that nothing is imported from a file that is truncated or corrupt, then to import its records.
+     * 
+     * @param path
+     *            the path of the file.
+     * @return the number of records written to this cache.
+     * @throws IOException
+     *             if the file could not be read, is truncated or corrupt, or some record could not be written.
+     */
+    public synchronized long importCache(String path) throws IOException {
+        checkArchive(path);
+        try (CacheArchive.Reader reader = new CacheArchive.Reader(path)) {
+            return importEntries(archiveDictionaries(reader), reader::nextEntry);
+        }
+    }
+
+    /**
+     * Read a whole archive, checking that it is complete, that its checksum matches, and that its records are encoded with
+     * known dictionaries.
+     */
+    private static void checkArchive(String path) throws IOException {
+        try (CacheArchive.Reader reader = new CacheArchive.Reader(path)) {
+            Map<Integer, byte[]> dictionaries = archiveDictionaries(reader);
+            Map.Entry<String, byte[]> entry;
+            while ((entry = reader.nextEntry()) != null) {
+                byte[] value = entry.getValue();
+                int offset = TimestampedValue.payloadOffset(value);
+                if (value.length > offset && DictionaryCodec.isDictionaryTag(value[offset])
+                        && !dictionaries.containsKey(DictionaryCodec.idFromTag(value[offset])))
+                    throw new IOException("Record encoded with an unknown dictionary: " + entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return the compression dictionaries held by an archive, by identifier.
+     */
+    private static Map<Integer, byte[]> archiveDictionaries(CacheArchive.Reader reader) {
+        Map<Integer, byte[]> dictionaries = new HashMap<>();
+        for (Map.Entry<String, byte[]> metadata : reader.getMetadata().entrySet())
+            if (metadata.getKey().startsWith(DICTIONARY_METADATA))
+                dictionaries.put(Integer.parseInt(metadata.getKey().substring(DICTIONARY_METADATA.length())),
+                        metadata.getValue());
+        return dictionaries;
+    }
+
+    /**
+     * A source of records to import.
+     */
+    private interface EntrySource {
+        /**
+         * @return the next record, or null if there are no more.
+         */
+        Map.Entry<String, byte[]> next() throws IOException;
+    }
+
+    /**
+     * @return the compression dictionaries of this cache, by identifier.
+     */
+    private Map<Integer, byte[]> getDictionaries() throws IOException {
+        Map<Integer, byte[]> dictionaries = new HashMap<>();
+        byte[] dictionary;
+        for (int id = 0; (dictionary = store.getMetadata(DICTIONARY_METADATA + id)) != null; id++)
+            dictionaries.put(id, dictionary);
+        return dictionaries;
+    }
+
+    /**
+     * Write records coming from another cache in batches, keeping the ones written last.
+     * 
+     * @param sourceDictionaries
+     *            the dictionaries of the other cache, by identifier.
+     */
+    private long importEntries(Map<Integer, byte[]> sourceDictionaries, EntrySource entries) throws IOException {
+        long start = System.currentTimeMillis();
+        byte[] tags = importDictionaries(sourceDictionaries);
+        long read = 0, written = 0;
+        Map<String, byte[]> batch = new HashMap<>();
+        try {
+            Map.Entry<String, byte[]> entry;
+            while ((entry = entries.next()) != null) {
+                read++;
+                String key = entry.getKey();
+                byte[] value = entry.getValue();
+                if (isUriKey(key)) {
+                    value = withUri(key, value);
+                    key = cacheKey(key);
+                }
+                byte[] existing = store.get(key);
+                if (existing != null && getWriteTime(existing) >= getWriteTime(value))
+                    continue;
+                int offset = TimestampedValue.payloadOffset(value);
+                if (value.length > offset && DictionaryCodec.isDictionaryTag(value[offset])) {
+                    byte tag = tags[DictionaryCodec.idFromTag(value[offset])];
+                    if (tag == 0)
+                        throw new IOException("Record encoded with an unknown dictionary: " + entry.getKey());
+                    if (tag != value[offset]) {
+                        if (value == entry.getValue())
+                            value = Arrays.copyOf(value, value.length);
+                        value[offset] = tag;
+                    }
+                }
+                batch.put(key, value);
+                if (batch.size() == IMPORT_BATCH_SIZE)
+                    written += writeBatch(batch);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            written += writeBatch(batch);
+            committer.commit();
+            if (memoryCache != null)
+                memoryCache.invalidateAll();
+        }
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        LOG.info("Imported {} of {} records in {} ms ({} records/s).", written, read, elapsed, read * 1000 / elapsed);
+        return written;
+    }
+
+    private int writeBatch(Map<String, byte[]> batch) throws IOException {
+        int size = batch.size();
+        if (size == 0)
+            return 0;
+        store.putAll(batch);
+        committer.written(size, true);
+        batch.clear();
+        return size;
     }
 
     /**
-     * @return the number of requests contained in the cache.
+     * Add the dictionaries of another cache to this cache, unless this cache has the same dictionaries.
+     * 
+     * @return for each identifier of a dictionary of the other cache, the tag of the same dictionary in this cache.
+     */
+    private byte[] importDictionaries(Map<Integer, byte[]> sourceDictionaries) throws IOException {
+        byte[] tags = new byte[DictionaryCodec.MAX_ID + 1];
+        Map<Integer, byte[]> dictionaries = getDictionaries();
+        for (Map.Entry<Integer, byte[]> source : sourceDictionaries.entrySet()) {
+            int id = -1;
+            for (Map.Entry<Integer, byte[]> dictionary : dictionaries.entrySet())
+                if (Arrays.equals(dictionary.getValue(), source.getValue()))
+                    id = dictionary.getKey();
+            if (id < 0) {
+                id = dictionaries.size();
+                if (id > DictionaryCodec.MAX_ID)
+                    throw new IllegalStateException("Too many dictionaries.");
+                store.putMetadata(DICTIONARY_METADATA + id, source.getValue());
+                store.commit();
+                dictionaries.put(id, source.getValue());
+                registerCodec(new DictionaryCodec(id, source.getValue()));
+                LOG.info("Imported dictionary {} as dictionary {}.", source.getKey(), id);
+            }
+            tags[source.getKey()] = new DictionaryCodec(id, source.getValue()).getTag();
+        }
+        return tags;
+    }
+
+    /**
+     * @return the number of requests contained in the cache. Until {@link #migrateKeys()} is called on a cache written by
+     *         earlier versions, requests read since then are counted twice.
      */
     public long getCachedRequests() {
-        return queryResponses.sizeLong();
+        return store.size();
     }
 
     /**
-     * Close the database (further read/write will throw an exception).
+     * Commit pending writes and close the store (further read/write will throw an exception).
      */
     public synchronized void close() {
-        db.close();
+        committer.close();
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of queries served from the in-memory cache.
+     */
+    public long getMemoryCacheHits() {
+        return memoryCache == null ? 0 : memoryCache.stats().hitCount();
     }
 
     /**
-     * @return the set of cached URIs.
+     * @return the number of queries not found in the in-memory cache (and looked up in the database).
+     */
+    public long getMemoryCacheMisses() {
+        return memoryCache == null ? 0 : memoryCache.stats().missCount();
+    }
+
+    /**
+     * @return the number of responses evicted from the in-memory cache to make room for new ones.
+     */
+    public long getMemoryCacheEvictions() {
+        return memoryCache == null ? 0 : memoryCache.stats().evictionCount();
+    }
+
+    /**
+     * @return the number of queries served from the database.
+     */
+    public long getDiskCacheHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return the number of queries whose pages were not all found in the database.
+     */
+    public long getDiskCacheMisses() {
+        return diskMisses.get();
+    }
+
+    /**
+     * @return the number of queries served from the cache past their soft time-to-live, whose refresh was requested.
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * @return the number of queries found in the cache past their hard time-to-live, and issued again. These are also
+     *         counted as database misses.
+     */
+    public long getExpiredMisses() {
+        return expiredMisses.get();
+    }
+
+    /**
+     * @return the number of cached pages reused to complete responses of which only the first pages were cached.
+     */
+    public long getReusedPages() {
+        return reusedPages.get();
+    }
+
+    /**
+     * @return the number of corrupt entries removed from the cache, when read or by {@link #verifyCache()}.
+     */
+    public long getCorruptEntries() {
+        return corruptEntries.get();
+    }
+
+    /**
+     * @return the number of shards the cache is partitioned into.
+     */
+    public int getShards() {
+        return store instanceof ShardedResponseStore ? ((ShardedResponseStore) store).getShards().size() : 1;
+    }
+
+    /**
+     * Rebuild a shard of the cache, copying its entries to a new file that replaces the old one. This reclaims the space
+     * left by overwritten entries. Meanwhile, queries whose pages fall in that shard wait, while the other shards are
+     * available. The cache must have more than one shard (see {@link CachedWebsearchApiBuilder#shards(int)}), each stored
+     * in a {@link MapDbResponseStore} kept in a file.
+     * 
+     * @param shard
+     *            the number of the shard, between 0 and {@link #getShards()} - 1.
+     * @throws IOException
+     *             if the new file could not be written.
+     */
+    public void rebuildShard(int shard) throws IOException {
+        if (!(store instanceof ShardedResponseStore))
+            throw new UnsupportedOperationException("The cache is not sharded.");
+        ResponseStore shardStore = ((ShardedResponseStore) store).getShards().get(shard);
+        if (!(shardStore instanceof MapDbResponseStore))
+            throw new UnsupportedOperationException("Only MapDB shards can be rebuilt.");
+        ((MapDbResponseStore) shardStore).rebuild();
+    }
+
+    /**
+     * @return the cached URIs, each with its stored value, across all shards. Values stored under their URI by earlier
+     *         versions and already copied to their compact key are listed once. Iterating while a shard is rebuilt throws an
+     *         exception.
+     */
+    public Iterable<Map.Entry<String, byte[]>> cachedEntries() {
+        Iterable<Map.Entry<String, byte[]>> entries = store.entries();
+        if (!compactKeysOnly)
+            entries = Iterables.filter(entries, entry -> !isUriKey(entry.getKey()) || !isCopied(entry.getKey()));
+        return Iterables.transform(entries, entry -> {
+            String uri = TimestampedValue.uri(entry.getValue());
+            return uri == null ? entry : new AbstractMap.SimpleImmutableEntry<>(uri, entry.getValue());
+        });
+    }
+
+    /**
+     * Up to version 0.5, this method returned the key set of the MapDB map holding the cache. It can not be kept, as the
+     * cache may not be held by MapDB, and keys are no longer URIs: use {@link #getCachedRequests()} for its size.
+     * 
+     * @return the cached URIs, across all shards. Since URIs are kept along with values, this reads all values. Iterating
+     *         while a shard is rebuilt throws an exception.
      */
-    public KeySet<String> cachedUris() {
-        return queryResponses.getKeys();
+    public Iterable<String> cachedUris() {
+        return Iterables.transform(cachedEntries(), Map.Entry::getKey);
     }
 
     public static CachedWebsearchApiBuilder builder() {
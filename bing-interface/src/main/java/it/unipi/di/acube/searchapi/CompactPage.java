@@ -0,0 +1,176 @@
+package it.unipi.di.acube.searchapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Vector;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.model.WebsearchResponseEntry;
+
+/**
+ * A page of results reduced to the fields exposed by {@link WebsearchResponse}, with a compact binary encoding used to store
+ * it in the cache instead of the raw JSON response. Encoded pages start with a tag byte that cannot start a GZip stream, so
+ * they can be told apart from compressed JSON responses.
+ */
+class CompactPage {
+    static final byte FORMAT_TAG = 'C';
+    private static final byte VERSION = 1;
+    /**
+     * The length of an encoded entry whose strings are all empty.
+     */
+    private static final int MIN_ENTRY_LENGTH = 3 * 4 + 8;
+    private final long totalEstimatedMatches;
+    private final boolean lastPage;
+    private final List<WebsearchResponseEntry> webEntries;
+
+    private CompactPage(long totalEstimatedMatches, boolean lastPage, List<WebsearchResponseEntry> webEntries) {
+        this.totalEstimatedMatches = totalEstimatedMatches;
+        this.lastPage = lastPage;
+        this.webEntries = webEntries;
+    }
+
+    /**
+     * Extract a compact page from a JSON response.
+     *
+     * @param api
+     *            the caller that got the response.
+     * @param uri
+     *            the URI of the call.
+     * @param jsonResponse
+     *            the response.
+     * @return the compact page.
+     * @throws JSONException
+     *             if the response was unreadable.
+     */
+    static CompactPage fromJson(WebSearchApiCaller api, URI uri, JSONObject jsonResponse) throws JSONException {
+        List<JSONObject> page = Collections.singletonList(jsonResponse);
+        WebsearchResponse response = api.buildResponseFromJson(Collections.singletonList(uri), page, Integer.MAX_VALUE);
+        return new CompactPage(response.getTotalResults(), api.queryComplete(page, Integer.MAX_VALUE),
+                response.getWebEntries());
+    }
+
+    /**
+     * @return the number of web results in this page.
+     */
+    int countResults() {
+        return webEntries.size();
+    }
+
+    /**
+     * Same as {@link WebSearchApiCaller#queryComplete(List, int)}, for compact pages.
+     */
+    static boolean queryComplete(List<CompactPage> pages, int neededResults) {
+        int count = 0;
+        for (CompactPage page : pages) {
+            count += page.countResults();
+            if (count >= neededResults || page.lastPage)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link WebSearchApiCaller#buildResponseFromJson(List, List, int)}, for compact pages. Since raw responses are not
+     * available, the JSON responses of the returned response are empty.
+     */
+    static WebsearchResponse buildResponse(List<URI> calledUris, List<CompactPage> pages, int neededResults) {
+        List<WebsearchResponseEntry> webEntries = new Vector<>();
+        for (CompactPage page : pages)
+            for (WebsearchResponseEntry entry : page.webEntries) {
+                if (webEntries.size() == neededResults)
+                    break;
+                webEntries.add(entry);
+            }
+        return new WebsearchResponse(pages.get(0).totalEstimatedMatches, webEntries, calledUris,
+                Collections.<JSONObject> emptyList());
+    }
+
+    /**
+     * @param value
+     *            a value stored in the cache.
+     * @return whether the value is an encoded compact page.
+     */
+    static boolean isCompactPage(byte[] value) {
+        return value.length > 0 && value[0] == FORMAT_TAG;
+    }
+
+    byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + webEntries.size() * 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_TAG);
+        out.writeByte(VERSION);
+        out.writeLong(totalEstimatedMatches);
+        out.writeBoolean(lastPage);
+        out.writeInt(webEntries.size());
+        for (WebsearchResponseEntry entry : webEntries) {
+            writeString(out, entry.getName());
+            writeString(out, entry.getDisplayUrl());
+            writeString(out, entry.getSnippet());
+            out.writeLong(entry.getLastCrawled() == null ? Long.MIN_VALUE : entry.getLastCrawled().getTime());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param value
+     *            an encoded compact page.
+     * @return the page.
+     * @throws IOException
+     *             if the value is not a compact page, or is corrupt or truncated. Lengths are checked against the size of the
+     *             value before anything is allocated.
+     */
+    static CompactPage decode(byte[] value) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        if (in.readByte() != FORMAT_TAG || in.readByte() != VERSION)
+            throw new IOException("Not a compact page, or unknown version.");
+        long totalEstimatedMatches = in.readLong();
+        boolean lastPage = in.readBoolean();
+        int size = in.readInt();
+        if (size < 0 || size > in.available() / MIN_ENTRY_LENGTH)
+            throw new IOException("Corrupt compact page: " + size + " entries in " + in.available() + " bytes.");
+        List<WebsearchResponseEntry> webEntries = new Vector<>(size);
+        for (int i = 0; i < size; i++) {
+            String name = readString(in);
+            String displayUrl = readString(in);
+            String snippet = readString(in);
+            long lastCrawled = in.readLong();
+            webEntries.add(new WebsearchResponseEntry(name, displayUrl, snippet,
+                    lastCrawled == Long.MIN_VALUE ? null : new Date(lastCrawled)));
+        }
+        return new CompactPage(totalEstimatedMatches, lastPage, webEntries);
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1)
+            return null;
+        if (length < 0 || length > in.available())
+            throw new IOException("Corrupt compact page: string of " + length + " bytes in " + in.available() + " bytes.");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
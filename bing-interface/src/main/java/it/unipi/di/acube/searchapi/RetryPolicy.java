@@ -0,0 +1,233 @@
+package it.unipi.di.acube.searchapi;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.unipi.di.acube.searchapi.callers.ApiResponseException;
+
+/**
+ * Decides whether a failed call to the API should be issued again, and after how long. Delays grow exponentially with the
+ * number of attempts, with random jitter. Only transient failures are retried: I/O errors, HTTP statuses configured as
+ * retryable (by default 429 and 5xx gateway/availability errors), and badly formed responses. Retries are also bound by a
+ * budget shared by all calls: each retry spends one token, each successful call earns a fraction of a token back, so that
+ * retries cannot multiply the load on an API that is failing persistently.
+ *
+ * A policy keeps counters of the retries it allowed and of the time spent waiting, and can be shared by several APIs.
+ */
+public class RetryPolicy {
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_BASE_DELAY_MILLIS = 200;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+    private static final double DEFAULT_JITTER = 0.5;
+    private static final int[] DEFAULT_RETRYABLE_STATUSES = { 429, 500, 502, 503, 504 };
+    private static final double DEFAULT_BUDGET_RATIO = 0.1;
+    private static final double DEFAULT_BUDGET_MAX = 10;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double jitter;
+    private final Set<Integer> retryableStatuses;
+    private final boolean retryIOExceptions;
+    private final double budgetRatio;
+    private final double budgetMax;
+    private double budget;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong retryDelayMillis = new AtomicLong();
+    private final AtomicLong giveUps = new AtomicLong();
+
+    /**
+     * Builder for RetryPolicy.
+     *
+     */
+    public static class RetryPolicyBuilder {
+        private int maxRetries = DEFAULT_MAX_RETRIES;
+        private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+        private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+        private double jitter = DEFAULT_JITTER;
+        private Set<Integer> retryableStatuses = new HashSet<>();
+        private boolean retryIOExceptions = true;
+        private double budgetRatio = DEFAULT_BUDGET_RATIO;
+        private double budgetMax = DEFAULT_BUDGET_MAX;
+
+        private RetryPolicyBuilder() {
+            for (int status : DEFAULT_RETRYABLE_STATUSES)
+                retryableStatuses.add(status);
+        }
+
+        /**
+         * @param maxRetries
+         *            the maximum number of times a call is issued again. Zero disables retries.
+         * @return this builder.
+         */
+        public RetryPolicyBuilder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * @param baseDelay
+         *            the delay before the first retry. The delay doubles at each subsequent retry.
+         * @param maxDelay
+         *            the maximum delay between two attempts.
+         * @param unit
+         *            the time unit of the delays.
+         * @return this builder.
+         */
+        public RetryPolicyBuilder delay(long baseDelay, long maxDelay, TimeUnit unit) {
+            this.baseDelayMillis = unit.toMillis(baseDelay);
+            this.maxDelayMillis = unit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * @param jitter
+         *            the fraction of each delay that is randomized, between 0 (fixed delays) and 1 (delays uniformly drawn
+         *            between 0 and the exponential delay).
+         * @return this builder.
+         */
+        public RetryPolicyBuilder jitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * @param statuses
+         *            the HTTP statuses that trigger a retry, replacing the default ones (429, 500, 502, 503, 504).
+         * @return this builder.
+         */
+        public RetryPolicyBuilder retryableStatuses(int... statuses) {
+            retryableStatuses.clear();
+            for (int status : statuses)
+                retryableStatuses.add(status);
+            return this;
+        }
+
+        /**
+         * @param retryIOExceptions
+         *            whether network errors trigger a retry.
+         * @return this builder.
+         */
+        public RetryPolicyBuilder retryIOExceptions(boolean retryIOExceptions) {
+            this.retryIOExceptions = retryIOExceptions;
+            return this;
+        }
+
+        /**
+         * @param ratio
+         *            the fraction of a retry earned by each successful call, i.e. the maximum ratio of retries to calls in the
+         *            long run.
+         * @param max
+         *            the maximum number of retries that can be saved up, i.e. the maximum burst of retries.
+         * @return this builder.
+         */
+        public RetryPolicyBuilder budget(double ratio, double max) {
+            this.budgetRatio = ratio;
+            this.budgetMax = max;
+            return this;
+        }
+
+        public RetryPolicy create() {
+            if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis)
+                throw new IllegalArgumentException("Invalid retry count or delays.");
+            if (jitter < 0 || jitter > 1)
+                throw new IllegalArgumentException("Jitter must be between 0 and 1.");
+            if (budgetRatio < 0 || budgetMax < 0)
+                throw new IllegalArgumentException("Retry budget must be non-negative.");
+            return new RetryPolicy(this);
+        }
+    }
+
+    private RetryPolicy(RetryPolicyBuilder b) {
+        this.maxRetries = b.maxRetries;
+        this.baseDelayMillis = b.baseDelayMillis;
+        this.maxDelayMillis = b.maxDelayMillis;
+        this.jitter = b.jitter;
+        this.retryableStatuses = new HashSet<>(b.retryableStatuses);
+        this.retryIOExceptions = b.retryIOExceptions;
+        this.budgetRatio = b.budgetRatio;
+        this.budgetMax = b.budgetMax;
+        this.budget = b.budgetMax;
+    }
+
+    /**
+     * @return a policy that never retries.
+     */
+    public static RetryPolicy noRetry() {
+        return builder().maxRetries(0).create();
+    }
+
+    /**
+     * Decide whether a failed call should be issued again.
+     *
+     * @param retriesSoFar
+     *            how many times the call has already been retried.
+     * @param failure
+     *            the exception raised by the call, or null if the call returned a badly formed response.
+     * @return the milliseconds to wait before issuing the call again, or -1 if the call should not be retried.
+     */
+    public long retryDelay(int retriesSoFar, Exception failure) {
+        if (retriesSoFar >= maxRetries || !isRetryable(failure) || !spendBudget()) {
+            giveUps.incrementAndGet();
+            return -1;
+        }
+        long exponential = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retriesSoFar, 30));
+        long delay = exponential - (long) (exponential * jitter * ThreadLocalRandom.current().nextDouble());
+        if (failure instanceof ApiResponseException)
+            delay = Math.max(delay, ((ApiResponseException) failure).getRetryAfterMillis());
+        retries.incrementAndGet();
+        retryDelayMillis.addAndGet(delay);
+        return delay;
+    }
+
+    /**
+     * Notify that a call succeeded, earning back part of the retry budget.
+     */
+    public synchronized void succeeded() {
+        budget = Math.min(budgetMax, budget + budgetRatio);
+    }
+
+    private synchronized boolean spendBudget() {
+        if (budget < 1)
+            return false;
+        budget -= 1;
+        return true;
+    }
+
+    private boolean isRetryable(Exception failure) {
+        if (failure == null)
+            return true;
+        if (failure instanceof ApiResponseException)
+            return retryableStatuses.contains(((ApiResponseException) failure).getStatusCode());
+        return retryIOExceptions && failure instanceof IOException;
+    }
+
+    /**
+     * @return the number of retries allowed by this policy so far.
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return the total time (in milliseconds) callers were told to wait before retrying.
+     */
+    public long getRetryDelayMillis() {
+        return retryDelayMillis.get();
+    }
+
+    /**
+     * @return the number of failures that were not retried, either because not transient or because retries were exhausted.
+     */
+    public long getGiveUps() {
+        return giveUps.get();
+    }
+
+    public static RetryPolicyBuilder builder() {
+        return new RetryPolicyBuilder();
+    }
+}
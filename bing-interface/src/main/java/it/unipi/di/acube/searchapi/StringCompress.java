@@ -1,18 +1,48 @@
 package it.unipi.di.acube.searchapi;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import org.apache.commons.io.IOUtils;
 
+/**
+ * GZip compression of strings. To keep allocation low on hot paths, Deflaters (with their compression buffer) and Inflaters
+ * are taken from bounded pools shared by all threads, and decompressed data is written straight into an array sized after
+ * the length stored in the GZip trailer. Pools are not per-thread, as queries may run in a new virtual thread each. When a
+ * pool is empty a new instance is created, and instances that do not fit back in their pool are ended, releasing their
+ * native memory. Output is a standard GZip stream, readable by {@link GZIPInputStream}.
+ */
 public class StringCompress {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final byte OS_UNKNOWN = (byte) 0xff;
+    private static final byte[] GZIP_HEADER = { (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0,
+            OS_UNKNOWN };
+    private static final int TRAILER_LENGTH = 8;
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+    private static final int MAX_COMPRESSION_RATIO = 1032;
+    private static final int MAX_POOLED_BUFFER = 1 << 20;
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final BlockingQueue<Compressor> COMPRESSORS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final class Compressor {
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private byte[] buffer = new byte[8192];
+    }
 
     /**
      * Compress a string with GZip.
-     * 
+     *
      * @param str
      *            the string.
      * @return the compressed string.
@@ -20,16 +50,53 @@ public class StringCompress {
      *             if something went wrong during compression.
      */
     public static byte[] compress(String str) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        GZIPOutputStream gzip = new GZIPOutputStream(out);
-        gzip.write(str.getBytes("utf-8"));
-        gzip.close();
-        return out.toByteArray();
+        return compress(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compress a sequence of bytes with GZip.
+     *
+     * @param raw
+     *            the bytes.
+     * @return the compressed bytes.
+     */
+    public static byte[] compress(byte[] raw) {
+        Compressor compressor = COMPRESSORS.poll();
+        if (compressor == null)
+            compressor = new Compressor();
+        byte[] compressed;
+        try {
+            Deflater deflater = compressor.deflater;
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = compressor.buffer;
+            System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+            int length = GZIP_HEADER.length;
+            while (!deflater.finished()) {
+                if (length == buffer.length)
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (buffer.length <= MAX_POOLED_BUFFER)
+                compressor.buffer = buffer;
+            compressed = Arrays.copyOf(buffer, length + TRAILER_LENGTH);
+        } finally {
+            if (!COMPRESSORS.offer(compressor))
+                compressor.deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        int length = compressed.length - TRAILER_LENGTH;
+        writeIntLE(compressed, length, (int) crc.getValue());
+        writeIntLE(compressed, length + 4, raw.length);
+        return compressed;
     }
 
     /**
      * Decompress a GZipped string.
-     * 
+     *
      * @param compressed
      *            the sequence of bytes
      * @return the decompressed string.
@@ -37,7 +104,99 @@ public class StringCompress {
      *             if something went wrong during decompression.
      */
     public static String decompress(byte[] compressed) throws IOException {
-        GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(compressed));
-        return new String(IOUtils.toByteArray(gis), "utf-8");
+        return new String(decompressBytes(compressed), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decompress a GZipped sequence of bytes.
+     *
+     * @param compressed
+     *            the sequence of bytes
+     * @return the decompressed bytes.
+     * @throws IOException
+     *             if something went wrong during decompression.
+     */
+    public static byte[] decompressBytes(byte[] compressed) throws IOException {
+        int offset = dataOffset(compressed);
+        long size = readIntLE(compressed, compressed.length - 4) & 0xffffffffL;
+        if (size > (long) compressed.length * MAX_COMPRESSION_RATIO)
+            throw new IOException("Corrupt GZip trailer.");
+        byte[] raw = new byte[(int) size];
+
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null)
+            inflater = new Inflater(true);
+        boolean complete;
+        try {
+            inflater.reset();
+            inflater.setInput(compressed, offset, compressed.length - offset - TRAILER_LENGTH);
+            int length = 0;
+            while (length < raw.length) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+                    break;
+                length += inflated;
+            }
+            complete = length == raw.length && inflater.finished() && inflater.getRemaining() == 0;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt GZip data.", e);
+        } finally {
+            if (!INFLATERS.offer(inflater))
+                inflater.end();
+        }
+        if (!complete)
+            /* Multi-member stream, or a trailer not matching the data: let the JDK deal with it. */
+            return decompressStream(compressed);
+
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        if ((int) crc.getValue() != readIntLE(compressed, compressed.length - TRAILER_LENGTH))
+            throw new IOException("Corrupt GZip data: CRC mismatch.");
+        return raw;
+    }
+
+    private static byte[] decompressStream(byte[] compressed) throws IOException {
+        try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return IOUtils.toByteArray(gis);
+        }
+    }
+
+    /**
+     * @return the offset where the deflated data begins, after the GZip header.
+     */
+    private static int dataOffset(byte[] compressed) throws IOException {
+        if (compressed.length < GZIP_HEADER.length + TRAILER_LENGTH || (compressed[0] & 0xff) != (GZIP_MAGIC & 0xff)
+                || (compressed[1] & 0xff) != GZIP_MAGIC >> 8 || compressed[2] != Deflater.DEFLATED)
+            throw new IOException("Not in GZip format.");
+        int flags = compressed[3];
+        int offset = GZIP_HEADER.length;
+        try {
+            if ((flags & FEXTRA) != 0)
+                offset += 2 + ((compressed[offset] & 0xff) | (compressed[offset + 1] & 0xff) << 8);
+            if ((flags & FNAME) != 0)
+                while (compressed[offset++] != 0)
+                    ;
+            if ((flags & FCOMMENT) != 0)
+                while (compressed[offset++] != 0)
+                    ;
+            if ((flags & FHCRC) != 0)
+                offset += 2;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt GZip header.");
+        }
+        if (offset > compressed.length - TRAILER_LENGTH)
+            throw new IOException("Corrupt GZip header.");
+        return offset;
+    }
+
+    private static int readIntLE(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+
+    private static void writeIntLE(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
     }
 }
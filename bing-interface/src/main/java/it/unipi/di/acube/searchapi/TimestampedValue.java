@@ -0,0 +1,89 @@
+package it.unipi.di.acube.searchapi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Envelope adding the write time and the URI of the call to the values stored in the cache. Values are laid out as: tag,
+ * write time in milliseconds since the epoch (8 bytes), length of the URI (4 bytes), URI (UTF-8), payload (a response
+ * encoded by a codec, or a compact page). Values stored before write times were introduced have no envelope: their write
+ * time is unknown, and they are considered never to expire.
+ */
+final class TimestampedValue {
+    static final byte TAG = 'U';
+    /**
+     * The write time of values without envelope. Since it is in the far future, they never look stale.
+     */
+    static final long UNKNOWN_WRITE_TIME = Long.MAX_VALUE;
+    private static final int URI_LENGTH_OFFSET = 9;
+    private static final int HEADER_LENGTH = 13;
+
+    private TimestampedValue() {
+    }
+
+    /**
+     * @param payload
+     *            the value to store.
+     * @param writeTime
+     *            the write time, in milliseconds since the epoch.
+     * @param uri
+     *            the URI of the call that returned the value.
+     * @return the value wrapped in an envelope with the write time and the URI.
+     */
+    static byte[] wrap(byte[] payload, long writeTime, String uri) {
+        byte[] uriBytes = uri.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_LENGTH + uriBytes.length + payload.length).put(TAG).putLong(writeTime)
+                .putInt(uriBytes.length).put(uriBytes).put(payload).array();
+    }
+
+    /**
+     * @param value
+     *            a value stored in the cache.
+     * @return the write time of the value, or {@link #UNKNOWN_WRITE_TIME} if the value has no envelope.
+     */
+    static long writeTime(byte[] value) {
+        return hasEnvelope(value) ? ByteBuffer.wrap(value, 1, 8).getLong() : UNKNOWN_WRITE_TIME;
+    }
+
+    /**
+     * @param value
+     *            a value stored in the cache.
+     * @return the URI of the call that returned the value, or null if the value has no envelope.
+     */
+    static String uri(byte[] value) {
+        if (!hasEnvelope(value))
+            return null;
+        return new String(value, HEADER_LENGTH, uriLength(value), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param value
+     *            a value stored in the cache.
+     * @return the offset of the payload in the value.
+     */
+    static int payloadOffset(byte[] value) {
+        return hasEnvelope(value) ? HEADER_LENGTH + uriLength(value) : 0;
+    }
+
+    /**
+     * @param value
+     *            a value stored in the cache.
+     * @return the payload of the value, i.e. the value itself if it has no envelope.
+     */
+    static byte[] payload(byte[] value) {
+        int offset = payloadOffset(value);
+        return offset > 0 ? Arrays.copyOfRange(value, offset, value.length) : value;
+    }
+
+    private static boolean hasEnvelope(byte[] value) {
+        if (value.length <= HEADER_LENGTH || value[0] != TAG)
+            return false;
+        int uriLength = uriLength(value);
+        return uriLength >= 0 && uriLength <= value.length - HEADER_LENGTH;
+    }
+
+    private static int uriLength(byte[] value) {
+        return ByteBuffer.wrap(value, URI_LENGTH_OFFSET, 4).getInt();
+    }
+}
@@ -4,12 +4,22 @@ import java.lang.invoke.MethodHandles;
 import java.net.URI;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics;
 import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
+import it.unipi.di.acube.searchapi.metrics.NoopSearchMetrics;
 import it.unipi.di.acube.searchapi.model.WebsearchResponse;
 
 public class WebsearchApi {
@@ -18,12 +28,86 @@ public class WebsearchApi {
     public static final String SNIPPET_BOLD_START_STR = new String(Character.toString(SNIPPET_BOLD_START));
     public static final String SNIPPET_BOLD_END_STR = new String(Character.toString(SNIPPET_BOLD_END));
 
-    private final int MAX_RETRY = 3;
     private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static ExecutorService defaultExecutor;
     WebSearchApiCaller api;
+    private Executor executor;
+    private boolean parallelFetch = false;
+    private RetryPolicy retryPolicy = RetryPolicy.builder().create();
+    SearchMetrics metrics = NoopSearchMetrics.INSTANCE;
 
     public WebsearchApi(WebSearchApiCaller api) {
+        this(api, null);
+    }
+
+    /**
+     * @param api
+     *            a Websearch API caller.
+     * @param executor
+     *            the executor running asynchronous queries. If null, a shared executor is used, that runs each query in a
+     *            virtual thread where available (Java 21+), or in a pooled daemon thread otherwise.
+     */
+    public WebsearchApi(WebSearchApiCaller api, Executor executor) {
         this.api = api;
+        this.executor = executor == null ? getDefaultExecutor() : executor;
+    }
+
+    /**
+     * @param parallelFetch
+     *            if true, when more than one page of results is needed, the calls for all pages are issued at once instead of
+     *            one after the other. This reduces latency, at the price of calling the API for pages that may turn out not to
+     *            be needed (if results end earlier). Calls are handed to the executor of this API, and those it has not
+     *            started when their page is needed are run by the querying thread, so that queries never wait for an executor
+     *            busy with other queries.
+     * @return this.
+     */
+    public WebsearchApi setParallelFetch(boolean parallelFetch) {
+        this.parallelFetch = parallelFetch;
+        return this;
+    }
+
+    /**
+     * @param retryPolicy
+     *            the policy deciding which failed calls are issued again. By default, transient failures are retried up to three
+     *            times with exponential backoff.
+     * @return this.
+     */
+    public WebsearchApi setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * @return the retry policy of this API, that keeps retry counts and delays.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param metrics
+     *            the metrics receiving the events of the queries issued by this API: calls, their latency, and retries. By
+     *            default, events are ignored.
+     * @return this.
+     */
+    public WebsearchApi setMetrics(SearchMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            try {
+                defaultExecutor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                defaultExecutor = Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "websearch-async");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+        return defaultExecutor;
     }
 
     /**
@@ -38,27 +122,191 @@ public class WebsearchApi {
      *             is the call to the API failed.
      */
     public WebsearchResponse query(String query, int neededResults) throws Exception {
-        return query(query, neededResults, MAX_RETRY);
+        for (int retries = 0;; retries++) {
+            List<JSONObject> jsonResponses = new Vector<>();
+            List<URI> uris = new Vector<>();
+            fetchPages(query, 0, neededResults, uris, jsonResponses);
+
+            if (api.recacheNeeded(jsonResponses)) {
+                long delay = retryPolicy.retryDelay(retries, null);
+                if (delay >= 0) {
+                    metrics.retry(uris.get(0).getHost());
+                    LOG.warn("Bad responses, calling API again in {} ms.", delay);
+                    Thread.sleep(delay);
+                    continue;
+                }
+            }
+            return api.buildResponseFromJson(uris, jsonResponses, neededResults);
+        }
     }
 
-    private synchronized WebsearchResponse query(String query, int neededResults, int retryLeft) throws Exception {
-        int resultsSoFar = 0;
-        List<JSONObject> jsonResponses = new Vector<>();
-        List<URI> uris = new Vector<>();
+    /**
+     * Get the response for a query without blocking the calling thread.
+     * 
+     * @param query
+     *            the query.
+     * @param neededResults
+     *            how many results are needed (higher numbers may result in higher number of queries).
+     * @return a future completed with the response to the query, or completed exceptionally if the call to the API failed.
+     */
+    public CompletableFuture<WebsearchResponse> queryAsync(String query, int neededResults) {
+        return submit(() -> query(query, neededResults));
+    }
+
+    /**
+     * Run a task with the executor of this API.
+     * 
+     * @param task
+     *            the task.
+     * @return a future completed with the result of the task.
+     */
+    <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Fetch the pages of a query that follow its first results, until the query is complete. Pages are fetched in parallel if
+     * enabled, and one after the other otherwise.
+     * 
+     * @param query
+     *            the query.
+     * @param firstResult
+     *            the offset of the first page to fetch.
+     * @param neededResults
+     *            how many results are needed after the offset.
+     * @param uris
+     *            the list the URIs of the fetched pages are added to.
+     * @param jsonResponses
+     *            the list the fetched pages are added to.
+     * @throws Exception
+     *             if a call to the API failed.
+     */
+    void fetchPages(String query, int firstResult, int neededResults, List<URI> uris, List<JSONObject> jsonResponses)
+            throws Exception {
+        if (parallelFetch && api.getResultsPerCall() > 0 && neededResults > api.getResultsPerCall())
+            prefetchPages(query, firstResult, neededResults, uris, jsonResponses);
+        if (!jsonResponses.isEmpty() && api.queryComplete(jsonResponses, neededResults))
+            return;
+        int resultsSoFar = firstResult;
+        for (JSONObject response : jsonResponses)
+            resultsSoFar += api.countResults(response);
         do {
-            uris.add(api.getQueryURI(query, resultsSoFar));
-            JSONObject response = api.query(query, resultsSoFar);
+            URI uri = api.getQueryURI(query, resultsSoFar);
+            uris.add(uri);
+            JSONObject response = fetchPage(uri, query, resultsSoFar);
             jsonResponses.add(response);
             resultsSoFar += api.countResults(response);
         } while (!api.queryComplete(jsonResponses, neededResults));
+    }
+
+    /**
+     * Fetch in parallel all pages that would be needed if every page was full, and keep them in order until the query is
+     * complete. Pages following the end of the results are dropped. If a page turns out to be shorter than expected, the
+     * offsets of the following pages are wrong and they are dropped as well: the remaining pages are left to
+     * {@link #fetchPages(String, int, int, List, List)}. The first page is fetched by the calling thread, and so is any other
+     * page the executor has not started by the time it is needed: this thread may itself be run by the executor, and waiting
+     * for tasks queued behind it would deadlock a bounded executor. Calls for pages that are dropped are cancelled if not
+     * started.
+     */
+    private void prefetchPages(String query, int firstResult, int neededResults, List<URI> uris, List<JSONObject> jsonResponses)
+            throws Exception {
+        int pageSize = api.getResultsPerCall();
+        int pages = (neededResults + pageSize - 1) / pageSize;
+        List<URI> pageUris = new Vector<>();
+        List<FutureTask<JSONObject>> pageTasks = new Vector<>();
+        for (int k = 0; k < pages; k++) {
+            int offset = firstResult + k * pageSize;
+            URI uri = api.getQueryURI(query, offset);
+            FutureTask<JSONObject> task = new FutureTask<>(() -> fetchPage(uri, query, offset));
+            pageUris.add(uri);
+            pageTasks.add(task);
+            if (k > 0)
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("Page {} not handed to the executor: {}", uri, e.toString());
+                }
+        }
 
-        if (api.recacheNeeded(jsonResponses) && retryLeft > 0) {
-            LOG.warn("Bad responses, calling API again.");
-            Thread.sleep(1000);
-            return query(query, retryLeft - 1);
+        int resultsSoFar = 0;
+        int k = 0;
+        try {
+            for (; k < pages; k++) {
+                if (resultsSoFar != k * pageSize
+                        || (!jsonResponses.isEmpty() && api.queryComplete(jsonResponses, neededResults)))
+                    break;
+                FutureTask<JSONObject> task = pageTasks.get(k);
+                task.run();
+                JSONObject response;
+                try {
+                    response = task.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+                uris.add(pageUris.get(k));
+                jsonResponses.add(response);
+                resultsSoFar += api.countResults(response);
+            }
+        } finally {
+            for (; k < pages; k++)
+                pageTasks.get(k).cancel(false);
         }
+    }
 
-        return api.buildResponseFromJson(uris, jsonResponses, neededResults);
+    /**
+     * Issue a single call to the API.
+     * 
+     * @param uri
+     *            the URI representing the call, as returned by {@link WebSearchApiCaller#getQueryURI(String, int)}.
+     * @param query
+     *            the query.
+     * @param resultsSoFar
+     *            the search offset.
+     * @return the JSON object returned by the API.
+     * @throws Exception
+     *             if the call to the API failed.
+     */
+    JSONObject fetchPage(URI uri, String query, int resultsSoFar) throws Exception {
+        String apiName = uri.getHost();
+        for (int retries = 0;; retries++) {
+            Exception failure = null;
+            JSONObject response = null;
+            boolean succeeded = false;
+            metrics.apiCallStarted(apiName);
+            long start = System.nanoTime();
+            try {
+                response = api.query(query, resultsSoFar);
+                succeeded = true;
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                metrics.apiCallFinished(apiName, System.nanoTime() - start, succeeded);
+            }
+            if (succeeded) {
+                retryPolicy.succeeded();
+                return response;
+            }
+            long delay = retryPolicy.retryDelay(retries, failure);
+            if (delay < 0)
+                throw failure;
+            metrics.retry(apiName);
+            LOG.warn("Call to {} failed ({}), calling API again in {} ms.", uri, failure.getMessage(), delay);
+            Thread.sleep(delay);
+        }
     }
 
 }
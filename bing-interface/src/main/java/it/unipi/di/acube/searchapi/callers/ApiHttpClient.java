@@ -0,0 +1,246 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.CountingInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics;
+import it.unipi.di.acube.searchapi.metrics.NoopSearchMetrics;
+
+/**
+ * HTTP client used by the API callers to issue requests. Connections are pooled and kept alive, so that subsequent calls to
+ * the same API reuse them instead of opening a new (TLS) connection each time. The same client can be shared by any number
+ * of callers and threads.
+ */
+public class ApiHttpClient implements Closeable {
+    private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 32;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+    private static final int IDLE_CONNECTION_TIMEOUT = 60000;
+    private static ApiHttpClient defaultClient;
+
+    private final CloseableHttpClient httpClient;
+    private final SearchMetrics metrics;
+
+    /**
+     * Builder for ApiHttpClient.
+     *
+     */
+    public static class ApiHttpClientBuilder {
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+        private SearchMetrics metrics = NoopSearchMetrics.INSTANCE;
+
+        /**
+         * @param maxConnections
+         *            the maximum number of open connections, across all APIs.
+         * @return this builder.
+         */
+        public ApiHttpClientBuilder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * @param maxConnectionsPerRoute
+         *            the maximum number of open connections towards a single API host.
+         * @return this builder.
+         */
+        public ApiHttpClientBuilder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * @param connectTimeout
+         *            timeout (in milliseconds) for establishing a connection. Zero means no timeout.
+         * @return this builder.
+         */
+        public ApiHttpClientBuilder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * @param socketTimeout
+         *            timeout (in milliseconds) of inactivity while waiting for data. Zero means no timeout.
+         * @return this builder.
+         */
+        public ApiHttpClientBuilder socketTimeout(int socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * @param metrics
+         *            the metrics receiving the size of the bodies of the responses, for each API host. By default, sizes are
+         *            not reported.
+         * @return this builder.
+         */
+        public ApiHttpClientBuilder metrics(SearchMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public ApiHttpClient create() {
+            if (maxConnections < 1 || maxConnectionsPerRoute < 1)
+                throw new IllegalArgumentException("The maximum number of connections must be positive.");
+            if (connectTimeout < 0 || socketTimeout < 0)
+                throw new IllegalArgumentException("Timeouts must be non-negative.");
+            return new ApiHttpClient(maxConnections, maxConnectionsPerRoute, connectTimeout, socketTimeout, metrics);
+        }
+    }
+
+    private ApiHttpClient(int maxConnections, int maxConnectionsPerRoute, int connectTimeout, int socketTimeout,
+            SearchMetrics metrics) {
+        this.metrics = metrics;
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout).setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(connectTimeout).build();
+        httpClient = HttpClientBuilder.create().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig)
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * @return the client used by callers that have not been given one explicitly. It is created on first use with default
+     *         settings and is never closed.
+     */
+    public static synchronized ApiHttpClient getDefault() {
+        if (defaultClient == null)
+            defaultClient = builder().create();
+        return defaultClient;
+    }
+
+    /**
+     * Parser of the body of a response.
+     */
+    interface ResponseParser<T> {
+        /**
+         * @param body
+         *            the body of the response.
+         * @return the parsed body.
+         * @throws IOException
+         *             if the body could not be read.
+         * @throws JSONException
+         *             if the body is not valid JSON.
+         */
+        T parse(Reader body) throws IOException, JSONException;
+    }
+
+    /**
+     * Issue a request and parse the JSON body of the response. The connection is released to the pool in any case.
+     *
+     * @param get
+     *            the request.
+     * @return the JSON object contained in the response body.
+     * @throws IOException
+     *             if the request could not be issued or the response could not be read.
+     * @throws ApiResponseException
+     *             if the response status is not 200.
+     * @throws JSONException
+     *             if the response body is not a valid JSON object.
+     */
+    JSONObject getJson(HttpGet get) throws IOException, JSONException {
+        return get(get, body -> new JSONObject(IOUtils.toString(body)));
+    }
+
+    /**
+     * Issue a request and parse the body of the response as it is received, without buffering it first. The connection is
+     * released to the pool in any case. If the call is run by an {@link InFlightRequest}, aborting that aborts the request.
+     *
+     * @param get
+     *            the request.
+     * @param parser
+     *            the parser of the body.
+     * @return the parsed body.
+     * @throws IOException
+     *             if the request could not be issued or the response could not be read.
+     * @throws ApiResponseException
+     *             if the response status is not 200.
+     * @throws JSONException
+     *             if the response body could not be parsed.
+     */
+    <T> T get(HttpGet get, ResponseParser<T> parser) throws IOException, JSONException {
+        InFlightRequest.bind(get);
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            HttpEntity entity = response.getEntity();
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                LOG.error("Got HTTP error {}. Message is: {}", statusCode,
+                        entity == null ? "" : EntityUtils.toString(entity, "utf-8"));
+                throw new ApiResponseException(statusCode, getRetryAfterMillis(response));
+            }
+            if (entity == null)
+                throw new IOException("Response has no body.");
+            Charset charset = ContentType.getOrDefault(entity).getCharset();
+            CountingInputStream content = new CountingInputStream(entity.getContent());
+            /* Closing the content stream reads it to the end, so that the connection can be reused. */
+            try (Reader body = new InputStreamReader(content, charset == null ? StandardCharsets.UTF_8 : charset)) {
+                return parser.parse(body);
+            } finally {
+                metrics.bytesReceived(get.getURI().getHost(), content.getCount());
+            }
+        }
+    }
+
+    /**
+     * @return the delay stated in the Retry-After header of the response, either as seconds or as a date, or -1 if the
+     *         header is absent or malformed.
+     */
+    private static long getRetryAfterMillis(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null)
+            return -1;
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Close all connections. Further requests will throw an exception.
+     */
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    public static ApiHttpClientBuilder builder() {
+        return new ApiHttpClientBuilder();
+    }
+}
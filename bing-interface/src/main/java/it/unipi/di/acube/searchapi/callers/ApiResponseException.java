@@ -0,0 +1,37 @@
+package it.unipi.di.acube.searchapi.callers;
+
+/**
+ * Thrown when an API responds to a call with an HTTP status other than 200.
+ */
+public class ApiResponseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    /**
+     * @param statusCode
+     *            the HTTP status code of the response.
+     * @param retryAfterMillis
+     *            how long the API asked to wait before calling it again, as stated by the Retry-After header, or -1 if not
+     *            stated.
+     */
+    public ApiResponseException(int statusCode, long retryAfterMillis) {
+        super("Got response code:" + statusCode);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the HTTP status code of the response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return how long (in milliseconds) the API asked to wait before calling it again, or -1 if not stated.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -1,20 +1,22 @@
 package it.unipi.di.acube.searchapi.callers;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.invoke.MethodHandles;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Vector;
 
 import javax.xml.bind.DatatypeConverter;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
@@ -22,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.unipi.di.acube.searchapi.WebsearchApi;
+import it.unipi.di.acube.searchapi.callers.JsonPullParser.Token;
 import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
 import it.unipi.di.acube.searchapi.model.WebsearchResponse;
 import it.unipi.di.acube.searchapi.model.WebsearchResponseEntry;
@@ -41,11 +44,16 @@ public class BingSearchApiCaller implements WebSearchApiCaller {
     private static final SafeSearchOpt DEFAULT_SAFE_SEARCH = SafeSearchOpt.OFF;
     private static final int MAX_RESULTS_PER_QUERY = 50;
     private static final boolean TEXT_DECORATIONS = true;
-    private static URIBuilder builder = new URIBuilder();
+    private static final String[] WEB_PAGE_FIELDS = { "name", "displayUrl", "snippet", "dateLastCrawled" };
+    public static final String DEFAULT_ENDPOINT = API_PROTOCOL + "://" + API_HOST + API_PATH;
 
     private String bingKey;
     private String market = DEFAULT_MARKET;
     private SafeSearchOpt safeSearch = DEFAULT_SAFE_SEARCH;
+    private ApiHttpClient httpClient = ApiHttpClient.getDefault();
+    private boolean streamingParse = false;
+    private volatile String queryUriPrefix = DEFAULT_ENDPOINT + "?";
+    private volatile String queryParameters;
 
     public enum SafeSearchOpt {
         OFF, MODERATE, STRICT
@@ -57,6 +65,7 @@ public class BingSearchApiCaller implements WebSearchApiCaller {
      */
     public BingSearchApiCaller(String bingKey) {
         this.bingKey = bingKey;
+        updateQueryParameters();
     }
 
     /**
@@ -68,6 +77,7 @@ public class BingSearchApiCaller implements WebSearchApiCaller {
         if (!market.matches("[a-z][a-z]-[A-Z][A-Z]"))
             throw new IllegalArgumentException("Market must be in the form en-US");
         this.market = market;
+        updateQueryParameters();
         return this;
     }
 
@@ -78,6 +88,44 @@ public class BingSearchApiCaller implements WebSearchApiCaller {
      */
     public BingSearchApiCaller setSafeSearch(SafeSearchOpt safeSearch) {
         this.safeSearch = safeSearch;
+        updateQueryParameters();
+        return this;
+    }
+
+    /**
+     * @param endpoint
+     *            the URL calls are sent to, without query, e.g. that of a stub of the API for testing. Default is
+     *            {@value #DEFAULT_ENDPOINT}.
+     * @return this.
+     */
+    public BingSearchApiCaller setEndpoint(String endpoint) {
+        URI uri = URI.create(endpoint);
+        if (!uri.isAbsolute() || uri.getRawQuery() != null || uri.getRawFragment() != null)
+            throw new IllegalArgumentException("Endpoint must be an absolute URL without query.");
+        this.queryUriPrefix = endpoint + "?";
+        return this;
+    }
+
+    /**
+     * @param httpClient
+     *            the HTTP client used to issue calls. By default, a client shared by all callers is used.
+     * @return this.
+     */
+    public BingSearchApiCaller setHttpClient(ApiHttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    /**
+     * @param streamingParse
+     *            if true, responses are parsed while they are received and only the fields read by this library are kept:
+     *            the type of the response, the number of total matches, the name, display URL, snippet and crawl date of
+     *            web results, and the items of the mainline ranking. This is much cheaper than parsing the whole response,
+     *            but the JSON responses returned (and cached) will only contain those fields. Default is false.
+     * @return this.
+     */
+    public BingSearchApiCaller setStreamingParse(boolean streamingParse) {
+        this.streamingParse = streamingParse;
         return this;
     }
 
@@ -100,26 +148,146 @@ public class BingSearchApiCaller implements WebSearchApiCaller {
         get.setHeader("Content-Type", "multipart/form-data");
         get.setHeader("Ocp-Apim-Subscription-Key", bingKey);
 
-        HttpClient httpClient = HttpClientBuilder.create().build();
-        LOG.info("<querying> {}", uri.toString());
-        HttpResponse response = httpClient.execute(get);
+        LOG.debug("<querying> {}", uri);
+        if (streamingParse)
+            return httpClient.get(get, BingSearchApiCaller::parseResponse);
+        return httpClient.getJson(get);
+    }
+
+    /**
+     * Parse a response, keeping only the fields read by this library. Mainline ranking items are only counted, and kept as
+     * empty objects.
+     *
+     * @param body
+     *            the JSON text of the response.
+     * @return the reduced response.
+     * @throws IOException
+     *             if the response could not be read.
+     * @throws JSONException
+     *             if the response is not a valid JSON object.
+     */
+    static JSONObject parseResponse(Reader body) throws IOException, JSONException {
+        JsonPullParser parser = new JsonPullParser(body);
+        if (parser.next() != Token.START_OBJECT)
+            throw new JSONException("A JSONObject text must begin with '{'");
+        JSONObject response = new JSONObject();
+        while (parser.next() == Token.FIELD_NAME) {
+            if (parser.textEquals("_type")) {
+                if (parser.next() == Token.STRING)
+                    response.put("_type", parser.getText());
+            } else if (parser.textEquals("webPages")) {
+                if (parser.next() == Token.START_OBJECT)
+                    response.put("webPages", parseWebPages(parser));
+            } else if (parser.textEquals("rankingResponse")) {
+                if (parser.next() == Token.START_OBJECT)
+                    response.put("rankingResponse", parseRankingResponse(parser));
+            } else {
+                parser.next();
+            }
+            parser.skipValue();
+        }
+        if (parser.next() != null)
+            throw new JSONException("Unexpected data after the response");
+        return response;
+    }
+
+    private static JSONObject parseWebPages(JsonPullParser parser) throws IOException, JSONException {
+        JSONObject webPages = new JSONObject();
+        while (parser.next() == Token.FIELD_NAME) {
+            if (parser.textEquals("totalEstimatedMatches")) {
+                if (parser.next() == Token.NUMBER)
+                    webPages.put("totalEstimatedMatches", parser.getLong());
+            } else if (parser.textEquals("value")) {
+                if (parser.next() == Token.START_ARRAY) {
+                    JSONArray value = new JSONArray();
+                    while (parser.next() != Token.END_ARRAY)
+                        if (parser.getToken() == Token.START_OBJECT)
+                            value.put(parseWebPage(parser));
+                        else
+                            parser.skipValue();
+                    webPages.put("value", value);
+                }
+            } else {
+                parser.next();
+            }
+            parser.skipValue();
+        }
+        return webPages;
+    }
+
+    private static JSONObject parseWebPage(JsonPullParser parser) throws IOException, JSONException {
+        JSONObject webPage = new JSONObject();
+        while (parser.next() == Token.FIELD_NAME) {
+            String field = null;
+            for (String webPageField : WEB_PAGE_FIELDS)
+                if (parser.textEquals(webPageField))
+                    field = webPageField;
+            if (parser.next() == Token.STRING && field != null)
+                webPage.put(field, parser.getText());
+            parser.skipValue();
+        }
+        return webPage;
+    }
 
-        if (response.getStatusLine().getStatusCode() != 200) {
-            LOG.error("Got HTTP error {}. Message is: {}", response.getStatusLine().getStatusCode(),
-                    IOUtils.toString(response.getEntity().getContent(), "utf-8"));
-            throw new RuntimeException("Got response code:" + response.getStatusLine().getStatusCode());
+    private static JSONObject parseRankingResponse(JsonPullParser parser) throws IOException, JSONException {
+        JSONObject rankingResponse = new JSONObject();
+        while (parser.next() == Token.FIELD_NAME) {
+            if (parser.textEquals("mainline")) {
+                if (parser.next() == Token.START_OBJECT)
+                    rankingResponse.put("mainline", parseMainline(parser));
+            } else {
+                parser.next();
+            }
+            parser.skipValue();
         }
-        return new JSONObject(IOUtils.toString(response.getEntity().getContent(), "utf-8"));
+        return rankingResponse;
+    }
+
+    private static JSONObject parseMainline(JsonPullParser parser) throws IOException, JSONException {
+        JSONObject mainline = new JSONObject();
+        while (parser.next() == Token.FIELD_NAME) {
+            if (parser.textEquals("items")) {
+                if (parser.next() == Token.START_ARRAY) {
+                    JSONArray items = new JSONArray();
+                    JSONObject item = new JSONObject();
+                    while (parser.next() != Token.END_ARRAY) {
+                        items.put(item);
+                        parser.skipValue();
+                    }
+                    mainline.put("items", items);
+                }
+            } else {
+                parser.next();
+            }
+            parser.skipValue();
+        }
+        return mainline;
+    }
+
+    /**
+     * Encode once the parameters that only depend on the configuration of this caller, so that building the URI of a call
+     * only requires encoding the query.
+     */
+    private void updateQueryParameters() {
+        queryParameters = "&" + URLEncodedUtils.format(Arrays.asList(
+                new BasicNameValuePair("count", Integer.toString(MAX_RESULTS_PER_QUERY)), new BasicNameValuePair("mkt", market),
+                new BasicNameValuePair("safeSearch", safeSearchToString(safeSearch)),
+                new BasicNameValuePair("textDecorations", Boolean.toString(TEXT_DECORATIONS))), StandardCharsets.UTF_8)
+                + "&offset=";
     }
 
     @Override
     public URI getQueryURI(String query, int resultsSoFar) throws URISyntaxException {
-        URI uri = builder.clearParameters().setScheme(API_PROTOCOL).setHost(API_HOST).setPath(API_PATH).addParameter("q", query)
-                .addParameter("count", Integer.toString(MAX_RESULTS_PER_QUERY)).addParameter("mkt", market)
-                .addParameter("safeSearch", safeSearchToString(safeSearch))
-                .addParameter("textDecorations", Boolean.toString(TEXT_DECORATIONS))
-                .addParameter("offset", Integer.toString(resultsSoFar)).build();
-        return uri;
+        String q = URLEncodedUtils.format(Collections.singletonList(new BasicNameValuePair("q", query)), StandardCharsets.UTF_8);
+        String prefix = queryUriPrefix;
+        String parameters = queryParameters;
+        return new URI(new StringBuilder(prefix.length() + q.length() + parameters.length() + 11).append(prefix).append(q)
+                .append(parameters).append(resultsSoFar).toString());
+    }
+
+    @Override
+    public int getResultsPerCall() {
+        return MAX_RESULTS_PER_QUERY;
     }
 
     @Override
@@ -3,15 +3,15 @@ package it.unipi.di.acube.searchapi.callers;
 import java.lang.invoke.MethodHandles;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Vector;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
@@ -39,13 +39,16 @@ public class GoogleSearchApiCaller implements WebSearchApiCaller {
     private static final String DEFAULT_GEOLOCATION = "us";
     private static final String DEFAULT_GOOGLEHOST = "google.com";
     private static final SafeSearchOpt DEFAULT_SAFE_SEARCH = SafeSearchOpt.OFF;
-    private static URIBuilder builder = new URIBuilder();
+    public static final String DEFAULT_ENDPOINT = API_PROTOCOL + "://" + API_HOST + API_PATH;
+    private static final String NUM_PARAMETER = "&num=" + MAX_CSE_RESULTS;
 
-    private String cseId;
-    private String apiKey;
+    private final String keyParameters;
     private String geolocation = DEFAULT_GEOLOCATION;
     private String googleHost = DEFAULT_GOOGLEHOST;
     private SafeSearchOpt safeSearch = DEFAULT_SAFE_SEARCH;
+    private ApiHttpClient httpClient = ApiHttpClient.getDefault();
+    private volatile String queryUriPrefix = DEFAULT_ENDPOINT + "?";
+    private volatile String queryParameters;
 
     public enum SafeSearchOpt {
         OFF, MEDIUM, HIGH
@@ -58,8 +61,9 @@ public class GoogleSearchApiCaller implements WebSearchApiCaller {
      *            the custom search engine ID.
      */
     public GoogleSearchApiCaller(String cseId, String apiKey) {
-        this.cseId = cseId;
-        this.apiKey = apiKey;
+        this.keyParameters = "&" + URLEncodedUtils.format(Arrays.asList(new BasicNameValuePair("key", apiKey),
+                new BasicNameValuePair("cx", cseId)), StandardCharsets.UTF_8);
+        updateQueryParameters();
     }
 
     /**
@@ -71,6 +75,7 @@ public class GoogleSearchApiCaller implements WebSearchApiCaller {
         if (!geolocation.matches("[a-z][a-z]"))
             throw new IllegalArgumentException("Geolocation must be in the form 'en'");
         this.geolocation = geolocation;
+        updateQueryParameters();
         return this;
     }
 
@@ -81,6 +86,31 @@ public class GoogleSearchApiCaller implements WebSearchApiCaller {
      */
     public GoogleSearchApiCaller setSafeSearch(SafeSearchOpt safeSearch) {
         this.safeSearch = safeSearch;
+        updateQueryParameters();
+        return this;
+    }
+
+    /**
+     * @param endpoint
+     *            the URL calls are sent to, without query, e.g. that of a stub of the API for testing. Default is
+     *            {@value #DEFAULT_ENDPOINT}.
+     * @return this.
+     */
+    public GoogleSearchApiCaller setEndpoint(String endpoint) {
+        URI uri = URI.create(endpoint);
+        if (!uri.isAbsolute() || uri.getRawQuery() != null || uri.getRawFragment() != null)
+            throw new IllegalArgumentException("Endpoint must be an absolute URL without query.");
+        this.queryUriPrefix = endpoint + "?";
+        return this;
+    }
+
+    /**
+     * @param httpClient
+     *            the HTTP client used to issue calls. By default, a client shared by all callers is used.
+     * @return this.
+     */
+    public GoogleSearchApiCaller setHttpClient(ApiHttpClient httpClient) {
+        this.httpClient = httpClient;
         return this;
     }
 
@@ -96,35 +126,42 @@ public class GoogleSearchApiCaller implements WebSearchApiCaller {
     }
 
     @Override
-    public synchronized JSONObject query(String query, int resultsSoFar) throws Exception {
-        URI uri = buildURI(query, resultsSoFar + 1).addParameter("key", apiKey).addParameter("cx", cseId).build();
+    public JSONObject query(String query, int resultsSoFar) throws Exception {
+        URI uri = new URI(buildURI(query, resultsSoFar + 1).append(keyParameters).toString());
         HttpGet get = new HttpGet(uri);
         get.setHeader("Accept", "*/*");
         get.setHeader("Content-Type", "multipart/form-data");
 
-        HttpClient httpClient = HttpClientBuilder.create().build();
-        LOG.info("<querying> {}", uri.toString());
-        HttpResponse response = httpClient.execute(get);
+        LOG.debug("<querying> {}", uri);
+        return httpClient.getJson(get);
+    }
 
-        if (response.getStatusLine().getStatusCode() != 200) {
-            LOG.error("Got HTTP error {}. Message is: {}", response.getStatusLine().getStatusCode(),
-                    IOUtils.toString(response.getEntity().getContent(), "utf-8"));
-            throw new RuntimeException("Got response code:" + response.getStatusLine().getStatusCode());
-        }
-        return new JSONObject(IOUtils.toString(response.getEntity().getContent(), "utf-8"));
+    /**
+     * Encode once the parameters that only depend on the configuration of this caller, so that building the URI of a call
+     * only requires encoding the query. The start parameter is appended between the two parts.
+     */
+    private void updateQueryParameters() {
+        queryParameters = "&" + URLEncodedUtils.format(Arrays.asList(new BasicNameValuePair("gl", geolocation),
+                new BasicNameValuePair("googleHost", googleHost), new BasicNameValuePair("safe", safeSearchToString(safeSearch))),
+                StandardCharsets.UTF_8) + "&start=";
     }
 
-    private URIBuilder buildURI(String query, int queryStart) {
-        builder.clearParameters().setScheme(API_PROTOCOL).setHost(API_HOST).setPath(API_PATH).addParameter("q", query)
-                .addParameter("gl", geolocation).addParameter("googleHost", googleHost)
-                .addParameter("safe", safeSearchToString(safeSearch)).addParameter("start", Integer.toString(queryStart))
-                .addParameter("num", Integer.toString(MAX_CSE_RESULTS));
-        return builder;
+    private StringBuilder buildURI(String query, int queryStart) {
+        String q = URLEncodedUtils.format(Collections.singletonList(new BasicNameValuePair("q", query)), StandardCharsets.UTF_8);
+        String prefix = queryUriPrefix;
+        String parameters = queryParameters;
+        return new StringBuilder(prefix.length() + q.length() + parameters.length() + keyParameters.length() + 20)
+                .append(prefix).append(q).append(parameters).append(queryStart).append(NUM_PARAMETER);
     }
 
     @Override
     public URI getQueryURI(String query, int resultsSoFar) throws URISyntaxException {
-        return buildURI(query, resultsSoFar + 1).build();
+        return new URI(buildURI(query, resultsSoFar + 1).toString());
+    }
+
+    @Override
+    public int getResultsPerCall() {
+        return MAX_CSE_RESULTS;
     }
 
     @Override
@@ -0,0 +1,226 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * A caller that forwards calls to another caller, and issues a duplicate call (a hedge) when the first one is slower than
+ * usual. The first successful response wins, and the other call is cancelled: its HTTP request, if issued through
+ * {@link ApiHttpClient}, is aborted, its thread is interrupted, and its response, if any, is ignored. A call is considered
+ * slow when it takes longer than a given percentile of the latencies observed recently. The number of hedges is capped to a
+ * fraction of calls, to bound the extra quota spent.
+ */
+public class HedgedApiCaller implements WebSearchApiCaller {
+    private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int LATENCY_WINDOW = 1024;
+    private static final int MIN_LATENCY_SAMPLES = 32;
+    private static final int DEADLINE_UPDATE_INTERVAL = 64;
+    private static final double HEDGE_BURST = 10;
+
+    private final WebSearchApiCaller caller;
+    private final Executor executor;
+    private final double percentile;
+    private final double maxHedgeRatio;
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long latencyCount = 0;
+    private volatile long hedgeDelayNanos;
+    private double hedgeBudget = HEDGE_BURST;
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * @param caller
+     *            the caller calls are forwarded to.
+     * @param percentile
+     *            the percentile of recent latencies after which a call is hedged, e.g. 0.95.
+     * @param maxHedgeRatio
+     *            the maximum ratio of hedges to calls, e.g. 0.05 to spend at most 5% more calls.
+     * @param initialDelayMillis
+     *            the delay after which a call is hedged, until enough latencies have been observed.
+     * @param executor
+     *            the executor issuing the calls. If null, a pool of daemon threads is used.
+     */
+    public HedgedApiCaller(WebSearchApiCaller caller, double percentile, double maxHedgeRatio, long initialDelayMillis,
+            Executor executor) {
+        if (percentile <= 0 || percentile >= 1)
+            throw new IllegalArgumentException("Percentile must be between 0 and 1 (excluded).");
+        if (maxHedgeRatio < 0)
+            throw new IllegalArgumentException("Hedge ratio must be non-negative.");
+        this.caller = caller;
+        this.percentile = percentile;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(initialDelayMillis);
+        this.executor = executor != null ? executor : Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "websearch-hedge");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public JSONObject query(String query, int resultsSoFar) throws Exception {
+        earnHedge();
+        long start = System.nanoTime();
+        CompletableFuture<JSONObject> primary = call(query, resultsSoFar, start);
+        CompletableFuture<JSONObject> hedge = null;
+        try {
+            try {
+                return primary.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (!spendHedge())
+                    return primary.get();
+            }
+            LOG.debug("Hedging call for query {} at offset {}.", query, resultsSoFar);
+            hedges.incrementAndGet();
+            hedge = call(query, resultsSoFar, System.nanoTime());
+            JSONObject response = firstSuccessful(primary, hedge).get();
+            if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.get() == response)
+                hedgeWins.incrementAndGet();
+            return response;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        } finally {
+            primary.cancel(true);
+            if (hedge != null)
+                hedge.cancel(true);
+        }
+    }
+
+    /**
+     * @return a future completed with the response of the call. Cancelling it aborts the HTTP request and interrupts the
+     *         call, or prevents it from being issued if it has not started yet. The latency of the call is recorded when it
+     *         completes, successfully or not, or when it is cancelled: then, the time elapsed until cancellation is
+     *         recorded, which is a lower bound of the latency the call would have had.
+     */
+    private CompletableFuture<JSONObject> call(String query, int resultsSoFar, long start) {
+        CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        InFlightRequest request = new InFlightRequest();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                future.complete(request.run(() -> caller.query(query, resultsSoFar)));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }, null);
+        future.whenComplete((response, e) -> {
+            recordLatency(System.nanoTime() - start);
+            if (future.isCancelled()) {
+                request.abort();
+                task.cancel(true);
+            }
+        });
+        executor.execute(task);
+        return future;
+    }
+
+    /**
+     * @return a future completed with the first successful result, or with the last failure if both fail.
+     */
+    private static CompletableFuture<JSONObject> firstSuccessful(CompletableFuture<JSONObject> a,
+            CompletableFuture<JSONObject> b) {
+        CompletableFuture<JSONObject> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<JSONObject> f : Arrays.asList(a, b))
+            f.whenComplete((response, e) -> {
+                if (e == null)
+                    winner.complete(response);
+                else if (failures.incrementAndGet() == 2)
+                    winner.completeExceptionally(e);
+            });
+        return winner;
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[(int) (latencyCount++ % LATENCY_WINDOW)] = nanos;
+        if (latencyCount >= MIN_LATENCY_SAMPLES && latencyCount % DEADLINE_UPDATE_INTERVAL == 0) {
+            long[] sorted = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+            Arrays.sort(sorted);
+            hedgeDelayNanos = sorted[(int) (percentile * (sorted.length - 1))];
+        }
+    }
+
+    private synchronized void earnHedge() {
+        hedgeBudget = Math.min(HEDGE_BURST, hedgeBudget + maxHedgeRatio);
+    }
+
+    private synchronized boolean spendHedge() {
+        if (hedgeBudget < 1)
+            return false;
+        hedgeBudget -= 1;
+        return true;
+    }
+
+    /**
+     * @return the current delay (in milliseconds) after which a call is hedged.
+     */
+    public long getHedgeDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos);
+    }
+
+    /**
+     * @return the number of hedges issued so far.
+     */
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * @return the number of hedges that responded before the call they duplicated.
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    @Override
+    public int getResultsPerCall() {
+        return caller.getResultsPerCall();
+    }
+
+    @Override
+    public int countResults(JSONObject response) throws JSONException {
+        return caller.countResults(response);
+    }
+
+    @Override
+    public boolean recacheNeeded(List<JSONObject> jsonResponses) throws JSONException {
+        return caller.recacheNeeded(jsonResponses);
+    }
+
+    @Override
+    public WebsearchResponse buildResponseFromJson(List<URI> uris, List<JSONObject> jsonResponses, int neededResults)
+            throws JSONException {
+        return caller.buildResponseFromJson(uris, jsonResponses, neededResults);
+    }
+
+    @Override
+    public URI getQueryURI(String query, int resultsSoFar) throws URISyntaxException {
+        return caller.getQueryURI(query, resultsSoFar);
+    }
+
+    @Override
+    public boolean queryComplete(List<JSONObject> jsonResponses, int neededResults) throws JSONException {
+        return caller.queryComplete(jsonResponses, neededResults);
+    }
+}
@@ -0,0 +1,55 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import java.util.concurrent.Callable;
+
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * The HTTP request issued by a call, that can be aborted from another thread. Interrupting a thread does not stop it from
+ * waiting on a socket, while aborting its request closes the connection, and makes the call fail straight away. Requests
+ * issued by {@link ApiHttpClient} in the thread running {@link #run(Callable)} are bound to this object.
+ */
+class InFlightRequest {
+    private static final ThreadLocal<InFlightRequest> CURRENT = new ThreadLocal<>();
+
+    private HttpGet request;
+    private boolean aborted = false;
+
+    /**
+     * Run a call, binding the requests it issues to this object.
+     */
+    <T> T run(Callable<T> call) throws Exception {
+        InFlightRequest outer = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.call();
+        } finally {
+            CURRENT.set(outer);
+        }
+    }
+
+    /**
+     * Bind a request to the object whose {@link #run(Callable)} is running in this thread, if any. If that was aborted, the
+     * request is aborted as well.
+     */
+    static void bind(HttpGet request) {
+        InFlightRequest current = CURRENT.get();
+        if (current != null)
+            current.setRequest(request);
+    }
+
+    private synchronized void setRequest(HttpGet request) {
+        this.request = request;
+        if (aborted)
+            request.abort();
+    }
+
+    /**
+     * Abort the request being issued, and any request issued later by the call.
+     */
+    synchronized void abort() {
+        aborted = true;
+        if (request != null)
+            request.abort();
+    }
+}
@@ -0,0 +1,283 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.codehaus.jettison.json.JSONException;
+
+/**
+ * A minimal pull parser for JSON. Tokens are read one at a time from a character stream, without building the document in
+ * memory: this lets callers pick the few fields they need out of a large response and skip the rest. The text of the
+ * current token is kept in a reused buffer, and a String is only allocated when asked for with {@link #getText()}. Input
+ * that is not valid JSON, including truncated input, is rejected with a {@link JSONException} as soon as it is read.
+ */
+class JsonPullParser {
+    enum Token {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME, STRING, NUMBER, TRUE, FALSE, NULL
+    }
+
+    private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position, limit;
+    private long consumed;
+    private final StringBuilder text = new StringBuilder(256);
+    private Token token;
+    private boolean[] objectStack = new boolean[16];
+    private int depth;
+    private boolean expectName;
+
+    /**
+     * @param reader
+     *            the reader of the JSON text. It is not closed by the parser.
+     */
+    JsonPullParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next token.
+     *
+     * @return the token, or null if the end of the input was reached.
+     * @throws IOException
+     *             if the input could not be read.
+     * @throws JSONException
+     *             if the input is not valid JSON.
+     */
+    Token next() throws IOException, JSONException {
+        text.setLength(0);
+        boolean afterValue = token != null && token != Token.START_OBJECT && token != Token.START_ARRAY
+                && token != Token.FIELD_NAME;
+        int c = skipSpace();
+        if (c == ',') {
+            if (depth == 0 || !afterValue)
+                throw syntaxError("Unexpected ','");
+            expectName = objectStack[depth - 1];
+            c = skipSpace();
+            if (c == '}' || c == ']')
+                throw syntaxError("Unexpected '" + (char) c + "'");
+        } else if (afterValue && c != -1 && (depth == 0 || c != '}' && c != ']'))
+            throw syntaxError(depth == 0 ? "Unexpected data after the end of the value" : "Expected ','");
+        if (expectName && c != '"' && c != '}')
+            throw syntaxError("Expected a field name");
+        switch (c) {
+        case -1:
+            if (depth > 0)
+                throw syntaxError("Unexpected end of input");
+            return token = null;
+        case '{':
+            push(true);
+            expectName = true;
+            return token = Token.START_OBJECT;
+        case '}':
+            pop(true);
+            return token = Token.END_OBJECT;
+        case '[':
+            push(false);
+            expectName = false;
+            return token = Token.START_ARRAY;
+        case ']':
+            pop(false);
+            return token = Token.END_ARRAY;
+        case '"':
+            readString();
+            if (expectName) {
+                expectName = false;
+                if (skipSpace() != ':')
+                    throw syntaxError("Expected ':'");
+                return token = Token.FIELD_NAME;
+            }
+            return token = Token.STRING;
+        case 't':
+            readLiteral("true");
+            return token = Token.TRUE;
+        case 'f':
+            readLiteral("false");
+            return token = Token.FALSE;
+        case 'n':
+            readLiteral("null");
+            return token = Token.NULL;
+        default:
+            if (c != '-' && (c < '0' || c > '9'))
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+            readNumber(c);
+            if (!NUMBER.matcher(text).matches())
+                throw syntaxError("Illegal number " + text);
+            return token = Token.NUMBER;
+        }
+    }
+
+    /**
+     * @return the current token.
+     */
+    Token getToken() {
+        return token;
+    }
+
+    /**
+     * @return the text of the current field name, string or number.
+     */
+    String getText() {
+        return text.toString();
+    }
+
+    /**
+     * @param str
+     *            a string.
+     * @return whether the text of the current token equals the string. Unlike {@link #getText()}, this does not allocate.
+     */
+    boolean textEquals(String str) {
+        if (text.length() != str.length())
+            return false;
+        for (int i = 0; i < str.length(); i++)
+            if (text.charAt(i) != str.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the value of the current number token.
+     * @throws JSONException
+     *             if the current token is not a number.
+     */
+    long getLong() throws JSONException {
+        if (token != Token.NUMBER)
+            throw syntaxError("Expected a number");
+        try {
+            return Long.parseLong(text.toString());
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(text.toString());
+            } catch (NumberFormatException e1) {
+                throw syntaxError("Illegal number " + text);
+            }
+        }
+    }
+
+    /**
+     * If the current token starts an object or an array, skip to its end. Otherwise, do nothing.
+     *
+     * @throws IOException
+     *             if the input could not be read.
+     * @throws JSONException
+     *             if the input is not valid JSON.
+     */
+    void skipValue() throws IOException, JSONException {
+        if (token != Token.START_OBJECT && token != Token.START_ARRAY)
+            return;
+        int targetDepth = depth - 1;
+        while (depth > targetDepth)
+            next();
+    }
+
+    private void push(boolean object) {
+        if (depth == objectStack.length)
+            objectStack = Arrays.copyOf(objectStack, depth * 2);
+        objectStack[depth++] = object;
+    }
+
+    private void pop(boolean object) throws JSONException {
+        if (depth == 0 || objectStack[depth - 1] != object)
+            throw syntaxError("Unexpected '" + (object ? '}' : ']') + "'");
+        if (token == Token.FIELD_NAME)
+            throw syntaxError("Missing value");
+        depth--;
+        expectName = false;
+    }
+
+    private int read() throws IOException {
+        return position < limit || fill() ? buffer[position++] : -1;
+    }
+
+    private int peek() throws IOException {
+        return position < limit || fill() ? buffer[position] : -1;
+    }
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        position = 0;
+        limit = Math.max(0, reader.read(buffer, 0, buffer.length));
+        return limit > 0;
+    }
+
+    private int skipSpace() throws IOException {
+        int c;
+        do
+            c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private void readString() throws IOException, JSONException {
+        while (true) {
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '"' || c == '\\')
+                    break;
+                position++;
+            }
+            text.append(buffer, start, position - start);
+            int c = read();
+            if (c == '"')
+                return;
+            if (c == '\\')
+                text.append(readEscape());
+            else if (c == -1)
+                throw syntaxError("Unterminated string");
+            else
+                text.append((char) c);
+        }
+    }
+
+    private char readEscape() throws IOException, JSONException {
+        int c = read();
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            return (char) c;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(read(), 16);
+                if (digit < 0)
+                    throw syntaxError("Illegal unicode escape");
+                value = value << 4 | digit;
+            }
+            return (char) value;
+        default:
+            throw syntaxError("Illegal escape");
+        }
+    }
+
+    private void readNumber(int first) throws IOException {
+        text.append((char) first);
+        for (int c = peek(); c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-'; c = peek()) {
+            text.append((char) c);
+            position++;
+        }
+    }
+
+    private void readLiteral(String literal) throws IOException, JSONException {
+        for (int i = 1; i < literal.length(); i++)
+            if (read() != literal.charAt(i))
+                throw syntaxError("Expected '" + literal + "'");
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + (consumed + position));
+    }
+}
@@ -0,0 +1,158 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Ticker;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * A caller that forwards calls to another caller without exceeding a per-second and a per-day quota. The per-day quota holds
+ * in any 24 hours, not only in calendar days: a call is counted against it for a day and at most one more minute. Calls
+ * exceeding the quota wait until they can be issued, in the order they arrived. If the API answers with HTTP status 429 (too many
+ * requests), all calls are paused for the time requested by its Retry-After header (one second if not stated), and the
+ * failure is thrown: issuing the call again is left to the {@link it.unipi.di.acube.searchapi.RetryPolicy} of the API using
+ * this caller, whose retry waits for the pause to end.
+ */
+public class RateLimitedApiCaller implements WebSearchApiCaller {
+    private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+    private static final long DAY_NANOS = TimeUnit.DAYS.toNanos(1);
+    private static final int DAY_SLOTS = (int) TimeUnit.DAYS.toMinutes(1);
+
+    private final WebSearchApiCaller caller;
+    private final TokenBucket secondBucket;
+    private final SlidingWindowCounter dayWindow;
+    private final Ticker ticker;
+    private final ReentrantLock queue = new ReentrantLock(true);
+    private long pausedUntil;
+
+    /**
+     * @param caller
+     *            the caller calls are forwarded to.
+     * @param callsPerSecond
+     *            the maximum number of calls per second.
+     * @param callsPerDay
+     *            the maximum number of calls per day.
+     */
+    public RateLimitedApiCaller(WebSearchApiCaller caller, double callsPerSecond, long callsPerDay) {
+        this(caller, callsPerSecond, callsPerDay, Ticker.systemTicker());
+    }
+
+    RateLimitedApiCaller(WebSearchApiCaller caller, double callsPerSecond, long callsPerDay, Ticker ticker) {
+        if (callsPerSecond <= 0 || callsPerDay <= 0)
+            throw new IllegalArgumentException("Quotas must be positive.");
+        this.caller = caller;
+        this.ticker = ticker;
+        long now = ticker.read();
+        this.secondBucket = new TokenBucket(Math.max(1, callsPerSecond), callsPerSecond, now);
+        this.dayWindow = new SlidingWindowCounter(callsPerDay, DAY_NANOS, DAY_SLOTS, now);
+        this.pausedUntil = now;
+    }
+
+    /**
+     * Wait until a call can be issued without exceeding quotas, and take it from the quotas. Threads wait in a fair queue, so
+     * calls are issued in arrival order.
+     */
+    private void acquire() throws InterruptedException {
+        queue.lockInterruptibly();
+        try {
+            long wait;
+            while ((wait = tryTake()) > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
+        } finally {
+            queue.unlock();
+        }
+    }
+
+    /**
+     * @return 0 if a call could be taken from the quotas, the nanoseconds to wait before trying again otherwise.
+     */
+    synchronized long tryTake() {
+        long now = ticker.read();
+        long wait = Math.max(pausedUntil - now,
+                Math.max(secondBucket.nanosUntilAvailable(now), dayWindow.nanosUntilAvailable(now)));
+        if (wait > 0)
+            return wait;
+        secondBucket.take();
+        dayWindow.take(now);
+        return 0;
+    }
+
+    private synchronized void pause(long millis) {
+        pausedUntil = Math.max(pausedUntil, ticker.read() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Override
+    public JSONObject query(String query, int resultsSoFar) throws Exception {
+        acquire();
+        try {
+            return caller.query(query, resultsSoFar);
+        } catch (ApiResponseException e) {
+            if (e.getStatusCode() == TOO_MANY_REQUESTS) {
+                long retryAfter = e.getRetryAfterMillis() >= 0 ? e.getRetryAfterMillis() : DEFAULT_RETRY_AFTER_MILLIS;
+                LOG.warn("API quota exceeded, pausing calls for {} ms.", retryAfter);
+                pause(retryAfter);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of calls left in the per-second quota. Calls can be issued right now only if the per-day quota is
+     *         not exhausted as well.
+     */
+    public synchronized long getRemainingSecondQuota() {
+        return secondBucket.available(ticker.read());
+    }
+
+    /**
+     * @return the number of calls left in the per-day quota.
+     */
+    public synchronized long getRemainingDayQuota() {
+        return dayWindow.available(ticker.read());
+    }
+
+    @Override
+    public int getResultsPerCall() {
+        return caller.getResultsPerCall();
+    }
+
+    @Override
+    public int countResults(JSONObject response) throws JSONException {
+        return caller.countResults(response);
+    }
+
+    @Override
+    public boolean recacheNeeded(List<JSONObject> jsonResponses) throws JSONException {
+        return caller.recacheNeeded(jsonResponses);
+    }
+
+    @Override
+    public WebsearchResponse buildResponseFromJson(List<URI> uris, List<JSONObject> jsonResponses, int neededResults)
+            throws JSONException {
+        return caller.buildResponseFromJson(uris, jsonResponses, neededResults);
+    }
+
+    @Override
+    public URI getQueryURI(String query, int resultsSoFar) throws URISyntaxException {
+        return caller.getQueryURI(query, resultsSoFar);
+    }
+
+    @Override
+    public boolean queryComplete(List<JSONObject> jsonResponses, int neededResults) throws JSONException {
+        return caller.queryComplete(jsonResponses, neededResults);
+    }
+}
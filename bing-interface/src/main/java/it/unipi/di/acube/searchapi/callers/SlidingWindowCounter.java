@@ -0,0 +1,72 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A counter of the calls issued in a sliding time window, that allows at most a given number of calls in any window. Calls
+ * are counted in slots of equal length, and the calls of a slot are released one window after the end of the slot, so a call
+ * may be released up to one slot later than needed, never earlier. Not thread-safe.
+ */
+class SlidingWindowCounter {
+    private final long limit;
+    private final long windowNanos;
+    private final long slotNanos;
+    private final long origin;
+    private final Deque<long[]> slots = new ArrayDeque<>();
+    private long calls;
+
+    /**
+     * @param limit
+     *            the maximum number of calls in any window.
+     * @param windowNanos
+     *            the length of the window, in nanoseconds.
+     * @param slotCount
+     *            the number of slots a window is split into.
+     * @param now
+     *            the current time, in nanoseconds.
+     */
+    SlidingWindowCounter(long limit, long windowNanos, int slotCount, long now) {
+        this.limit = limit;
+        this.windowNanos = windowNanos;
+        this.slotNanos = Math.max(1, windowNanos / slotCount);
+        this.origin = now;
+    }
+
+    private long releaseTime(long[] slot) {
+        return slot[0] + slotNanos + windowNanos;
+    }
+
+    private void release(long now) {
+        while (!slots.isEmpty() && releaseTime(slots.peekFirst()) <= now)
+            calls -= slots.pollFirst()[1];
+    }
+
+    /**
+     * @return the nanoseconds to wait before a call can be issued, 0 if one can be issued now.
+     */
+    long nanosUntilAvailable(long now) {
+        release(now);
+        return calls < limit ? 0 : releaseTime(slots.peekFirst()) - now;
+    }
+
+    /**
+     * Count a call. Must be called only if a call can be issued.
+     */
+    void take(long now) {
+        long slotStart = now - Math.floorMod(now - origin, slotNanos);
+        long[] last = slots.peekLast();
+        if (last == null || last[0] != slotStart)
+            slots.addLast(last = new long[] { slotStart, 0 });
+        last[1]++;
+        calls++;
+    }
+
+    /**
+     * @return the number of calls that can be issued now.
+     */
+    long available(long now) {
+        release(now);
+        return limit - calls;
+    }
+}
@@ -0,0 +1,54 @@
+package it.unipi.di.acube.searchapi.callers;
+
+/**
+ * A token bucket: tokens are added at a constant rate, up to a maximum capacity, and each call takes one. Not thread-safe.
+ */
+class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param capacity
+     *            the maximum number of tokens (the size of a burst). The bucket starts full.
+     * @param tokensPerSecond
+     *            the rate at which tokens are added.
+     * @param now
+     *            the current time, in nanoseconds.
+     */
+    TokenBucket(double capacity, double tokensPerSecond, long now) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+    /**
+     * @return the nanoseconds to wait before a token is available, 0 if one is available now.
+     */
+    long nanosUntilAvailable(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Take one token. Must be called only if a token is available.
+     */
+    void take() {
+        tokens -= 1;
+    }
+
+    /**
+     * @return the number of whole tokens available now.
+     */
+    long available(long now) {
+        refill(now);
+        return (long) tokens;
+    }
+}
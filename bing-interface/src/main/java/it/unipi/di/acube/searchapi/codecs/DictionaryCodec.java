@@ -0,0 +1,219 @@
+package it.unipi.di.acube.searchapi.codecs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseCodec;
+
+/**
+ * Encodes responses with Deflate, using a preset dictionary of strings that are frequent in responses (JSON keys, types,
+ * recurring URLs). Since every response of an API shares the same boilerplate, compressing against a shared dictionary
+ * saves much more space than compressing each response on its own. The dictionary is trained on a sample of responses
+ * with {@link #train(int, Iterable)}.
+ *
+ * Each dictionary has a numeric identifier between 0 and 127, that determines the tag of the values it encodes. Values are
+ * laid out as: tag, length of the response in bytes (4 bytes), zlib stream.
+ */
+public class DictionaryCodec implements ResponseCodec {
+    public static final int MAX_ID = 127;
+    private static final int TAG_BASE = 0x80;
+    private static final int HEADER_LENGTH = 5;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final double MIN_DOCUMENT_FREQUENCY = 0.1;
+    private static final int MIN_TOKEN_LENGTH = 3;
+    private static final int MAX_COMPRESSION_RATIO = 1032;
+    private final int id;
+    private final byte[] dictionary;
+
+    /**
+     * @param id
+     *            the identifier of the dictionary, between 0 and {@link #MAX_ID}.
+     * @param dictionary
+     *            the dictionary.
+     */
+    public DictionaryCodec(int id, byte[] dictionary) {
+        if (id < 0 || id > MAX_ID)
+            throw new IllegalArgumentException("Dictionary ID must be between 0 and " + MAX_ID);
+        this.id = id;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Build a dictionary from a sample of responses. The dictionary is made of the JSON strings (keys and values) that appear
+     * in at least 10% of the responses, preferring the most frequent and longest ones. Most frequent strings are placed at
+     * the end of the dictionary, where they are cheaper to reference.
+     *
+     * @param id
+     *            the identifier of the dictionary, between 0 and {@link #MAX_ID}.
+     * @param samples
+     *            the responses.
+     * @return a codec using the trained dictionary.
+     */
+    public static DictionaryCodec train(int id, Iterable<String> samples) {
+        final Map<String, Integer> frequencies = new HashMap<>();
+        int sampleCount = 0;
+        for (String sample : samples) {
+            sampleCount++;
+            for (String token : tokenize(sample)) {
+                Integer frequency = frequencies.get(token);
+                frequencies.put(token, frequency == null ? 1 : frequency + 1);
+            }
+        }
+
+        List<String> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : frequencies.entrySet())
+            if (e.getValue() >= Math.max(2, sampleCount * MIN_DOCUMENT_FREQUENCY))
+                candidates.add(e.getKey());
+        Collections.sort(candidates, (a, b) -> Long.compare(score(b, frequencies), score(a, frequencies)));
+
+        List<byte[]> chosen = new ArrayList<>();
+        int size = 0;
+        for (String token : candidates) {
+            byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > DICTIONARY_SIZE)
+                continue;
+            chosen.add(bytes);
+            size += bytes.length;
+        }
+        Collections.reverse(chosen);
+        ByteBuffer dictionary = ByteBuffer.allocate(size);
+        for (byte[] bytes : chosen)
+            dictionary.put(bytes);
+        return new DictionaryCodec(id, dictionary.array());
+    }
+
+    private static long score(String token, Map<String, Integer> frequencies) {
+        return (long) frequencies.get(token) * token.length();
+    }
+
+    /**
+     * @return the distinct JSON strings of a response, including the following colon for keys.
+     */
+    private static Set<String> tokenize(String json) {
+        Set<String> tokens = new HashSet<>();
+        int start = -1;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                if (start < 0)
+                    start = i;
+                else {
+                    int end = i + 1 < json.length() && json.charAt(i + 1) == ':' ? i + 2 : i + 1;
+                    if (end - start >= MIN_TOKEN_LENGTH)
+                        tokens.add(json.substring(start, end));
+                    start = -1;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the identifier of this dictionary.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the dictionary.
+     */
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public byte getTag() {
+        return (byte) (TAG_BASE | id);
+    }
+
+    /**
+     * @param tag
+     *            the first byte of a value.
+     * @return whether the value was encoded by a dictionary codec.
+     */
+    public static boolean isDictionaryTag(byte tag) {
+        return (tag & TAG_BASE) != 0;
+    }
+
+    /**
+     * @param tag
+     *            the first byte of a value encoded by a dictionary codec.
+     * @return the identifier of the dictionary that encoded the value.
+     */
+    public static int idFromTag(byte tag) {
+        return tag & MAX_ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate-dict-" + id;
+    }
+
+    @Override
+    public byte[] encode(String response) throws IOException {
+        byte[] raw = response.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + raw.length / 4);
+            out.write(getTag());
+            out.write(ByteBuffer.allocate(4).putInt(raw.length).array());
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public String decode(byte[] value) throws IOException {
+        if (value.length < HEADER_LENGTH || value[0] != getTag())
+            throw new IOException("Value not encoded with dictionary " + id);
+        int rawLength = ByteBuffer.wrap(value, 1, 4).getInt();
+        if (rawLength < 0 || rawLength == Integer.MAX_VALUE
+                || rawLength > (long) (value.length - HEADER_LENGTH) * MAX_COMPRESSION_RATIO)
+            throw new IOException("Corrupt dictionary-encoded value.");
+        byte[] raw = new byte[rawLength + 1];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(value, HEADER_LENGTH, value.length - HEADER_LENGTH);
+            int length = 0;
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary())
+                        inflater.setDictionary(dictionary);
+                    else if (!inflater.finished() && (inflater.needsInput() || length == raw.length))
+                        throw new IOException("Corrupt dictionary-encoded value.");
+                }
+                length += inflated;
+            }
+            if (length != rawLength)
+                throw new IOException("Corrupt dictionary-encoded value.");
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new IOException("Corrupt dictionary-encoded value.", e);
+        } finally {
+            inflater.end();
+        }
+        return new String(raw, 0, rawLength, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,34 @@
+package it.unipi.di.acube.searchapi.codecs;
+
+import java.io.IOException;
+
+import it.unipi.di.acube.searchapi.StringCompress;
+import it.unipi.di.acube.searchapi.interfaces.ResponseCodec;
+
+/**
+ * Encodes each response as a GZip stream on its own. This is the format of caches created before codecs were introduced:
+ * values are not prefixed by a tag, and the GZip magic number plays its role.
+ */
+public class GzipCodec implements ResponseCodec {
+    public static final byte TAG = 0x1f;
+
+    @Override
+    public byte getTag() {
+        return TAG;
+    }
+
+    @Override
+    public String getName() {
+        return "gzip";
+    }
+
+    @Override
+    public byte[] encode(String response) throws IOException {
+        return StringCompress.compress(response);
+    }
+
+    @Override
+    public String decode(byte[] value) throws IOException {
+        return StringCompress.decompress(value);
+    }
+}
@@ -0,0 +1,62 @@
+package it.unipi.di.acube.searchapi.codecs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseCodec;
+
+/**
+ * Encodes responses with LZ4, that compresses less than GZip but decompresses several times faster. Values are laid out as:
+ * tag, length of the response in bytes (4 bytes), LZ4 block.
+ */
+public class Lz4Codec implements ResponseCodec {
+    public static final byte TAG = 'L';
+    private static final int HEADER_LENGTH = 5;
+    private static final int MAX_COMPRESSION_RATIO = 255;
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+    @Override
+    public byte getTag() {
+        return TAG;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public byte[] encode(String response) throws IOException {
+        byte[] raw = response.getBytes(StandardCharsets.UTF_8);
+        byte[] value = new byte[HEADER_LENGTH + COMPRESSOR.maxCompressedLength(raw.length)];
+        ByteBuffer.wrap(value).put(TAG).putInt(raw.length);
+        int length = COMPRESSOR.compress(raw, 0, raw.length, value, HEADER_LENGTH);
+        byte[] trimmed = new byte[HEADER_LENGTH + length];
+        System.arraycopy(value, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    @Override
+    public String decode(byte[] value) throws IOException {
+        if (value.length < HEADER_LENGTH || value[0] != TAG)
+            throw new IOException("Not an LZ4-encoded value.");
+        int rawLength = ByteBuffer.wrap(value, 1, 4).getInt();
+        if (rawLength < 0 || rawLength > (long) (value.length - HEADER_LENGTH) * MAX_COMPRESSION_RATIO)
+            throw new IOException("Corrupt LZ4-encoded value.");
+        byte[] raw = new byte[rawLength];
+        try {
+            if (DECOMPRESSOR.decompress(value, HEADER_LENGTH, value.length - HEADER_LENGTH, raw, 0) != rawLength)
+                throw new IOException("Corrupt LZ4-encoded value.");
+        } catch (LZ4Exception e) {
+            throw new IOException("Corrupt LZ4-encoded value.", e);
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,38 @@
+package it.unipi.di.acube.searchapi.interfaces;
+
+import java.io.IOException;
+
+/**
+ * This interface represents a way of encoding the API responses stored in the cache. Each encoded value starts with a tag
+ * byte identifying the codec that produced it, so that values encoded by different codecs can live in the same cache.
+ */
+public interface ResponseCodec {
+
+    /**
+     * @return the first byte of all values encoded by this codec. Must be unique among the codecs used with a cache.
+     */
+    byte getTag();
+
+    /**
+     * @return a human-readable name of this codec.
+     */
+    String getName();
+
+    /**
+     * @param response
+     *            a response, as returned by the API.
+     * @return the encoded response, starting with the tag of this codec.
+     * @throws IOException
+     *             if the response could not be encoded.
+     */
+    byte[] encode(String response) throws IOException;
+
+    /**
+     * @param value
+     *            a value encoded by this codec.
+     * @return the response.
+     * @throws IOException
+     *             if the value could not be decoded.
+     */
+    String decode(byte[] value) throws IOException;
+}
@@ -0,0 +1,105 @@
+package it.unipi.di.acube.searchapi.interfaces;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * This interface represents the storage of the responses cached by a CachedWebsearchApi: a map from the URI of each call
+ * to the API to its stored response, plus a few named metadata values (e.g. compression dictionaries) kept apart from
+ * responses. Implementations must be thread-safe. Written entries can be read right away, and are durable once committed.
+ */
+public interface ResponseStore extends Closeable {
+
+    /**
+     * @param key
+     *            the key of an entry.
+     * @return the value of the entry, or null if there is no entry with that key.
+     * @throws IOException
+     *             if the entry could not be read.
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Write an entry, replacing the entry with the same key, if any.
+     *
+     * @param key
+     *            the key of the entry.
+     * @param value
+     *            the value of the entry.
+     * @throws IOException
+     *             if the entry could not be written.
+     */
+    void put(String key, byte[] value) throws IOException;
+
+    /**
+     * Write a number of entries. This may be considerably faster than writing them one by one.
+     *
+     * @param entries
+     *            the entries.
+     * @throws IOException
+     *             if the entries could not be written.
+     */
+    void putAll(Map<String, byte[]> entries) throws IOException;
+
+    /**
+     * Remove an entry, if it exists.
+     *
+     * @param key
+     *            the key of the entry.
+     * @throws IOException
+     *             if the entry could not be removed.
+     */
+    void remove(String key) throws IOException;
+
+    /**
+     * @return the keys of all entries.
+     */
+    Iterable<String> keys();
+
+    /**
+     * @return all entries. Values may be read lazily, while iterating.
+     */
+    Iterable<Map.Entry<String, byte[]>> entries();
+
+    /**
+     * @return the number of entries.
+     */
+    long size();
+
+    /**
+     * @param name
+     *            the name of a metadata value.
+     * @return the metadata value, or null if it was never written.
+     * @throws IOException
+     *             if the value could not be read.
+     */
+    byte[] getMetadata(String name) throws IOException;
+
+    /**
+     * @param name
+     *            the name of a metadata value.
+     * @param value
+     *            the metadata value.
+     * @throws IOException
+     *             if the value could not be written.
+     */
+    void putMetadata(String name, byte[] value) throws IOException;
+
+    /**
+     * Make all entries written so far durable.
+     *
+     * @throws IOException
+     *             if the entries could not be committed.
+     */
+    void commit() throws IOException;
+
+    /**
+     * Commit all entries and release the resources of this store. Further calls will throw an exception.
+     *
+     * @throws IOException
+     *             if the store could not be closed cleanly.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,83 @@
+package it.unipi.di.acube.searchapi.interfaces;
+
+/**
+ * This interface receives the events of the query path, to collect metrics on them. Methods are called on the hot path, by
+ * any thread and concurrently: implementations must be thread-safe and cheap, and must not block or throw. APIs are named
+ * after the host their calls are sent to.
+ */
+public interface SearchMetrics {
+
+    /**
+     * The tiers of the cache.
+     */
+    enum CacheTier {
+        /**
+         * The in-memory cache of complete responses.
+         */
+        MEMORY,
+        /**
+         * The store of the pages.
+         */
+        STORE
+    }
+
+    /**
+     * @param tier
+     *            the tier that contained all pages of a response.
+     */
+    void cacheHit(CacheTier tier);
+
+    /**
+     * @param tier
+     *            the tier that did not contain all pages of a response.
+     */
+    void cacheMiss(CacheTier tier);
+
+    /**
+     * @param nanos
+     *            the time spent decompressing and parsing a page read from the cache store, in nanoseconds.
+     */
+    void pageDecoded(long nanos);
+
+    /**
+     * A call to an API is being issued.
+     * 
+     * @param api
+     *            the name of the API.
+     */
+    void apiCallStarted(String api);
+
+    /**
+     * A call to an API has returned, or failed.
+     * 
+     * @param api
+     *            the name of the API.
+     * @param nanos
+     *            the latency of the call, including the parsing of the response, in nanoseconds.
+     * @param succeeded
+     *            whether the call returned a response.
+     */
+    void apiCallFinished(String api, long nanos, boolean succeeded);
+
+    /**
+     * @param api
+     *            the name of the API.
+     * @param bytes
+     *            the size of the body of a response received from the API.
+     */
+    void bytesReceived(String api, long bytes);
+
+    /**
+     * @param api
+     *            the name of the API a call is issued again to, after a failure or a bad response.
+     */
+    void retry(String api);
+
+    /**
+     * @param entries
+     *            the number of entries committed to the cache store.
+     * @param nanos
+     *            the time spent committing, in nanoseconds.
+     */
+    void committed(int entries, long nanos);
+}
@@ -25,6 +25,14 @@ public interface WebSearchApiCaller {
      */
     int countResults(JSONObject response) throws JSONException;
 
+    /**
+     * @return the number of results requested to the API with each call, i.e. the maximum number of results of a single
+     *         response, or 0 if unknown. Pages of callers that do not know it are always fetched one after the other.
+     */
+    default int getResultsPerCall() {
+        return 0;
+    }
+
     /**
      * @param query
      *            a query
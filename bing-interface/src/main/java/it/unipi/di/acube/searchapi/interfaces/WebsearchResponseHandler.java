@@ -0,0 +1,25 @@
+package it.unipi.di.acube.searchapi.interfaces;
+
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * This interface receives the responses of a batch of queries, as soon as each of them is ready.
+ */
+public interface WebsearchResponseHandler {
+
+    /**
+     * @param query
+     *            a query of the batch.
+     * @param response
+     *            the response to the query.
+     */
+    void onResponse(String query, WebsearchResponse response);
+
+    /**
+     * @param query
+     *            a query of the batch.
+     * @param e
+     *            the exception that made the query fail.
+     */
+    void onFailure(String query, Exception e);
+}
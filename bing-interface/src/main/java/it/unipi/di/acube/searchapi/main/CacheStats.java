@@ -1,15 +1,69 @@
 package it.unipi.di.acube.searchapi.main;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
 import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+import it.unipi.di.acube.searchapi.interfaces.ResponseCodec;
 
 public class CacheStats {
 
+    /**
+     * This java main prints the list of cached URIs and, for each codec used in the cache, the number of stored responses,
+     * their compression ratio and decoding throughput. It also prints the write time of the oldest entry.
+     *
+     * @param args
+     *            The command-line arguments: CACHE_FILE, the name of the file where results are stored.
+     *
+     * @throws Exception
+     *             if something went wrong.
+     */
     public static void main(String[] args) throws Exception {
         CachedWebsearchApi cached = CachedWebsearchApi.builder().path(args[0]).create();
         System.out.println("List of cached URIs:");
         for (String uri : cached.cachedUris())
             System.out.printf("%s\n", uri);
-        System.out.printf("Total cached URIs: %d", cached.getCachedRequests());
+        System.out.printf("Total cached URIs: %d\n", cached.getCachedRequests());
+
+        Map<String, long[]> codecStats = new TreeMap<>();
+        long untimedEntries = 0;
+        long oldestWrite = Long.MAX_VALUE;
+        for (Map.Entry<String, byte[]> entry : cached.cachedEntries()) {
+            long writeTime = CachedWebsearchApi.getWriteTime(entry.getValue());
+            if (writeTime < 0)
+                untimedEntries++;
+            else
+                oldestWrite = Math.min(oldestWrite, writeTime);
+            byte[] value = CachedWebsearchApi.getPayload(entry.getValue());
+            ResponseCodec codec = cached.getCodec(value);
+            String name = codec == null ? "compact" : codec.getName();
+            long decodedBytes = 0;
+            long start = System.nanoTime();
+            if (codec != null)
+                decodedBytes = codec.decode(value).getBytes(StandardCharsets.UTF_8).length;
+            long elapsed = System.nanoTime() - start;
+            if (!codecStats.containsKey(name))
+                codecStats.put(name, new long[4]);
+            long[] stats = codecStats.get(name);
+            stats[0]++;
+            stats[1] += value.length;
+            stats[2] += decodedBytes;
+            stats[3] += elapsed;
+        }
+        for (Map.Entry<String, long[]> e : codecStats.entrySet()) {
+            long[] stats = e.getValue();
+            if (stats[2] == 0)
+                System.out.printf("%s: %d entries, %d bytes\n", e.getKey(), stats[0], stats[1]);
+            else
+                System.out.printf("%s: %d entries, %d bytes, compression ratio %.2f, decoding %.1f MB/s\n", e.getKey(),
+                        stats[0], stats[1], (double) stats[2] / stats[1], stats[2] / (stats[3] / 1e9) / 1e6);
+        }
+        if (oldestWrite != Long.MAX_VALUE)
+            System.out.printf("Oldest entry written on %s\n", new Date(oldestWrite));
+        if (untimedEntries > 0)
+            System.out.printf("Entries without write time (never expiring): %d\n", untimedEntries);
         cached.close();
     }
 }
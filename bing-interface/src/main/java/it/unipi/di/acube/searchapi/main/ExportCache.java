@@ -0,0 +1,29 @@
+package it.unipi.di.acube.searchapi.main;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+
+public class ExportCache {
+
+    /**
+     * This java main writes all records of a cache to an archive file, and prints the export throughput.
+     *
+     * @param args
+     *            The command-line arguments in the following order: CACHE_FILE, ARCHIVE_FILE. CACHE_FILE is the name of the
+     *            file where results are stored; ARCHIVE_FILE is the name of the file records are written to.
+     *
+     * @throws Exception
+     *             if something went wrong.
+     */
+    public static void main(String[] args) throws Exception {
+        CachedWebsearchApi cached = CachedWebsearchApi.builder().path(args[0]).create();
+        long start = System.nanoTime();
+        long exported = cached.exportCache(args[1]);
+        printThroughput("Exported", exported, System.nanoTime() - start);
+        cached.close();
+    }
+
+    static void printThroughput(String action, long records, long elapsedNanos) {
+        System.out.printf("%s %d records in %.1f s (%.0f records/s)\n", action, records, elapsedNanos / 1e9,
+                records / Math.max(elapsedNanos / 1e9, 1e-9));
+    }
+}
@@ -1,15 +1,26 @@
 package it.unipi.di.acube.searchapi.main;
 
+import java.io.File;
+
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 
 import it.unipi.di.acube.searchapi.CachedWebsearchApi;
 
+/**
+ * @deprecated caches are recovered automatically when opened. Use {@link VerifyCache} to remove corrupt entries.
+ */
+@Deprecated
 public class FixCache {
 
     public static void main(String[] args) throws Exception {
         DB db = DBMaker.fileDB(args[0]).fileMmapEnable().closeOnJvmShutdownWeakReference().checksumHeaderBypass().make();
         db.close();
+        for (int shard = 0; new File(args[0] + "." + shard).exists(); shard++) {
+            db = DBMaker.fileDB(args[0] + "." + shard).fileMmapEnable().closeOnJvmShutdownWeakReference().checksumHeaderBypass()
+                    .make();
+            db.close();
+        }
 
         CachedWebsearchApi cached = CachedWebsearchApi.builder().path(args[0]).create();
         System.out.printf("Total cached URIs: %d", cached.getCachedRequests());
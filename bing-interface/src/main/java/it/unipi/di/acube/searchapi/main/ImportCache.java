@@ -0,0 +1,28 @@
+package it.unipi.di.acube.searchapi.main;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+
+public class ImportCache {
+
+    /**
+     * This java main adds all records of archive files, written by {@link ExportCache}, to a cache, and prints the import
+     * throughput. In case of conflicting records, the one written last is kept.
+     *
+     * @param args
+     *            The command-line arguments in the following order: CACHE_FILE, ARCHIVE_FILE... CACHE_FILE is the name of
+     *            the file where results are stored; ARCHIVE_FILE are the names of the files records are read from.
+     *
+     * @throws Exception
+     *             if something went wrong.
+     */
+    public static void main(String[] args) throws Exception {
+        CachedWebsearchApi cached = CachedWebsearchApi.builder().path(args[0]).create();
+        for (int i = 1; i < args.length; i++) {
+            long start = System.nanoTime();
+            long imported = cached.importCache(args[i]);
+            ExportCache.printThroughput("Imported " + args[i] + ":", imported, System.nanoTime() - start);
+        }
+        System.out.printf("Total cached URIs: %d\n", cached.getCachedRequests());
+        cached.close();
+    }
+}
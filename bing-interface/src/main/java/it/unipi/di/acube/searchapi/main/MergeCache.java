@@ -0,0 +1,30 @@
+package it.unipi.di.acube.searchapi.main;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+
+public class MergeCache {
+
+    /**
+     * This java main adds all records of other caches to a cache, and prints the merge throughput. In case of conflicting
+     * records, the one written last is kept. Records are streamed, so caches of any size can be merged.
+     *
+     * @param args
+     *            The command-line arguments in the following order: CACHE_FILE, SOURCE_CACHE_FILE... CACHE_FILE is the name
+     *            of the file where results are stored; SOURCE_CACHE_FILE are the names of the caches records are read from.
+     *
+     * @throws Exception
+     *             if something went wrong.
+     */
+    public static void main(String[] args) throws Exception {
+        CachedWebsearchApi cached = CachedWebsearchApi.builder().path(args[0]).create();
+        for (int i = 1; i < args.length; i++) {
+            CachedWebsearchApi source = CachedWebsearchApi.builder().path(args[i]).create();
+            long start = System.nanoTime();
+            long merged = cached.mergeCache(source);
+            ExportCache.printThroughput("Merged " + args[i] + ":", merged, System.nanoTime() - start);
+            source.close();
+        }
+        System.out.printf("Total cached URIs: %d\n", cached.getCachedRequests());
+        cached.close();
+    }
+}
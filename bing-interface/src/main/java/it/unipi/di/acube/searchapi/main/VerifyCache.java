@@ -0,0 +1,28 @@
+package it.unipi.di.acube.searchapi.main;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+
+public class VerifyCache {
+
+    /**
+     * This java main checks that all entries of a cache can be decoded, removes the corrupt ones, and prints how many were
+     * removed. Caches are recovered automatically when opened, so this is only needed to clean up caches that were written
+     * without transactions and not closed cleanly.
+     *
+     * @param args
+     *            The command-line arguments: CACHE_FILE, the name of the file where results are stored.
+     *
+     * @throws Exception
+     *             if something went wrong.
+     */
+    public static void main(String[] args) throws Exception {
+        long start = System.currentTimeMillis();
+        CachedWebsearchApi cached = CachedWebsearchApi.builder().path(args[0]).create();
+        System.out.printf("Opened in %d ms\n", System.currentTimeMillis() - start);
+        start = System.currentTimeMillis();
+        long removed = cached.verifyCache();
+        System.out.printf("Verified %d cached URIs in %d ms, removed %d corrupt entries\n", cached.getCachedRequests() + removed,
+                System.currentTimeMillis() - start, removed);
+        cached.close();
+    }
+}
@@ -0,0 +1,278 @@
+package it.unipi.di.acube.searchapi.metrics;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics;
+
+/**
+ * Metrics kept in memory as counters, that can be read at any time. The latencies of the calls to each API are also kept in
+ * a histogram with power-of-two buckets, from which percentiles are estimated. Counters are striped, so that threads
+ * reporting events do not contend on them.
+ */
+public class CountingSearchMetrics implements SearchMetrics {
+    private static final int LATENCY_BUCKETS = 32;
+    private final LongAdder[] cacheHits = newCounters(CacheTier.values().length);
+    private final LongAdder[] cacheMisses = newCounters(CacheTier.values().length);
+    private final LongAdder decodedPages = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder committedEntries = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final ConcurrentMap<String, ApiStats> apis = new ConcurrentHashMap<>();
+
+    /**
+     * Counters of the calls to an API.
+     */
+    public static class ApiStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder callNanos = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder[] latencies = newCounters(LATENCY_BUCKETS);
+
+        /**
+         * @return the number of calls returned or failed.
+         */
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        /**
+         * @return the number of calls failed.
+         */
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        /**
+         * @return the total latency of the calls, in nanoseconds.
+         */
+        public long getCallNanos() {
+            return callNanos.sum();
+        }
+
+        /**
+         * @return the total size of the bodies of the responses received, in bytes.
+         */
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        /**
+         * @return the number of calls issued again.
+         */
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        /**
+         * @return the number of calls in flight.
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return the histogram of the latencies of the calls: element i is the number of calls that took less than 2^i
+         *         microseconds, and at least 2^(i-1) microseconds. The last element also counts all longer calls.
+         */
+        public long[] getLatencyHistogram() {
+            long[] histogram = new long[LATENCY_BUCKETS];
+            for (int i = 0; i < LATENCY_BUCKETS; i++)
+                histogram[i] = latencies[i].sum();
+            return histogram;
+        }
+
+        /**
+         * @param quantile
+         *            a quantile, between 0 and 1.
+         * @return an upper bound of the given quantile of the latencies of the calls, in microseconds, accurate within a
+         *         factor of two. Zero if no call was issued.
+         */
+        public long getLatencyQuantileMicros(double quantile) {
+            if (quantile < 0 || quantile > 1)
+                throw new IllegalArgumentException("Quantile must be between 0 and 1.");
+            long[] histogram = getLatencyHistogram();
+            long total = 0;
+            for (long count : histogram)
+                total += count;
+            long rank = (long) Math.ceil(quantile * total);
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                rank -= histogram[i];
+                if (rank <= 0 && total > 0)
+                    return 1L << i;
+            }
+            return 0;
+        }
+
+        private void called(long nanos, boolean succeeded) {
+            inFlight.decrementAndGet();
+            calls.increment();
+            if (!succeeded)
+                failures.increment();
+            callNanos.add(nanos);
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            latencies[Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+        }
+
+        @Override
+        public String toString() {
+            long calls = getCalls();
+            return String.format("%d calls (%d failed, %d retried, %d in flight), %d bytes received, mean latency %d ms, "
+                    + "p50 < %d ms, p99 < %d ms", calls, getFailures(), getRetries(), getInFlight(), getBytesReceived(),
+                    calls == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(getCallNanos() / calls),
+                    getLatencyQuantileMicros(0.5) / 1000, getLatencyQuantileMicros(0.99) / 1000);
+        }
+    }
+
+    private static LongAdder[] newCounters(int size) {
+        LongAdder[] counters = new LongAdder[size];
+        for (int i = 0; i < size; i++)
+            counters[i] = new LongAdder();
+        return counters;
+    }
+
+    private ApiStats apiStats(String api) {
+        ApiStats stats = apis.get(api);
+        if (stats == null)
+            stats = apis.computeIfAbsent(api, a -> new ApiStats());
+        return stats;
+    }
+
+    @Override
+    public void cacheHit(CacheTier tier) {
+        cacheHits[tier.ordinal()].increment();
+    }
+
+    @Override
+    public void cacheMiss(CacheTier tier) {
+        cacheMisses[tier.ordinal()].increment();
+    }
+
+    @Override
+    public void pageDecoded(long nanos) {
+        decodedPages.increment();
+        decodeNanos.add(nanos);
+    }
+
+    @Override
+    public void apiCallStarted(String api) {
+        apiStats(api).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void apiCallFinished(String api, long nanos, boolean succeeded) {
+        apiStats(api).called(nanos, succeeded);
+    }
+
+    @Override
+    public void bytesReceived(String api, long bytes) {
+        apiStats(api).bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void retry(String api) {
+        apiStats(api).retries.increment();
+    }
+
+    @Override
+    public void committed(int entries, long nanos) {
+        commits.increment();
+        committedEntries.add(entries);
+        commitNanos.add(nanos);
+    }
+
+    /**
+     * @param tier
+     *            a tier of the cache.
+     * @return the number of responses found in the tier.
+     */
+    public long getCacheHits(CacheTier tier) {
+        return cacheHits[tier.ordinal()].sum();
+    }
+
+    /**
+     * @param tier
+     *            a tier of the cache.
+     * @return the number of responses not found in the tier.
+     */
+    public long getCacheMisses(CacheTier tier) {
+        return cacheMisses[tier.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of pages read from the cache store and decoded.
+     */
+    public long getDecodedPages() {
+        return decodedPages.sum();
+    }
+
+    /**
+     * @return the total time spent decompressing and parsing pages read from the cache store, in nanoseconds.
+     */
+    public long getDecodeNanos() {
+        return decodeNanos.sum();
+    }
+
+    /**
+     * @return the number of commits to the cache store.
+     */
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    /**
+     * @return the number of entries committed to the cache store.
+     */
+    public long getCommittedEntries() {
+        return committedEntries.sum();
+    }
+
+    /**
+     * @return the total time spent committing to the cache store, in nanoseconds.
+     */
+    public long getCommitNanos() {
+        return commitNanos.sum();
+    }
+
+    /**
+     * @return the names of the APIs called so far.
+     */
+    public Set<String> getApis() {
+        return Collections.unmodifiableSet(apis.keySet());
+    }
+
+    /**
+     * @param api
+     *            the name of an API.
+     * @return the counters of the calls to the API, or null if it was never called.
+     */
+    public ApiStats getApiStats(String api) {
+        return apis.get(api);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (CacheTier tier : CacheTier.values())
+            sb.append(String.format("Cache %s: %d hits, %d misses\n", tier.name().toLowerCase(), getCacheHits(tier),
+                    getCacheMisses(tier)));
+        long pages = getDecodedPages();
+        sb.append(String.format("Decoded %d pages, mean %d us\n", pages,
+                pages == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(getDecodeNanos() / pages)));
+        long commits = getCommits();
+        sb.append(String.format("Committed %d entries in %d commits, mean %d ms\n", getCommittedEntries(), commits,
+                commits == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(getCommitNanos() / commits)));
+        for (String api : apis.keySet())
+            sb.append(String.format("%s: %s\n", api, apis.get(api)));
+        return sb.toString();
+    }
+}
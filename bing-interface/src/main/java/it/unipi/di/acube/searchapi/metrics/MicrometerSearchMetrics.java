@@ -0,0 +1,136 @@
+package it.unipi.di.acube.searchapi.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics;
+
+/**
+ * Metrics reported to a Micrometer registry, and from there to any monitoring system it supports. Meters are registered
+ * once, when first needed, so that reporting an event does not look them up. The following meters are registered:
+ * <ul>
+ * <li>websearch.cache.requests (counter, tags tier and result): responses found or not found in each tier of the
+ * cache;</li>
+ * <li>websearch.cache.decode (timer): time spent decompressing and parsing the pages read from the cache store;</li>
+ * <li>websearch.cache.commits (timer) and websearch.cache.committed (counter): commits to the cache store, and entries
+ * committed;</li>
+ * <li>websearch.api.calls (timer with histogram, tags api and outcome): latency of the calls to each API;</li>
+ * <li>websearch.api.received (distribution summary, tag api): size of the bodies of the responses;</li>
+ * <li>websearch.api.retries (counter, tag api): calls issued again;</li>
+ * <li>websearch.api.in.flight (gauge, tag api): calls in flight.</li>
+ * </ul>
+ * This class requires micrometer-core, that is an optional dependency of this library.
+ */
+public class MicrometerSearchMetrics implements SearchMetrics {
+    private final MeterRegistry registry;
+    private final Counter[] cacheHits = new Counter[CacheTier.values().length];
+    private final Counter[] cacheMisses = new Counter[CacheTier.values().length];
+    private final Timer decodeTimer;
+    private final Timer commitTimer;
+    private final Counter committedEntries;
+    private final ConcurrentMap<String, ApiMeters> apis = new ConcurrentHashMap<>();
+
+    private class ApiMeters {
+        private final Timer succeeded;
+        private final Timer failed;
+        private final DistributionSummary received;
+        private final Counter retries;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private ApiMeters(String api) {
+            succeeded = callTimer(api, "success");
+            failed = callTimer(api, "failure");
+            received = DistributionSummary.builder("websearch.api.received").description("Size of the responses of the API")
+                    .baseUnit("bytes").tag("api", api).register(registry);
+            retries = Counter.builder("websearch.api.retries").description("Calls to the API issued again").tag("api", api)
+                    .register(registry);
+            Gauge.builder("websearch.api.in.flight", inFlight, AtomicInteger::get).description("Calls to the API in flight")
+                    .tag("api", api).register(registry);
+        }
+
+        private Timer callTimer(String api, String outcome) {
+            return Timer.builder("websearch.api.calls").description("Latency of the calls to the API").tag("api", api)
+                    .tag("outcome", outcome).publishPercentileHistogram().register(registry);
+        }
+    }
+
+    /**
+     * @param registry
+     *            the registry the meters are registered to.
+     */
+    public MicrometerSearchMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (CacheTier tier : CacheTier.values()) {
+            cacheHits[tier.ordinal()] = cacheCounter(tier, "hit");
+            cacheMisses[tier.ordinal()] = cacheCounter(tier, "miss");
+        }
+        decodeTimer = Timer.builder("websearch.cache.decode").description("Time spent decoding pages read from the cache")
+                .register(registry);
+        commitTimer = Timer.builder("websearch.cache.commits").description("Commits to the cache store").register(registry);
+        committedEntries = Counter.builder("websearch.cache.committed").description("Entries committed to the cache store")
+                .register(registry);
+    }
+
+    private Counter cacheCounter(CacheTier tier, String result) {
+        return Counter.builder("websearch.cache.requests").description("Responses looked up in the cache")
+                .tag("tier", tier.name().toLowerCase()).tag("result", result).register(registry);
+    }
+
+    private ApiMeters apiMeters(String api) {
+        ApiMeters meters = apis.get(api);
+        if (meters == null)
+            meters = apis.computeIfAbsent(api, ApiMeters::new);
+        return meters;
+    }
+
+    @Override
+    public void cacheHit(CacheTier tier) {
+        cacheHits[tier.ordinal()].increment();
+    }
+
+    @Override
+    public void cacheMiss(CacheTier tier) {
+        cacheMisses[tier.ordinal()].increment();
+    }
+
+    @Override
+    public void pageDecoded(long nanos) {
+        decodeTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void apiCallStarted(String api) {
+        apiMeters(api).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void apiCallFinished(String api, long nanos, boolean succeeded) {
+        ApiMeters meters = apiMeters(api);
+        meters.inFlight.decrementAndGet();
+        (succeeded ? meters.succeeded : meters.failed).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void bytesReceived(String api, long bytes) {
+        apiMeters(api).received.record(bytes);
+    }
+
+    @Override
+    public void retry(String api) {
+        apiMeters(api).retries.increment();
+    }
+
+    @Override
+    public void committed(int entries, long nanos) {
+        commitTimer.record(nanos, TimeUnit.NANOSECONDS);
+        committedEntries.increment(entries);
+    }
+}
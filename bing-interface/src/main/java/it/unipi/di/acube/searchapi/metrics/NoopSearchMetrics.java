@@ -0,0 +1,45 @@
+package it.unipi.di.acube.searchapi.metrics;
+
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics;
+
+/**
+ * Metrics that ignore all events. This is the default, and costs next to nothing.
+ */
+public final class NoopSearchMetrics implements SearchMetrics {
+    public static final NoopSearchMetrics INSTANCE = new NoopSearchMetrics();
+
+    private NoopSearchMetrics() {
+    }
+
+    @Override
+    public void cacheHit(CacheTier tier) {
+    }
+
+    @Override
+    public void cacheMiss(CacheTier tier) {
+    }
+
+    @Override
+    public void pageDecoded(long nanos) {
+    }
+
+    @Override
+    public void apiCallStarted(String api) {
+    }
+
+    @Override
+    public void apiCallFinished(String api, long nanos, boolean succeeded) {
+    }
+
+    @Override
+    public void bytesReceived(String api, long bytes) {
+    }
+
+    @Override
+    public void retry(String api) {
+    }
+
+    @Override
+    public void committed(int entries, long nanos) {
+    }
+}
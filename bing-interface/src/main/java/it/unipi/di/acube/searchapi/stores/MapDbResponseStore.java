@@ -0,0 +1,352 @@
+package it.unipi.di.acube.searchapi.stores;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.mapdb.DB;
+import org.mapdb.DBException;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+
+/**
+ * Stores responses in a MapDB hash map, either in a memory-mapped file or in direct memory, off the Java heap. Stores kept in
+ * a file can be rebuilt with {@link #rebuild()} to reclaim the space left by overwritten entries: meanwhile, calls to the
+ * store block.
+ *
+ * By default, stores kept in a file write a write-ahead log, so that after a crash the store is recovered to its last commit
+ * when opened again. Recovery only replays the log, so its time is bounded by the amount of uncommitted data rather than the
+ * size of the store. Files written without a write-ahead log and not closed cleanly are opened bypassing the header
+ * checksum: some of their entries may be corrupt.
+ */
+public class MapDbResponseStore implements ResponseStore {
+    private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int DEFAULT_CONCURRENCY = 32;
+    private final String path;
+    private final int concurrency;
+    private final boolean transactions;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private FileLock fileLock;
+    private DB db;
+    private HTreeMap<String, byte[]> responses;
+    private HTreeMap<String, byte[]> metadata;
+
+    /**
+     * Builder for MapDbResponseStore.
+     *
+     */
+    public static class MapDbResponseStoreBuilder {
+        private String path;
+        private boolean memory = false;
+        private int concurrency = DEFAULT_CONCURRENCY;
+        private boolean transactions = true;
+
+        /**
+         * @param path
+         *            the path of the database file.
+         * @return this builder.
+         */
+        public MapDbResponseStoreBuilder path(String path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * Keep the store in direct memory, off the Java heap, instead of a file. Entries are lost when the store is closed.
+         *
+         * @return this builder.
+         */
+        public MapDbResponseStoreBuilder memory() {
+            this.memory = true;
+            return this;
+        }
+
+        /**
+         * @param concurrency
+         *            the number of lock segments the map is striped into. Writes to keys falling in different segments do
+         *            not block each other. Rounded up to a power of two.
+         * @return this builder.
+         */
+        public MapDbResponseStoreBuilder concurrency(int concurrency) {
+            if (concurrency < 1)
+                throw new IllegalArgumentException("Concurrency must be positive.");
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param transactions
+         *            whether to write a write-ahead log, so that the store survives crashes. Disabling it makes writes faster,
+         *            but a store that is not closed cleanly may be corrupted. Ignored for memory stores. Default is true.
+         * @return this builder.
+         */
+        public MapDbResponseStoreBuilder transactions(boolean transactions) {
+            this.transactions = transactions;
+            return this;
+        }
+
+        public MapDbResponseStore create() throws IOException {
+            if (memory == (path != null))
+                throw new IllegalArgumentException("You need to specify either a storage path or a memory store.");
+            return new MapDbResponseStore(path, concurrency, transactions);
+        }
+    }
+
+    private MapDbResponseStore(String path, int concurrency, boolean transactions) throws IOException {
+        this.path = path;
+        this.concurrency = concurrency;
+        this.transactions = transactions;
+        open();
+    }
+
+    private void open() throws IOException {
+        long start = System.currentTimeMillis();
+        if (path != null && new File(path).exists())
+            fileLock = lockFile(path);
+        try {
+            db = openDb(path, concurrency, transactions, fileLock != null);
+        } catch (RuntimeException e) {
+            unlockFile();
+            throw e;
+        }
+        responses = db.hashMap("queries", Serializer.STRING, Serializer.BYTE_ARRAY).createOrOpen();
+        metadata = db.hashMap("metadata", Serializer.STRING, Serializer.BYTE_ARRAY).createOrOpen();
+        if (path != null)
+            LOG.info("Opened cache store {} in {} ms.", path, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Open a database.
+     *
+     * @param locked
+     *            whether the file is locked by the caller. Existing files should be, since a failed attempt to open a database
+     *            leaves the MapDB lock held until the JVM exits.
+     */
+    private static DB openDb(String path, int concurrency, boolean transactions, boolean locked) {
+        if (path == null)
+            return DBMaker.memoryDirectDB().concurrencyScale(concurrency).make();
+        DBMaker.Maker maker = DBMaker.fileDB(path).fileMmapEnable().concurrencyScale(concurrency)
+                .closeOnJvmShutdownWeakReference();
+        if (transactions)
+            maker.transactionEnable();
+        if (locked)
+            maker.fileLockDisable();
+        try {
+            return maker.make();
+        } catch (DBException.DataCorruption e) {
+            LOG.warn("Cache store {} was not closed cleanly, recovering it: some entries may be corrupt.", path);
+            return maker.checksumHeaderBypass().make();
+        }
+    }
+
+    /**
+     * Lock an existing database file, so that other processes can not open it at the same time.
+     */
+    private static FileLock lockFile(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock fileLock = channel.tryLock();
+            if (fileLock == null)
+                throw new IOException(path + " is open in another process.");
+            return fileLock;
+        } catch (OverlappingFileLockException e) {
+            channel.close();
+            throw new IOException(path + " is already open.");
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void unlockFile() throws IOException {
+        if (fileLock == null)
+            return;
+        fileLock.channel().close();
+        fileLock = null;
+    }
+
+    public static MapDbResponseStoreBuilder builder() {
+        return new MapDbResponseStoreBuilder();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        lock.readLock().lock();
+        try {
+            return responses.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        lock.readLock().lock();
+        try {
+            responses.put(key, value);
+            dirty.set(true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, byte[]> entries) {
+        lock.readLock().lock();
+        try {
+            responses.putAll(entries);
+            dirty.set(true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        lock.readLock().lock();
+        try {
+            responses.remove(key);
+            dirty.set(true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the keys of all entries. Iterating over them while the store is rebuilt throws an exception.
+     */
+    @Override
+    public Iterable<String> keys() {
+        return responses.getKeys();
+    }
+
+    /**
+     * @return all entries. Iterating over them while the store is rebuilt throws an exception.
+     */
+    @Override
+    public Iterable<Map.Entry<String, byte[]>> entries() {
+        Map<String, byte[]> entries = responses;
+        return entries.entrySet();
+    }
+
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return responses.sizeLong();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] getMetadata(String name) {
+        lock.readLock().lock();
+        try {
+            return metadata.get(name);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void putMetadata(String name, byte[] value) {
+        lock.readLock().lock();
+        try {
+            metadata.put(name, value);
+            dirty.set(true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Commit the database, unless nothing was written since the last commit.
+     */
+    @Override
+    public void commit() {
+        lock.readLock().lock();
+        try {
+            if (dirty.getAndSet(false))
+                try {
+                    db.commit();
+                } catch (RuntimeException e) {
+                    dirty.set(true);
+                    throw e;
+                }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copy all entries to a new database file, and replace the old file with it. This reclaims the space left by overwritten
+     * entries. If the copy fails, the old file is kept.
+     *
+     * @throws IOException
+     *             if the new file could not be written or moved.
+     */
+    public void rebuild() throws IOException {
+        if (path == null)
+            throw new UnsupportedOperationException("Only stores kept in a file can be rebuilt.");
+        lock.writeLock().lock();
+        try {
+            long start = System.currentTimeMillis();
+            db.commit();
+            dirty.set(false);
+            File rebuilt = new File(path + ".rebuild");
+            Files.deleteIfExists(rebuilt.toPath());
+            DB rebuiltDb = openDb(rebuilt.getPath(), concurrency, false, false);
+            try {
+                rebuiltDb.hashMap("queries", Serializer.STRING, Serializer.BYTE_ARRAY).create().putAll(responses);
+                rebuiltDb.hashMap("metadata", Serializer.STRING, Serializer.BYTE_ARRAY).create().putAll(metadata);
+                rebuiltDb.commit();
+            } finally {
+                rebuiltDb.close();
+            }
+            db.close();
+            unlockFile();
+            try {
+                Files.move(rebuilt.toPath(), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                open();
+            }
+            LOG.info("Rebuilt cache store {} ({} entries) in {} ms.", path, responses.sizeLong(),
+                    System.currentTimeMillis() - start);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (db.isClosed())
+                return;
+            db.commit();
+            db.close();
+            unlockFile();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package it.unipi.di.acube.searchapi.stores;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import com.google.common.collect.Iterables;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+
+/**
+ * A read-optimized store, keeping entries in an append-only log file that is memory-mapped for reading, with an index of
+ * the entries on the Java heap. Reading an entry takes a hash lookup and a copy from the mapped file, without locking.
+ * Entries written since the file was last mapped are read from the file instead, and the file is mapped again once they
+ * add up to 64 MB, so that a log growing under heavy writes is not mapped again at each read.
+ * Writes are appended to the file, and are made durable by {@link #commit()}. Overwritten and removed entries are not
+ * reclaimed: this store suits caches that are mostly read, e.g. filled once with {@link #putAll(Map)} and queried afterwards.
+ *
+ * The file starts with a magic number and a version (4 bytes each), followed by records laid out as: type (1 byte), key
+ * length, value length, CRC32 of key and value (4 bytes each), key (UTF-8), value. Records never span two segments of 1 GB,
+ * so that each segment can be mapped on its own: a single padding byte marks the end of a segment that can not hold the next
+ * record. When the file is opened, it is scanned to build the index. A record left incomplete by a crash at the end of the
+ * file is discarded. Corrupt records elsewhere are skipped, along with the rest of their segment if their lengths can not be
+ * read.
+ */
+public class MmapResponseStore implements ResponseStore {
+    private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int MAGIC = 0x57534c47;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 13;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long REMAP_SIZE = 64L << 20;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final byte PADDING = 0, RESPONSE = 1, METADATA = 2, REMOVAL = 3;
+
+    private final String path;
+    private final FileChannel channel;
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+    private final Map<String, Long> metadataIndex = new ConcurrentHashMap<>();
+    private final Object mapLock = new Object();
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    /**
+     * End of the data written to the file. Readers only look at records before this offset.
+     */
+    private volatile long writtenEnd;
+    /**
+     * Offset of the next record, past the records still in the write buffer.
+     */
+    private long end;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private final List<PendingRecord> pending = new ArrayList<>();
+    private final CRC32 writeCrc = new CRC32();
+    private volatile boolean dirty = false;
+
+    private static class PendingRecord {
+        private final byte type;
+        private final String key;
+        private final long offset;
+
+        private PendingRecord(byte type, String key, long offset) {
+            this.type = type;
+            this.key = key;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Open a store, creating its file if it does not exist.
+     *
+     * @param path
+     *            the path of the log file.
+     * @throws IOException
+     *             if the file could not be opened, or is not a log file.
+     */
+    public MmapResponseStore(String path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long start = System.currentTimeMillis();
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                writeFully(header, 0);
+                channel.force(true);
+                end = writtenEnd = FILE_HEADER_LENGTH;
+            } else {
+                end = scan(channel.size());
+                writtenEnd = channel.size();
+            }
+            LOG.info("Opened {} ({} entries) in {} ms.", path, index.size(), System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read all records, filling the indexes, skip corrupt ones, and truncate the file after the last complete one.
+     *
+     * @return the end of the last complete record.
+     */
+    private long scan(long size) throws IOException {
+        writtenEnd = size;
+        if (size < FILE_HEADER_LENGTH)
+            throw new IOException(path + " is not a response log.");
+        mapAll();
+        ByteBuffer header = region(0, FILE_HEADER_LENGTH);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION)
+            throw new IOException(path + " is not a response log, or has an unknown version.");
+
+        long position = FILE_HEADER_LENGTH;
+        CRC32 crc = new CRC32();
+        while (position < size) {
+            long segmentEnd = segmentEnd(position);
+            long available = Math.min(size, segmentEnd) - position;
+            ByteBuffer record = region(position, (int) Math.min(available, RECORD_HEADER_LENGTH));
+            byte type = record.get();
+            if (type == PADDING) {
+                position = segmentEnd;
+                continue;
+            }
+            int keyLength = -1, valueLength = -1, checksum = 0;
+            if (available >= RECORD_HEADER_LENGTH) {
+                keyLength = record.getInt();
+                valueLength = record.getInt();
+                checksum = record.getInt();
+            }
+            long length = (long) RECORD_HEADER_LENGTH + keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || length > segmentEnd - position) {
+                if (segmentEnd >= size)
+                    break;
+                LOG.warn("Skipping {} bytes after a corrupt record header at offset {} of {}.", segmentEnd - position,
+                        position, path);
+                position = segmentEnd;
+                continue;
+            }
+            if (length > available)
+                break;
+            record = region(position + RECORD_HEADER_LENGTH, keyLength + valueLength);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum || type < RESPONSE || type > REMOVAL) {
+                LOG.warn("Skipping corrupt record of {} bytes at offset {} of {}.", length, position, path);
+                position += length;
+                continue;
+            }
+            byte[] key = new byte[keyLength];
+            record.get(key);
+            index(type, new String(key, StandardCharsets.UTF_8), position);
+            position += length;
+        }
+        if (position < size) {
+            LOG.warn("Discarding {} bytes of incomplete records at the end of {}.", size - position, path);
+            channel.truncate(position);
+            channel.force(true);
+            writtenEnd = position;
+            mapAll();
+        }
+        return position;
+    }
+
+    private void index(byte type, String key, long offset) {
+        if (type == RESPONSE)
+            index.put(key, offset);
+        else if (type == METADATA)
+            metadataIndex.put(key, offset);
+        else if (type == REMOVAL)
+            index.remove(key);
+    }
+
+    private static long segmentEnd(long offset) {
+        return ((offset >>> SEGMENT_BITS) + 1) << SEGMENT_BITS;
+    }
+
+    /**
+     * Map all segments of the file, up to the end of the written data.
+     */
+    private void mapAll() throws IOException {
+        synchronized (mapLock) {
+            MappedByteBuffer[] current = new MappedByteBuffer[(int) ((writtenEnd + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int segment = 0; segment < current.length; segment++)
+                current[segment] = map(segment);
+            segments = current;
+        }
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        long segmentStart = (long) segment << SEGMENT_BITS;
+        return channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(SEGMENT_SIZE, writtenEnd - segmentStart));
+    }
+
+    /**
+     * @return whether a segment should be mapped again, because the data written to it since it was mapped reached
+     *         REMAP_SIZE, or the segment is full.
+     */
+    private boolean stale(int segment, MappedByteBuffer mapping) {
+        long written = Math.min(SEGMENT_SIZE, writtenEnd - ((long) segment << SEGMENT_BITS));
+        long mapped = mapping == null ? 0 : mapping.capacity();
+        return written - mapped >= REMAP_SIZE || written == SEGMENT_SIZE && mapped < written;
+    }
+
+    private MappedByteBuffer mapping(int segment) throws IOException {
+        MappedByteBuffer[] current = segments;
+        MappedByteBuffer mapping = segment < current.length ? current[segment] : null;
+        if (!stale(segment, mapping))
+            return mapping;
+        synchronized (mapLock) {
+            current = segments;
+            mapping = segment < current.length ? current[segment] : null;
+            if (stale(segment, mapping)) {
+                current = Arrays.copyOf(current, Math.max(current.length, segment + 1));
+                mapping = current[segment] = map(segment);
+                segments = current;
+            }
+            return mapping;
+        }
+    }
+
+    /**
+     * @return a buffer positioned at the given offset of the file, with length bytes remaining. The bytes are read from the
+     *         mapped file, or from the channel if they were written after the file was last mapped.
+     */
+    private ByteBuffer region(long offset, int length) throws IOException {
+        int position = (int) (offset & (SEGMENT_SIZE - 1));
+        MappedByteBuffer mapping = mapping((int) (offset >>> SEGMENT_BITS));
+        if (mapping == null || mapping.capacity() < position + length) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining())
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                    throw new EOFException("Unexpected end of " + path);
+            buffer.flip();
+            return buffer;
+        }
+        ByteBuffer buffer = mapping.duplicate();
+        buffer.position(position);
+        buffer.limit(position + length);
+        return buffer;
+    }
+
+    private byte[] read(long offset) throws IOException {
+        ByteBuffer header = region(offset + 1, RECORD_HEADER_LENGTH - 1);
+        int keyLength = header.getInt();
+        int valueLength = header.getInt();
+        byte[] value = new byte[valueLength];
+        region(offset + RECORD_HEADER_LENGTH + keyLength, valueLength).get(value);
+        return value;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        Long offset = index.get(key);
+        return offset == null ? null : read(offset);
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] value) throws IOException {
+        append(RESPONSE, key, value);
+        flush();
+    }
+
+    @Override
+    public synchronized void putAll(Map<String, byte[]> entries) throws IOException {
+        for (Map.Entry<String, byte[]> entry : entries.entrySet())
+            append(RESPONSE, entry.getKey(), entry.getValue());
+        flush();
+    }
+
+    @Override
+    public synchronized void remove(String key) throws IOException {
+        if (!index.containsKey(key))
+            return;
+        append(REMOVAL, key, new byte[0]);
+        flush();
+    }
+
+    @Override
+    public byte[] getMetadata(String name) throws IOException {
+        Long offset = metadataIndex.get(name);
+        return offset == null ? null : read(offset);
+    }
+
+    @Override
+    public synchronized void putMetadata(String name, byte[] value) throws IOException {
+        append(METADATA, name, value);
+        flush();
+    }
+
+    /**
+     * Append a record to the write buffer. The record is indexed when the buffer is flushed.
+     */
+    private void append(byte type, String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long length = (long) RECORD_HEADER_LENGTH + keyBytes.length + value.length;
+        if (length > SEGMENT_SIZE - FILE_HEADER_LENGTH)
+            throw new IOException("Entry too large: " + key);
+        if (end + length > segmentEnd(end)) {
+            flush();
+            ByteBuffer padding = ByteBuffer.allocate(1).put(PADDING);
+            padding.flip();
+            writeFully(padding, end);
+            writtenEnd = end + 1;
+            end = segmentEnd(end);
+        }
+        if (writeBuffer.remaining() < length)
+            flush();
+        ByteBuffer record = length <= writeBuffer.capacity() ? writeBuffer : ByteBuffer.allocate((int) length);
+        writeCrc.reset();
+        writeCrc.update(keyBytes);
+        writeCrc.update(value);
+        record.put(type).putInt(keyBytes.length).putInt(value.length).putInt((int) writeCrc.getValue()).put(keyBytes)
+                .put(value);
+        pending.add(new PendingRecord(type, key, end));
+        end += length;
+        if (record != writeBuffer) {
+            record.flip();
+            writeFully(record, end - length);
+            publish();
+        }
+    }
+
+    /**
+     * Write the buffered records to the file, and make them visible to readers.
+     */
+    private void flush() throws IOException {
+        if (writeBuffer.position() > 0) {
+            long bufferStart = end - writeBuffer.position();
+            writeBuffer.flip();
+            writeFully(writeBuffer, bufferStart);
+            writeBuffer.clear();
+        }
+        publish();
+    }
+
+    /**
+     * Make the pending records, already written to the file, visible to readers.
+     */
+    private void publish() {
+        if (pending.isEmpty())
+            return;
+        writtenEnd = end;
+        for (PendingRecord record : pending)
+            index(record.type, record.key, record.offset);
+        pending.clear();
+        dirty = true;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    @Override
+    public Iterable<String> keys() {
+        return index.keySet();
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, byte[]>> entries() {
+        return Iterables.transform(index.entrySet(), entry -> {
+            try {
+                return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), read(entry.getValue()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public long size() {
+        return index.size();
+    }
+
+    /**
+     * Force all written records to disk, unless nothing was written since the last commit.
+     */
+    @Override
+    public void commit() throws IOException {
+        if (!dirty)
+            return;
+        dirty = false;
+        try {
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            dirty = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+        commit();
+        channel.close();
+        segments = new MappedByteBuffer[0];
+    }
+}
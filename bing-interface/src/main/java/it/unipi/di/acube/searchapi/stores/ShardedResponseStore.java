@@ -0,0 +1,225 @@
+package it.unipi.di.acube.searchapi.stores;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+
+/**
+ * Partitions entries across a number of stores (shards), by hash of their key. Each shard is committed on its own, so that
+ * writes to different shards do not contend, and shards can be kept in different files or disks: {@link #commit()} only
+ * commits the shards written since their last commit, and {@link #commit(Collection)} only the shards holding some given
+ * keys. Metadata values, including the number of shards, are kept in a separate store.
+ */
+public class ShardedResponseStore implements ResponseStore {
+    private final static Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final static HashFunction SHARD_HASH = Hashing.murmur3_32();
+    /**
+     * Name of the metadata value holding the number of shards.
+     */
+    public static final String SHARDS_METADATA = "shards";
+    private final ResponseStore metadata;
+    private final List<ResponseStore> shards;
+    /**
+     * Whether each shard was written since its last commit. It is set after each write, so that a commit clearing it never
+     * misses a write.
+     */
+    private final AtomicBoolean[] dirty;
+    private final AtomicBoolean metadataDirty = new AtomicBoolean();
+
+    /**
+     * @param metadata
+     *            the store keeping metadata values. If it contains entries (e.g. because it was used as an unsharded cache),
+     *            they are moved to the shards.
+     * @param shards
+     *            the shards. Entries are assigned to shards based on their number, so shards must always be given in the
+     *            same order.
+     * @throws IOException
+     *             if the shards could not be initialized.
+     * @throws IllegalArgumentException
+     *             if the store was created with a different number of shards.
+     */
+    public ShardedResponseStore(ResponseStore metadata, List<? extends ResponseStore> shards) throws IOException {
+        this.metadata = metadata;
+        this.shards = new ArrayList<>(shards);
+        this.dirty = new AtomicBoolean[shards.size()];
+        for (int i = 0; i < dirty.length; i++)
+            dirty[i] = new AtomicBoolean();
+        int storedShards = storedShards(metadata);
+        if (storedShards > 0 && storedShards != shards.size())
+            throw new IllegalArgumentException(
+                    String.format("Store has %d shards, %d given.", storedShards, shards.size()));
+        if (storedShards == 0) {
+            if (metadata.size() > 0) {
+                LOG.info("Moving {} entries to {} shards.", metadata.size(), shards.size());
+                List<String> moved = new ArrayList<>();
+                for (Map.Entry<String, byte[]> entry : metadata.entries()) {
+                    shard(entry.getKey()).put(entry.getKey(), entry.getValue());
+                    moved.add(entry.getKey());
+                }
+                for (ResponseStore shard : shards)
+                    shard.commit();
+                for (String key : moved)
+                    metadata.remove(key);
+            }
+            metadata.putMetadata(SHARDS_METADATA, ByteBuffer.allocate(4).putInt(shards.size()).array());
+            metadata.commit();
+        }
+    }
+
+    /**
+     * @param metadata
+     *            the store keeping metadata values of a sharded store.
+     * @return the number of shards recorded in the store, or 0 if the store was never used as the metadata store of a
+     *         sharded store.
+     * @throws IOException
+     *             if the metadata could not be read.
+     */
+    public static int storedShards(ResponseStore metadata) throws IOException {
+        byte[] shards = metadata.getMetadata(SHARDS_METADATA);
+        return shards == null ? 0 : ByteBuffer.wrap(shards).getInt();
+    }
+
+    /**
+     * @return the shards.
+     */
+    public List<ResponseStore> getShards() {
+        return shards;
+    }
+
+    private int shardIndex(String key) {
+        return Math.floorMod(SHARD_HASH.hashString(key, StandardCharsets.UTF_8).asInt(), shards.size());
+    }
+
+    private ResponseStore shard(String key) {
+        return shards.get(shardIndex(key));
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        return shard(key).get(key);
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+        int shard = shardIndex(key);
+        shards.get(shard).put(key, value);
+        dirty[shard].set(true);
+    }
+
+    @Override
+    public void putAll(Map<String, byte[]> entries) throws IOException {
+        Map<Integer, Map<String, byte[]>> byShard = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            int shard = shardIndex(entry.getKey());
+            if (!byShard.containsKey(shard))
+                byShard.put(shard, new HashMap<>());
+            byShard.get(shard).put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Integer, Map<String, byte[]>> shardEntries : byShard.entrySet()) {
+            shards.get(shardEntries.getKey()).putAll(shardEntries.getValue());
+            dirty[shardEntries.getKey()].set(true);
+        }
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        int shard = shardIndex(key);
+        shards.get(shard).remove(key);
+        dirty[shard].set(true);
+    }
+
+    @Override
+    public Iterable<String> keys() {
+        return Iterables.concat(Iterables.transform(shards, ResponseStore::keys));
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, byte[]>> entries() {
+        return Iterables.concat(Iterables.transform(shards, ResponseStore::entries));
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (ResponseStore shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    @Override
+    public byte[] getMetadata(String name) throws IOException {
+        return metadata.getMetadata(name);
+    }
+
+    @Override
+    public void putMetadata(String name, byte[] value) throws IOException {
+        metadata.putMetadata(name, value);
+        metadataDirty.set(true);
+    }
+
+    /**
+     * Commit the shards written since their last commit, and the metadata store if written.
+     */
+    @Override
+    public void commit() throws IOException {
+        for (int i = 0; i < shards.size(); i++)
+            commitShard(i);
+        if (metadataDirty.getAndSet(false))
+            commit(metadata, metadataDirty);
+    }
+
+    /**
+     * Commit the shards holding the given keys, if they were written since their last commit. Other shards are left as
+     * they are.
+     * 
+     * @param keys
+     *            the keys written.
+     * @throws IOException
+     *             if a shard could not be committed.
+     */
+    public void commit(Collection<String> keys) throws IOException {
+        BitSet written = new BitSet(shards.size());
+        for (String key : keys)
+            written.set(shardIndex(key));
+        for (int i = written.nextSetBit(0); i >= 0; i = written.nextSetBit(i + 1))
+            commitShard(i);
+    }
+
+    private void commitShard(int shard) throws IOException {
+        if (dirty[shard].getAndSet(false))
+            commit(shards.get(shard), dirty[shard]);
+    }
+
+    private static void commit(ResponseStore store, AtomicBoolean dirty) throws IOException {
+        try {
+            store.commit();
+        } catch (IOException | RuntimeException e) {
+            dirty.set(true);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ResponseStore shard : shards)
+            shard.close();
+        metadata.close();
+    }
+}
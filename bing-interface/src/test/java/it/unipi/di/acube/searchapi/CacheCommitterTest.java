@@ -0,0 +1,126 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.stores.CountingResponseStore;
+
+public class CacheCommitterTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * A store whose first commits fail.
+     */
+    private static class FailingStore extends CountingResponseStore {
+        private final AtomicInteger failures;
+
+        private FailingStore(int failures) throws IOException {
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public void commit() throws IOException {
+            if (failures.getAndDecrement() > 0)
+                throw new IOException("commit failed");
+            super.commit();
+        }
+    }
+
+    private static void awaitCommits(CountingResponseStore store, int commits) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (store.getCommits() < commits && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(commits, store.getCommits());
+    }
+
+    @Test
+    public void eachQueryIsCommittedOutsideBatches() throws Exception {
+        CountingResponseStore store = new CountingResponseStore();
+        CacheCommitter committer = new CacheCommitter(store);
+        committer.written(2, false);
+        assertEquals(1, store.getCommits());
+        committer.written(2, true);
+        committer.written(2, true);
+        assertEquals(1, store.getCommits());
+        committer.commit();
+        assertEquals(2, store.getCommits());
+        committer.commit();
+        assertEquals(2, store.getCommits());
+    }
+
+    @Test
+    public void groupIsCommittedAtMaxPendingEntries() throws Exception {
+        CountingResponseStore store = new CountingResponseStore();
+        CacheCommitter committer = new CacheCommitter(store, 3, 1, TimeUnit.HOURS);
+        try {
+            committer.written(1, false);
+            committer.written(1, false);
+            assertEquals(0, store.getCommits());
+            committer.written(1, false);
+            assertEquals(1, store.getCommits());
+            committer.written(2, false);
+            assertEquals(1, store.getCommits());
+        } finally {
+            committer.close();
+        }
+    }
+
+    @Test
+    public void groupIsCommittedAfterMaxDelay() throws Exception {
+        CountingResponseStore store = new CountingResponseStore();
+        CacheCommitter committer = new CacheCommitter(store, 100, 50, TimeUnit.MILLISECONDS);
+        try {
+            committer.written(1, false);
+            awaitCommits(store, 1);
+            Thread.sleep(200);
+            assertEquals(1, store.getCommits());
+        } finally {
+            committer.close();
+        }
+    }
+
+    @Test
+    public void closeCommitsPendingEntries() throws Exception {
+        CountingResponseStore store = new CountingResponseStore();
+        CacheCommitter committer = new CacheCommitter(store, 100, 1, TimeUnit.HOURS);
+        committer.written(5, false);
+        assertEquals(0, store.getCommits());
+        committer.close();
+        assertEquals(1, store.getCommits());
+    }
+
+    @Test
+    public void failedCommitKeepsEntriesPending() throws Exception {
+        FailingStore store = new FailingStore(1);
+        CacheCommitter committer = new CacheCommitter(store);
+        committer.written(2, true);
+        try {
+            committer.commit();
+            fail();
+        } catch (UncheckedIOException e) {
+            assertEquals("commit failed", e.getCause().getMessage());
+        }
+        assertEquals(0, store.getCommits());
+        committer.commit();
+        assertEquals(1, store.getCommits());
+    }
+
+    @Test
+    public void failedTimerCommitIsRetried() throws Exception {
+        FailingStore store = new FailingStore(2);
+        CacheCommitter committer = new CacheCommitter(store, 100, 50, TimeUnit.MILLISECONDS);
+        try {
+            committer.written(1, false);
+            awaitCommits(store, 1);
+        } finally {
+            committer.close();
+        }
+    }
+}
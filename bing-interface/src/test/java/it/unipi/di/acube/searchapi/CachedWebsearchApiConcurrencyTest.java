@@ -0,0 +1,185 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.stores.CountingResponseStore;
+
+/**
+ * Throughput of cache hits while cache misses are held in flight by the API, and concurrent misses on the same query.
+ */
+public class CachedWebsearchApiConcurrencyTest {
+    private static final int RESULTS = 10;
+    private static final int CACHED_QUERIES = 200;
+    private static final int MISSES_IN_FLIGHT = 4;
+    private static final long MEASURE_MILLIS = 500;
+    private static final int PAGE_RESULTS = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubApiCaller caller;
+    private CachedWebsearchApi api;
+    private CountDownLatch gate;
+    private ExecutorService missPool;
+    private List<Future<WebsearchResponse>> misses;
+
+    @Before
+    public void setUp() throws Exception {
+        caller = new StubApiCaller(RESULTS);
+        api = CachedWebsearchApi.builder().api(caller).path(new File(folder.getRoot(), "cache").getPath()).create();
+        for (int i = 0; i < CACHED_QUERIES; i++)
+            api.query("cached " + i, RESULTS);
+        assertEquals(CACHED_QUERIES, caller.getCalls());
+    }
+
+    @After
+    public void tearDown() {
+        if (gate != null)
+            gate.countDown();
+        if (missPool != null)
+            missPool.shutdownNow();
+        api.close();
+    }
+
+    /**
+     * Issue queries that are not cached, and wait until all of them are held by the API.
+     */
+    private void holdMisses() throws InterruptedException {
+        gate = new CountDownLatch(1);
+        caller.setGate(gate);
+        missPool = Executors.newFixedThreadPool(MISSES_IN_FLIGHT);
+        misses = new ArrayList<>();
+        for (int i = 0; i < MISSES_IN_FLIGHT; i++) {
+            String query = "missed " + i;
+            misses.add(missPool.submit(() -> api.query(query, RESULTS)));
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (caller.getInFlight() < MISSES_IN_FLIGHT && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(MISSES_IN_FLIGHT, caller.getInFlight());
+    }
+
+    /**
+     * @return the number of cache hits served per second by the given number of threads.
+     */
+    private double hitsPerSecond(int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MEASURE_MILLIS);
+            Callable<Long> hitter = () -> {
+                long hits = 0;
+                while (System.nanoTime() < deadline) {
+                    WebsearchResponse response = api.query("cached " + ThreadLocalRandom.current().nextInt(CACHED_QUERIES),
+                            RESULTS);
+                    assertEquals(RESULTS, response.getWebEntries().size());
+                    hits++;
+                }
+                return hits;
+            };
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                results.add(pool.submit(hitter));
+            long hits = 0;
+            for (Future<Long> result : results)
+                hits += result.get();
+            return hits * 1000.0 / MEASURE_MILLIS;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void hitsAreServedWhileMissesAreInFlight() throws Exception {
+        holdMisses();
+        int calls = caller.getCalls();
+        double hitsPerSecond = hitsPerSecond(MISSES_IN_FLIGHT);
+        System.out.printf("%.0f hits/s with %d misses in flight%n", hitsPerSecond, MISSES_IN_FLIGHT);
+
+        assertTrue(hitsPerSecond > 0);
+        assertEquals(calls, caller.getCalls());
+        assertEquals(MISSES_IN_FLIGHT, caller.getInFlight());
+        for (Future<WebsearchResponse> miss : misses)
+            assertFalse(miss.isDone());
+
+        gate.countDown();
+        for (Future<WebsearchResponse> miss : misses)
+            assertEquals(RESULTS, miss.get(10, TimeUnit.SECONDS).getWebEntries().size());
+        assertEquals(CACHED_QUERIES + MISSES_IN_FLIGHT, caller.getCalls());
+    }
+
+    @Test
+    public void hitThroughputScalesWithThreads() throws Exception {
+        int threads = 4;
+        assumeTrue("Needs at least " + threads + " processors", Runtime.getRuntime().availableProcessors() >= threads);
+        holdMisses();
+        hitsPerSecond(threads);
+        double single = hitsPerSecond(1);
+        double multi = hitsPerSecond(threads);
+        System.out.printf("%.0f hits/s with 1 thread, %.0f with %d threads%n", single, multi, threads);
+        assertTrue(multi >= single * threads / 2);
+    }
+
+    @Test
+    public void concurrentMissesOnTheSameQueryCallEachPageOnce() throws Exception {
+        int threads = 8;
+        int pages = 3;
+        StubApiCaller fullPages = new StubApiCaller(PAGE_RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        CachedWebsearchApi shared = CachedWebsearchApi.builder().api(fullPages).store(store).create();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch pageGate = new CountDownLatch(1);
+        try {
+            store.reset();
+            fullPages.setGate(pageGate);
+            CountDownLatch started = new CountDownLatch(threads);
+            List<Future<WebsearchResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                responses.add(pool.submit(() -> {
+                    started.countDown();
+                    return shared.query("shared", pages * PAGE_RESULTS);
+                }));
+            started.await();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (fullPages.getInFlight() < 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            Thread.sleep(200);
+            pageGate.countDown();
+            for (Future<WebsearchResponse> response : responses)
+                assertEquals(pages * PAGE_RESULTS, response.get(10, TimeUnit.SECONDS).getWebEntries().size());
+
+            for (int page = 0; page < pages; page++)
+                assertEquals(1, fullPages.getCalls(page * PAGE_RESULTS));
+            assertEquals(pages, fullPages.getCalls());
+            assertEquals(pages, store.getPuts());
+            assertEquals(1, store.getCommits());
+
+            assertEquals(pages * PAGE_RESULTS, shared.query("shared", pages * PAGE_RESULTS).getWebEntries().size());
+            assertEquals(pages, fullPages.getCalls());
+        } finally {
+            pageGate.countDown();
+            pool.shutdownNow();
+            shared.close();
+        }
+    }
+}
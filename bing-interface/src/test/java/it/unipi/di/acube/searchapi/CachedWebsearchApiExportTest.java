@@ -0,0 +1,188 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Iterators;
+
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.stores.CountingResponseStore;
+
+public class CachedWebsearchApiExportTest {
+    private static final int RESULTS = 10;
+    private static final int QUERIES = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubApiCaller sourceCaller;
+    private StubApiCaller targetCaller;
+    private CountingResponseStore sourceStore;
+    private CountingResponseStore targetStore;
+    private CachedWebsearchApi source;
+    private CachedWebsearchApi target;
+    private String archive;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceCaller = new StubApiCaller(RESULTS);
+        targetCaller = new StubApiCaller(RESULTS);
+        sourceStore = new CountingResponseStore();
+        targetStore = new CountingResponseStore();
+        source = CachedWebsearchApi.builder().api(sourceCaller).store(sourceStore).create();
+        target = CachedWebsearchApi.builder().api(targetCaller).store(targetStore).create();
+        archive = new File(folder.getRoot(), "archive").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        target.close();
+    }
+
+    /**
+     * Fill the source cache, encoding half of the responses with a compression dictionary.
+     */
+    private void fillSource() throws Exception {
+        for (int i = 0; i < QUERIES / 2; i++)
+            source.query("query " + i, RESULTS);
+        source.trainDictionary(QUERIES);
+        for (int i = QUERIES / 2; i < QUERIES; i++)
+            source.query("query " + i, RESULTS);
+    }
+
+    private static Map<String, Long> writeTimes(CachedWebsearchApi api) {
+        Map<String, Long> writeTimes = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : api.cachedEntries())
+            writeTimes.put(entry.getKey(), CachedWebsearchApi.getWriteTime(entry.getValue()));
+        return writeTimes;
+    }
+
+    private void assertNothingImported(String path) throws Exception {
+        try {
+            target.importCache(path);
+            fail();
+        } catch (IOException e) {
+        }
+        assertEquals(0, targetStore.getPuts());
+        assertEquals(0, target.getCachedRequests());
+    }
+
+    @Test
+    public void exportedCacheIsImported() throws Exception {
+        fillSource();
+        assertEquals(QUERIES, source.exportCache(archive));
+        assertEquals(QUERIES, target.importCache(archive));
+        assertEquals(QUERIES, target.getCachedRequests());
+        assertEquals(writeTimes(source), writeTimes(target));
+        for (int i = 0; i < QUERIES; i++) {
+            WebsearchResponse response = target.query("query " + i, RESULTS);
+            assertEquals(RESULTS, response.getWebEntries().size());
+            assertEquals("query " + i + " 0", response.getWebEntries().get(0).getName());
+        }
+        assertEquals(0, targetCaller.getCalls());
+    }
+
+    @Test
+    public void conflictsKeepTheNewestRecord() throws Exception {
+        target.query("old in source", RESULTS);
+        Thread.sleep(5);
+        source.query("old in source", RESULTS);
+        source.query("old in target", RESULTS);
+        Thread.sleep(5);
+        target.query("old in target", RESULTS);
+        Map<String, Long> sourceTimes = writeTimes(source);
+        Map<String, Long> targetTimes = writeTimes(target);
+        String oldInSource = targetCaller.getQueryURI("old in source", 0).toString();
+        String oldInTarget = targetCaller.getQueryURI("old in target", 0).toString();
+        assertTrue(sourceTimes.get(oldInSource) > targetTimes.get(oldInSource));
+
+        source.exportCache(archive);
+        assertEquals(1, target.importCache(archive));
+        Map<String, Long> merged = writeTimes(target);
+        assertEquals(sourceTimes.get(oldInSource), merged.get(oldInSource));
+        assertEquals(targetTimes.get(oldInTarget), merged.get(oldInTarget));
+
+        assertEquals(0, target.mergeCache(source));
+        assertEquals(merged, writeTimes(target));
+    }
+
+    @Test
+    public void truncatedArchiveIsRejected() throws Exception {
+        fillSource();
+        source.exportCache(archive);
+        byte[] bytes = Files.readAllBytes(new File(archive).toPath());
+        File truncated = new File(folder.getRoot(), "truncated");
+        for (int length = 0; length < bytes.length; length += 1 + length / 4) {
+            Files.write(truncated.toPath(), Arrays.copyOf(bytes, length));
+            assertNothingImported(truncated.getPath());
+        }
+        Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+        assertNothingImported(truncated.getPath());
+    }
+
+    @Test
+    public void corruptArchiveIsRejected() throws Exception {
+        fillSource();
+        source.exportCache(archive);
+        byte[] bytes = Files.readAllBytes(new File(archive).toPath());
+        File corrupt = new File(folder.getRoot(), "corrupt");
+        for (int position : new int[] { bytes.length / 3, bytes.length / 2, bytes.length - 100 }) {
+            byte[] corrupted = bytes.clone();
+            corrupted[position] ^= 0x10;
+            Files.write(corrupt.toPath(), corrupted);
+            assertNothingImported(corrupt.getPath());
+        }
+    }
+
+    @Test
+    public void failedExportIsRejected() throws Exception {
+        CountingResponseStore failingStore = new CountingResponseStore() {
+            @Override
+            public Iterable<Map.Entry<String, byte[]>> entries() {
+                return () -> Iterators.concat(Iterators.limit(super.entries().iterator(), QUERIES / 2),
+                        new Iterator<Map.Entry<String, byte[]>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return true;
+                            }
+
+                            @Override
+                            public Map.Entry<String, byte[]> next() {
+                                throw new UncheckedIOException(new IOException("read failed"));
+                            }
+                        });
+            }
+        };
+        CachedWebsearchApi failing = CachedWebsearchApi.builder().api(sourceCaller).store(failingStore).create();
+        try {
+            for (int i = 0; i < QUERIES; i++)
+                failing.query("query " + i, RESULTS);
+            try {
+                failing.exportCache(archive);
+                fail();
+            } catch (IOException e) {
+                assertEquals("read failed", e.getMessage());
+            }
+        } finally {
+            failing.close();
+        }
+        assertNothingImported(archive);
+    }
+}
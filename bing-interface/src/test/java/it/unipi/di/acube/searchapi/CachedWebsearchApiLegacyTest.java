@@ -0,0 +1,116 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+
+import com.google.common.collect.Iterables;
+
+import it.unipi.di.acube.searchapi.interfaces.WebsearchResponseHandler;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+/**
+ * Caches written by the first versions: values are the gzipped JSON responses, stored under the URI of their call, in a
+ * MapDB file without write-ahead log.
+ */
+public class CachedWebsearchApiLegacyTest {
+    private static final int RESULTS = 10;
+    private static final List<String> QUERIES = Arrays.asList("a", "b", "c");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubApiCaller caller;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        caller = new StubApiCaller(RESULTS);
+        path = new File(folder.getRoot(), "cache").getPath();
+        DB db = DBMaker.fileDB(path).fileMmapEnable().make();
+        Map<String, byte[]> queries = db.hashMap("queries", Serializer.STRING, Serializer.BYTE_ARRAY).createOrOpen();
+        for (String query : QUERIES)
+            queries.put(caller.getQueryURI(query, 0).toString(),
+                    StringCompress.compress(StubApiCaller.response(query, 0, RESULTS).toString()));
+        db.commit();
+        db.close();
+    }
+
+    private static void assertResponse(String query, WebsearchResponse response) {
+        assertEquals(RESULTS, response.getWebEntries().size());
+        for (int i = 0; i < RESULTS; i++)
+            assertEquals(query + " " + i, response.getWebEntries().get(i).getName());
+    }
+
+    @Test
+    public void legacyCacheIsServedWithoutCalls() throws Exception {
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).path(path).create();
+        try {
+            for (String query : QUERIES)
+                assertResponse(query, api.query(query, RESULTS));
+            assertEquals(QUERIES.size(), Iterables.size(api.cachedUris()));
+        } finally {
+            api.close();
+        }
+
+        api = CachedWebsearchApi.builder().api(caller).path(path).create();
+        try {
+            for (String query : QUERIES)
+                assertResponse(query, api.query(query, RESULTS));
+        } finally {
+            api.close();
+        }
+        assertEquals(0, caller.getCalls());
+    }
+
+    @Test
+    public void legacyCacheIsServedInBatchesWithoutCalls() throws Exception {
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).path(path).create();
+        List<String> answered = new ArrayList<>();
+        try {
+            api.queryAll(QUERIES, RESULTS, 2, new WebsearchResponseHandler() {
+                @Override
+                public void onResponse(String query, WebsearchResponse response) {
+                    assertResponse(query, response);
+                    answered.add(query);
+                }
+
+                @Override
+                public void onFailure(String query, Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+        } finally {
+            api.close();
+        }
+        assertEquals(QUERIES, answered);
+        assertEquals(0, caller.getCalls());
+    }
+
+    @Test
+    public void copiedValuesAreMigrated() throws Exception {
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).path(path).create();
+        try {
+            assertResponse("a", api.query("a", RESULTS));
+            assertEquals(QUERIES.size(), api.migrateKeys());
+            assertEquals(QUERIES.size(), api.getCachedRequests());
+            for (String query : QUERIES)
+                assertResponse(query, api.query(query, RESULTS));
+        } finally {
+            api.close();
+        }
+        assertEquals(0, caller.getCalls());
+    }
+}
@@ -0,0 +1,129 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.stores.CountingResponseStore;
+
+public class CachedWebsearchApiMemoryCacheTest {
+    private static final int RESULTS = 10;
+
+    @Test
+    public void memoryHitsSkipTheStore() throws Exception {
+        StubApiCaller caller = new StubApiCaller(RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(store).memoryCache(1000).create();
+        try {
+            api.query("query", RESULTS);
+            store.reset();
+            for (int i = 0; i < 3; i++)
+                assertEquals(RESULTS, api.query("query", RESULTS).getWebEntries().size());
+            assertEquals(0, store.getGets());
+            assertEquals(3, api.getMemoryCacheHits());
+            assertEquals(1, caller.getCalls());
+        } finally {
+            api.close();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedResponsesAreEvicted() throws Exception {
+        int capacity = 100;
+        int queries = 3 * capacity;
+        StubApiCaller caller = new StubApiCaller(RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(store).memoryCache(capacity * (RESULTS + 1))
+                .create();
+        try {
+            for (int i = 0; i < queries; i++)
+                api.query("query " + i, RESULTS);
+            assertTrue(api.getMemoryCacheEvictions() >= queries - capacity);
+
+            store.reset();
+            long hits = api.getMemoryCacheHits();
+            for (int i = queries - capacity / 2; i < queries; i++)
+                api.query("query " + i, RESULTS);
+            assertEquals(capacity / 2, api.getMemoryCacheHits() - hits);
+            assertEquals(0, store.getGets());
+
+            assertEquals(RESULTS, api.query("query 0", RESULTS).getWebEntries().size());
+            assertEquals(capacity / 2, api.getMemoryCacheHits() - hits);
+            assertTrue(store.getGets() > 0);
+            assertEquals(queries, caller.getCalls());
+        } finally {
+            api.close();
+        }
+    }
+
+    @Test
+    public void mergedRecordsReplaceMemoryEntries() throws Exception {
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(new StubApiCaller(RESULTS)).store(new CountingResponseStore())
+                .memoryCache(1000).create();
+        CachedWebsearchApi newer = CachedWebsearchApi.builder().api(new StubApiCaller(RESULTS / 2))
+                .store(new CountingResponseStore()).create();
+        try {
+            assertEquals(RESULTS, api.query("query", RESULTS).getWebEntries().size());
+            Thread.sleep(5);
+            newer.query("query", RESULTS);
+            assertEquals(1, api.mergeCache(newer));
+            assertEquals(RESULTS / 2, api.query("query", RESULTS).getWebEntries().size());
+        } finally {
+            newer.close();
+            api.close();
+        }
+    }
+
+    @Test
+    public void droppedEntriesAreDroppedFromMemory() throws Exception {
+        StubApiCaller caller = new StubApiCaller(RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(store).memoryCache(1000).create();
+        try {
+            api.query("query", RESULTS);
+            String key = store.keys().iterator().next();
+            byte[] value = store.get(key);
+            store.put(key, Arrays.copyOf(value, value.length - 10));
+            api.query("query", RESULTS);
+            assertEquals(1, caller.getCalls());
+
+            assertEquals(1, api.verifyCache());
+            assertEquals(RESULTS, api.query("query", RESULTS).getWebEntries().size());
+            assertEquals(2, caller.getCalls());
+        } finally {
+            api.close();
+        }
+    }
+
+    @Test
+    public void refreshedResponsesReplaceMemoryEntries() throws Exception {
+        StubApiCaller caller = new StubApiCaller(RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(store).memoryCache(1000)
+                .softTtl(100, TimeUnit.MILLISECONDS).executor(executor).create();
+        try {
+            api.query("query", RESULTS);
+            Thread.sleep(200);
+            api.query("query", RESULTS);
+            assertEquals(1, api.getStaleHits());
+            executor.submit(() -> null).get();
+            assertEquals(2, store.getPuts());
+
+            store.reset();
+            api.query("query", RESULTS);
+            assertEquals(1, api.getStaleHits());
+            assertEquals(0, store.getGets());
+            assertEquals(2, caller.getCalls());
+        } finally {
+            api.close();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.stores.CountingResponseStore;
+
+public class CachedWebsearchApiPrefixTest {
+    private static final int PAGE = 50;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    public void largerQueriesFetchOnlyTheMissingPages() throws Exception {
+        StubApiCaller caller = new StubApiCaller(PAGE);
+        CountingResponseStore store = new CountingResponseStore();
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(store).create();
+        try {
+            assertEquals(PAGE, api.query("query", PAGE).getWebEntries().size());
+            assertEquals(2 * PAGE, api.query("query", 2 * PAGE).getWebEntries().size());
+            WebsearchResponse response = api.query("query", 4 * PAGE);
+            assertEquals(4 * PAGE, response.getWebEntries().size());
+            for (int rank = 0; rank < 4 * PAGE; rank++)
+                assertEquals("query " + rank, response.getWebEntries().get(rank).getName());
+
+            for (int page = 0; page < 4; page++)
+                assertEquals(1, caller.getCalls(page * PAGE));
+            assertEquals(4, caller.getCalls());
+            assertEquals(4, store.getPuts());
+            assertEquals(1 + 2, api.getReusedPages());
+        } finally {
+            api.close();
+        }
+    }
+
+    @Test
+    public void missingPagesAreFetchedInParallel() throws Exception {
+        StubApiCaller caller = new StubApiCaller(PAGE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(new CountingResponseStore()).executor(executor)
+                .parallelFetch(true).create();
+        CountDownLatch gate = new CountDownLatch(1);
+        try {
+            api.query("query", PAGE);
+            caller.setGate(gate);
+            Future<WebsearchResponse> response = executor.submit(() -> api.query("query", 4 * PAGE));
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (caller.getInFlight() < 3 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(3, caller.getInFlight());
+            gate.countDown();
+
+            assertEquals(4 * PAGE, response.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).getWebEntries().size());
+            for (int page = 0; page < 4; page++)
+                assertEquals(1, caller.getCalls(page * PAGE));
+            assertEquals(1, api.getReusedPages());
+        } finally {
+            gate.countDown();
+            api.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+import it.unipi.di.acube.searchapi.interfaces.WebsearchResponseHandler;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.stores.CountingResponseStore;
+
+public class CachedWebsearchApiQueryAllTest {
+    private static final int RESULTS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubApiCaller caller;
+    private CachedWebsearchApi api;
+
+    /**
+     * A handler that throws when it receives the response to a given query, and records everything it receives.
+     */
+    private static class ThrowingHandler implements WebsearchResponseHandler {
+        private final String throwOn;
+        private final RuntimeException exception = new IllegalStateException("handler failed");
+        private final List<String> responses = new ArrayList<>();
+        private final List<String> failures = new ArrayList<>();
+
+        private ThrowingHandler(String throwOn) {
+            this.throwOn = throwOn;
+        }
+
+        @Override
+        public void onResponse(String query, WebsearchResponse response) {
+            responses.add(query);
+            if (query.equals(throwOn))
+                throw exception;
+        }
+
+        @Override
+        public void onFailure(String query, Exception e) {
+            failures.add(query);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        caller = new StubApiCaller(RESULTS);
+        api = CachedWebsearchApi.builder().api(caller).path(new File(folder.getRoot(), "cache").getPath()).create();
+    }
+
+    @After
+    public void tearDown() {
+        api.close();
+    }
+
+    @Test
+    public void handlerExceptionOnCachedResponseIsNotReportedAsFailure() throws Exception {
+        api.query("a", RESULTS);
+        ThrowingHandler handler = new ThrowingHandler("a");
+        try {
+            api.queryAll(Arrays.asList("a", "b"), RESULTS, 1, handler);
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(handler.exception, e);
+        }
+        assertEquals(Arrays.asList("a"), handler.responses);
+        assertEquals(0, handler.failures.size());
+    }
+
+    @Test
+    public void handlerExceptionOnIssuedQueryIsRethrown() throws Exception {
+        ThrowingHandler handler = new ThrowingHandler("b");
+        try {
+            api.queryAll(Arrays.asList("a", "b", "c", "d"), RESULTS, 1, handler);
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(handler.exception, e);
+        }
+        assertEquals(Arrays.asList("a", "b"), handler.responses);
+        assertEquals(0, handler.failures.size());
+        assertEquals(2, caller.getCalls());
+        assertEquals(2, api.getCachedRequests());
+    }
+
+    @Test
+    public void corruptEntriesAreCommittedOnceWithTheBatch() throws Exception {
+        int queries = 10;
+        CountingResponseStore store = new CountingResponseStore();
+        CachedWebsearchApi batched = CachedWebsearchApi.builder().api(caller).store(store).create();
+        try {
+            List<String> batch = new ArrayList<>();
+            for (int i = 0; i < queries; i++) {
+                batch.add("query " + i);
+                batched.query("query " + i, RESULTS);
+            }
+            for (String key : Lists.newArrayList(store.keys())) {
+                byte[] value = store.get(key);
+                store.put(key, Arrays.copyOf(value, value.length - 10));
+            }
+            store.reset();
+
+            ThrowingHandler handler = new ThrowingHandler(null);
+            batched.queryAll(batch, RESULTS, 2, handler);
+            assertEquals(queries, handler.responses.size());
+            assertEquals(0, handler.failures.size());
+            assertEquals(queries, batched.getCorruptEntries());
+            assertEquals(2 * queries, caller.getCalls());
+            assertEquals(1, store.getCommits());
+        } finally {
+            batched.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.stores.CountingResponseStore;
+
+public class CachedWebsearchApiTtlTest {
+    private static final int RESULTS = 10;
+    private static final long TTL_MILLIS = 100;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int THREADS = 8;
+
+    @Test
+    public void staleEntryIsServedAndRefreshedOnce() throws Exception {
+        StubApiCaller caller = new StubApiCaller(RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(store).executor(executor)
+                .softTtl(TTL_MILLIS, TimeUnit.MILLISECONDS).create();
+        ExecutorService readers = Executors.newFixedThreadPool(THREADS);
+        try {
+            api.query("query", RESULTS);
+            long firstWrite = CachedWebsearchApi.getWriteTime(store.get(store.keys().iterator().next()));
+            assertEquals(1, caller.getCalls());
+            Thread.sleep(2 * TTL_MILLIS);
+
+            CountDownLatch gate = new CountDownLatch(1);
+            caller.setGate(gate);
+            List<Future<WebsearchResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++)
+                responses.add(readers.submit(() -> api.query("query", RESULTS)));
+            for (Future<WebsearchResponse> response : responses)
+                assertEquals(RESULTS, response.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).getWebEntries().size());
+            assertEquals(THREADS, api.getStaleHits());
+            assertEquals(1, store.getPuts());
+
+            gate.countDown();
+            executor.submit(() -> null).get();
+            assertEquals(2, caller.getCalls());
+            assertEquals(2, store.getPuts());
+            assertTrue(CachedWebsearchApi.getWriteTime(store.get(store.keys().iterator().next())) > firstWrite);
+            api.query("query", RESULTS);
+            assertEquals(2, caller.getCalls());
+            assertEquals(THREADS, api.getStaleHits());
+        } finally {
+            readers.shutdownNow();
+            api.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void expiredEntryIsFetchedAgain() throws Exception {
+        StubApiCaller caller = new StubApiCaller(RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(store).hardTtl(TTL_MILLIS, TimeUnit.MILLISECONDS)
+                .memoryCache(1000).create();
+        try {
+            api.query("query", RESULTS);
+            api.query("query", RESULTS);
+            assertEquals(1, caller.getCalls());
+            Thread.sleep(2 * TTL_MILLIS);
+
+            assertEquals(RESULTS, api.query("query", RESULTS).getWebEntries().size());
+            assertEquals(2, caller.getCalls());
+            assertEquals(1, api.getExpiredMisses());
+            assertEquals(2, store.getPuts());
+            api.query("query", RESULTS);
+            assertEquals(2, caller.getCalls());
+        } finally {
+            api.close();
+        }
+    }
+
+    @Test
+    public void entriesWithoutWriteTimeNeverExpire() throws Exception {
+        StubApiCaller caller = new StubApiCaller(RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        String uri = caller.getQueryURI("query", 0).toString();
+        store.put(uri, StringCompress.compress(StubApiCaller.response("query", 0, RESULTS).toString()));
+        assertEquals(-1, CachedWebsearchApi.getWriteTime(store.get(uri)));
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).store(store).softTtl(1, TimeUnit.MILLISECONDS)
+                .hardTtl(2, TimeUnit.MILLISECONDS).create();
+        try {
+            Thread.sleep(10);
+            assertEquals(RESULTS, api.query("query", RESULTS).getWebEntries().size());
+            assertEquals(RESULTS, api.query("query", RESULTS).getWebEntries().size());
+            Thread.sleep(TTL_MILLIS);
+            assertEquals(0, caller.getCalls());
+            assertEquals(0, api.getStaleHits());
+            assertEquals(0, api.getExpiredMisses());
+        } finally {
+            api.close();
+        }
+    }
+}
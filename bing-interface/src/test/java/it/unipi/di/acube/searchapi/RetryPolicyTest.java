@@ -0,0 +1,110 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jettison.json.JSONException;
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.callers.ApiResponseException;
+
+public class RetryPolicyTest {
+    private static final long BASE_DELAY_MILLIS = 100;
+    private static final long MAX_DELAY_MILLIS = 1000;
+    private static final double JITTER = 0.5;
+
+    private static RetryPolicy.RetryPolicyBuilder builder() {
+        return RetryPolicy.builder().maxRetries(10).delay(BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                .jitter(JITTER).budget(0, 1000);
+    }
+
+    @Test
+    public void onlyTransientFailuresAreRetried() {
+        RetryPolicy policy = builder().create();
+        for (int status : new int[] { 429, 500, 502, 503, 504 })
+            assertTrue(policy.retryDelay(0, new ApiResponseException(status, -1)) >= 0);
+        for (int status : new int[] { 400, 401, 403, 404, 501 })
+            assertEquals(-1, policy.retryDelay(0, new ApiResponseException(status, -1)));
+        assertTrue(policy.retryDelay(0, new IOException()) >= 0);
+        assertTrue(policy.retryDelay(0, new SocketTimeoutException()) >= 0);
+        assertTrue(policy.retryDelay(0, null) >= 0);
+        assertEquals(-1, policy.retryDelay(0, new JSONException("bad")));
+        assertEquals(-1, policy.retryDelay(0, new IllegalStateException()));
+        assertEquals(8, policy.getRetries());
+        assertEquals(7, policy.getGiveUps());
+    }
+
+    @Test
+    public void retryableFailuresCanBeConfigured() {
+        RetryPolicy policy = builder().retryableStatuses(404).retryIOExceptions(false).create();
+        assertTrue(policy.retryDelay(0, new ApiResponseException(404, -1)) >= 0);
+        assertEquals(-1, policy.retryDelay(0, new ApiResponseException(503, -1)));
+        assertEquals(-1, policy.retryDelay(0, new IOException()));
+    }
+
+    @Test
+    public void retriesStopAtMaxRetries() {
+        RetryPolicy policy = builder().maxRetries(2).create();
+        assertTrue(policy.retryDelay(0, null) >= 0);
+        assertTrue(policy.retryDelay(1, null) >= 0);
+        assertEquals(-1, policy.retryDelay(2, null));
+    }
+
+    @Test
+    public void delaysGrowUpToTheCapWithinJitter() {
+        RetryPolicy policy = builder().create();
+        for (int retries = 0; retries < 10; retries++) {
+            long exponential = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << retries);
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.retryDelay(retries, null);
+                assertTrue(delay + " at retry " + retries, delay <= exponential);
+                assertTrue(delay + " at retry " + retries, delay >= exponential * (1 - JITTER));
+            }
+        }
+    }
+
+    @Test
+    public void delaysAreFixedWithoutJitter() {
+        RetryPolicy policy = builder().jitter(0).create();
+        assertEquals(100, policy.retryDelay(0, null));
+        assertEquals(200, policy.retryDelay(1, null));
+        assertEquals(400, policy.retryDelay(2, null));
+        assertEquals(800, policy.retryDelay(3, null));
+        assertEquals(1000, policy.retryDelay(4, null));
+        assertEquals(1000, policy.retryDelay(9, null));
+        assertEquals(100 + 200 + 400 + 800 + 1000 + 1000, policy.getRetryDelayMillis());
+    }
+
+    @Test
+    public void budgetStopsRetriesAndIsEarnedBack() {
+        RetryPolicy policy = builder().budget(0.5, 2).create();
+        assertTrue(policy.retryDelay(0, null) >= 0);
+        assertTrue(policy.retryDelay(0, null) >= 0);
+        assertEquals(-1, policy.retryDelay(0, null));
+        policy.succeeded();
+        assertEquals(-1, policy.retryDelay(0, null));
+        policy.succeeded();
+        assertTrue(policy.retryDelay(0, null) >= 0);
+        assertEquals(-1, policy.retryDelay(0, null));
+        for (int i = 0; i < 100; i++)
+            policy.succeeded();
+        assertTrue(policy.retryDelay(0, null) >= 0);
+        assertTrue(policy.retryDelay(0, null) >= 0);
+        assertEquals(-1, policy.retryDelay(0, null));
+        assertEquals(5, policy.getRetries());
+        assertEquals(4, policy.getGiveUps());
+    }
+
+    @Test
+    public void retryAfterOverridesShorterBackoff() {
+        RetryPolicy policy = builder().jitter(0).create();
+        assertEquals(5000, policy.retryDelay(0, new ApiResponseException(429, 5000)));
+        assertEquals(300, policy.retryDelay(0, new ApiResponseException(503, 300)));
+        assertEquals(100, policy.retryDelay(0, new ApiResponseException(503, 0)));
+        assertEquals(100, policy.retryDelay(0, new ApiResponseException(503, -1)));
+    }
+}
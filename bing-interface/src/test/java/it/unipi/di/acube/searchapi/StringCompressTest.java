@@ -0,0 +1,74 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class StringCompressTest {
+
+    private static String text(int seed, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; sb.length() < length; i++)
+            sb.append("entity ").append(seed).append(" città ").append(i % 97).append(' ');
+        return sb.toString();
+    }
+
+    @Test
+    public void roundTripIsStandardGzip() throws Exception {
+        for (int length : new int[] { 0, 1, 100, 100000, 3 << 20 }) {
+            String text = text(length, length);
+            byte[] compressed = StringCompress.compress(text);
+            assertEquals(text, StringCompress.decompress(compressed));
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), IOUtils.toByteArray(in));
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsFromManyShortLivedThreads() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 200; t++) {
+                int seed = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        String text = text(seed, 1000 + 500 * i);
+                        assertEquals(text, StringCompress.decompress(StringCompress.compress(text)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results)
+                result.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void corruptLengthIsRejected() throws Exception {
+        byte[] compressed = StringCompress.compress(text(0, 1000));
+        compressed[compressed.length - 1] = (byte) 0x7f;
+        try {
+            StringCompress.decompress(compressed);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Corrupt GZip trailer.", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package it.unipi.di.acube.searchapi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import it.unipi.di.acube.searchapi.callers.BingSearchApiCaller;
+
+/**
+ * A Bing caller that builds its responses instead of calling the API. Each call returns a single page of results, so that
+ * each query needs one call. Calls can be held until a gate is opened, to keep them in flight.
+ */
+public class StubApiCaller extends BingSearchApiCaller {
+    private final int resultsPerPage;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentMap<Integer, AtomicInteger> callsByOffset = new ConcurrentHashMap<>();
+    private volatile CountDownLatch gate;
+
+    /**
+     * @param resultsPerPage
+     *            the number of results of each response, less than the results per call so that each query is complete
+     *            after one call.
+     */
+    public StubApiCaller(int resultsPerPage) {
+        super("stub");
+        this.resultsPerPage = resultsPerPage;
+    }
+
+    /**
+     * @param gate
+     *            a latch calls wait for before returning, or null to return straight away.
+     */
+    public void setGate(CountDownLatch gate) {
+        this.gate = gate;
+    }
+
+    /**
+     * @return the number of calls issued so far.
+     */
+    public int getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @param resultsSoFar
+     *            the search offset.
+     * @return the number of calls issued so far for the page at that offset, across all queries.
+     */
+    public int getCalls(int resultsSoFar) {
+        AtomicInteger calls = callsByOffset.get(resultsSoFar);
+        return calls == null ? 0 : calls.get();
+    }
+
+    /**
+     * @return the number of calls that have started and not returned yet.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public JSONObject query(String query, int resultsSoFar) throws Exception {
+        calls.incrementAndGet();
+        callsByOffset.computeIfAbsent(resultsSoFar, offset -> new AtomicInteger()).incrementAndGet();
+        inFlight.incrementAndGet();
+        try {
+            CountDownLatch gate = this.gate;
+            if (gate != null)
+                gate.await();
+            return response(query, resultsSoFar, resultsPerPage);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return a response in the shape of those of the Bing API, with the given number of results.
+     */
+    public static JSONObject response(String query, int resultsSoFar, int results) throws JSONException {
+        JSONArray value = new JSONArray();
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < results; i++) {
+            int rank = resultsSoFar + i;
+            value.put(new JSONObject().put("name", query + " " + rank).put("displayUrl", "example.org/" + rank)
+                    .put("snippet", "Snippet " + rank + " of " + query).put("dateLastCrawled", "2017-01-01T00:00:00"));
+            items.put(new JSONObject().put("answerType", "WebPages"));
+        }
+        return new JSONObject().put("_type", "SearchResponse")
+                .put("webPages", new JSONObject().put("totalEstimatedMatches", 1000).put("value", value))
+                .put("rankingResponse", new JSONObject().put("mainline", new JSONObject().put("items", items)));
+    }
+}
@@ -0,0 +1,81 @@
+package it.unipi.di.acube.searchapi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+
+public class WebsearchApiTest {
+    private static final int PAGE = 50;
+
+    @Test
+    public void parallelFetchDoesNotDeadlockBoundedExecutor() throws Exception {
+        StubApiCaller caller = new StubApiCaller(PAGE);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            WebsearchApi api = new WebsearchApi(caller, executor).setParallelFetch(true);
+            List<CompletableFuture<WebsearchResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                responses.add(api.queryAsync("query " + i, 3 * PAGE));
+            for (CompletableFuture<WebsearchResponse> response : responses)
+                assertEquals(3 * PAGE, response.get(10, TimeUnit.SECONDS).getWebEntries().size());
+            assertEquals(4 * 3, caller.getCalls());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void callersWithoutPageSizeAreFetchedSequentially() throws Exception {
+        StubApiCaller stub = new StubApiCaller(PAGE);
+        WebSearchApiCaller caller = new WebSearchApiCaller() {
+            @Override
+            public int countResults(JSONObject response) throws JSONException {
+                return stub.countResults(response);
+            }
+
+            @Override
+            public JSONObject query(String query, int resultsSoFar) throws Exception {
+                return stub.query(query, resultsSoFar);
+            }
+
+            @Override
+            public boolean recacheNeeded(List<JSONObject> jsonResponses) throws JSONException {
+                return stub.recacheNeeded(jsonResponses);
+            }
+
+            @Override
+            public WebsearchResponse buildResponseFromJson(List<URI> uris, List<JSONObject> jsonResponses, int neededResults)
+                    throws JSONException {
+                return stub.buildResponseFromJson(uris, jsonResponses, neededResults);
+            }
+
+            @Override
+            public URI getQueryURI(String query, int resultsSoFar) throws URISyntaxException {
+                return stub.getQueryURI(query, resultsSoFar);
+            }
+
+            @Override
+            public boolean queryComplete(List<JSONObject> jsonResponses, int neededResults) throws JSONException {
+                return stub.queryComplete(jsonResponses, neededResults);
+            }
+        };
+        assertEquals(0, caller.getResultsPerCall());
+        WebsearchApi api = new WebsearchApi(caller).setParallelFetch(true);
+        assertEquals(2 * PAGE + 1, api.query("query", 2 * PAGE + 1).getWebEntries().size());
+        assertEquals(3, stub.getCalls());
+    }
+}
@@ -0,0 +1,131 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.model.WebsearchResponseEntry;
+
+public class BingSearchApiCallerTest {
+    private static String payload;
+
+    @BeforeClass
+    public static void readPayload() throws IOException {
+        try (InputStream in = BingSearchApiCallerTest.class.getResourceAsStream("/payloads/bing-web-search.json")) {
+            payload = IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+    private static JSONObject parse(String json) throws Exception {
+        return BingSearchApiCaller.parseResponse(new StringReader(json));
+    }
+
+    @Test
+    public void streamingParseGivesTheSameResponse() throws Exception {
+        BingSearchApiCaller caller = new BingSearchApiCaller("key");
+        List<URI> uris = Collections.singletonList(caller.getQueryURI("entity linking", 0));
+        JSONObject full = new JSONObject(payload);
+        JSONObject streamed = parse(payload);
+        assertEquals(caller.countResults(full), caller.countResults(streamed));
+        assertTrue(caller.countResults(streamed) > 0);
+        for (int neededResults : new int[] { 1, 10, 50, 100 }) {
+            assertEquals(caller.queryComplete(Collections.singletonList(full), neededResults),
+                    caller.queryComplete(Collections.singletonList(streamed), neededResults));
+            WebsearchResponse expected = caller.buildResponseFromJson(uris, Collections.singletonList(full), neededResults);
+            WebsearchResponse actual = caller.buildResponseFromJson(uris, Collections.singletonList(streamed), neededResults);
+            assertEquals(expected.getTotalResults(), actual.getTotalResults());
+            assertEquals(expected.getCalledURIs(), actual.getCalledURIs());
+            assertEquals(expected.getWebEntries().size(), actual.getWebEntries().size());
+            for (int i = 0; i < expected.getWebEntries().size(); i++) {
+                WebsearchResponseEntry expectedEntry = expected.getWebEntries().get(i);
+                WebsearchResponseEntry actualEntry = actual.getWebEntries().get(i);
+                assertEquals(expectedEntry.getName(), actualEntry.getName());
+                assertEquals(expectedEntry.getDisplayUrl(), actualEntry.getDisplayUrl());
+                assertEquals(expectedEntry.getSnippet(), actualEntry.getSnippet());
+                assertEquals(expectedEntry.getLastCrawled(), actualEntry.getLastCrawled());
+            }
+        }
+        assertFalse(caller.recacheNeeded(Collections.singletonList(streamed)));
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws Exception {
+        JSONObject response = parse("{\"queryContext\": {\"a\": [1, {\"b\": [[]]}]}, \"_type\": \"SearchResponse\", "
+                + "\"webPages\": {\"extra\": {\"value\": 1}, \"totalEstimatedMatches\": 7, \"value\": [{\"name\": \"n\", "
+                + "\"deepLinks\": [{\"name\": \"x\"}], \"displayUrl\": \"d\", \"snippet\": \"s\", \"id\": 3}]}, \"videos\": []}");
+        assertEquals("SearchResponse", response.getString("_type"));
+        assertEquals(7, response.getJSONObject("webPages").getLong("totalEstimatedMatches"));
+        JSONObject page = response.getJSONObject("webPages").getJSONArray("value").getJSONObject(0);
+        assertEquals("n", page.getString("name"));
+        assertEquals("d", page.getString("displayUrl"));
+        assertEquals("s", page.getString("snippet"));
+        assertEquals(3, page.length());
+        assertEquals(2, response.length());
+        assertFalse(response.getJSONObject("webPages").has("extra"));
+    }
+
+    @Test
+    public void fieldsOfTheWrongTypeAreDropped() throws Exception {
+        for (String webPages : new String[] { "null", "[]", "\"x\"", "3", "[{\"value\": []}]" }) {
+            JSONObject response = parse("{\"_type\": \"SearchResponse\", \"webPages\": " + webPages
+                    + ", \"rankingResponse\": {\"mainline\": {\"items\": []}}}");
+            assertFalse(webPages, response.has("webPages"));
+            assertEquals(0, new BingSearchApiCaller("key").countResults(response));
+        }
+        for (String value : new String[] { "null", "{}", "\"x\"", "{\"name\": \"n\"}" }) {
+            JSONObject response = parse("{\"webPages\": {\"totalEstimatedMatches\": 1, \"value\": " + value + "}}");
+            assertFalse(value, response.getJSONObject("webPages").has("value"));
+        }
+        JSONObject response = parse("{\"webPages\": {\"value\": [null, 1, \"x\", [], {\"name\": 2, \"snippet\": \"s\"}]}}");
+        assertEquals(1, response.getJSONObject("webPages").getJSONArray("value").length());
+        assertEquals("{\"snippet\":\"s\"}", response.getJSONObject("webPages").getJSONArray("value").getJSONObject(0).toString());
+        for (String rankingResponse : new String[] { "null", "[]", "\"x\"", "{\"mainline\": null}", "{\"mainline\": []}" }) {
+            response = parse("{\"rankingResponse\": " + rankingResponse + "}");
+            assertFalse(rankingResponse, response.has("rankingResponse") && response.getJSONObject("rankingResponse")
+                    .has("mainline"));
+        }
+        response = parse("{\"rankingResponse\": {\"mainline\": {\"items\": {\"a\": 1}}}}");
+        assertFalse(response.getJSONObject("rankingResponse").getJSONObject("mainline").has("items"));
+        response = parse("{\"rankingResponse\": {\"mainline\": {\"items\": [{\"a\": [1]}, 2, null]}}}");
+        assertEquals(3, response.getJSONObject("rankingResponse").getJSONObject("mainline").getJSONArray("items").length());
+        assertEquals(0, parse("{\"_type\": null}").length());
+    }
+
+    @Test(timeout = 60000)
+    public void truncatedResponsesAreRejected() throws Exception {
+        String json = payload.trim();
+        for (int length = 0; length < json.length(); length += length < 200 || length > json.length() - 200 ? 1 : 97)
+            try {
+                parse(json.substring(0, length));
+                fail("Accepted the first " + length + " characters.");
+            } catch (JSONException e) {
+            }
+    }
+
+    @Test
+    public void malformedResponsesAreRejected() throws Exception {
+        for (String json : new String[] { "", "[]", "\"x\"", "{\"webPages\": {\"value\": [{\"name\": \"n\"} {}]}}",
+                "{\"_type\": \"SearchResponse\" \"webPages\": {}}", "{\"webPages\": {\"totalEstimatedMatches\": 1x}}",
+                "{\"_type\": \"SearchResponse\"} trailing", "{\"_type\": \"SearchResponse\"}}" })
+            try {
+                parse(json);
+                fail("Accepted: " + json);
+            } catch (JSONException e) {
+            }
+    }
+}
@@ -0,0 +1,94 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.client.utils.URIBuilder;
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.interfaces.WebSearchApiCaller;
+
+public class CallerUriConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+    private static final List<String> QUERIES = Arrays.asList("armstrong", "città di pisa", "東京 天気", "Größe ünd Çà",
+            "emoji 😀", "a&b=c", "x+y z", "100% /path?q=1#fragment", "\"quoted\" 'single'", "tab\tnew\nline", "",
+            " ", "~!@$^*()[]{}|\\:;<>,", "%20%2B already encoded");
+
+    /**
+     * Build the URI of each query and offset once with a caller, then build them again with a single shared caller from many
+     * threads at once, and check that each one matches.
+     */
+    private static void assertSameUrisConcurrently(WebSearchApiCaller fresh, WebSearchApiCaller shared, int[] offsets)
+            throws Exception {
+        Map<String, URI> expected = new HashMap<>();
+        for (String query : QUERIES)
+            for (int offset : offsets)
+                expected.put(offset + " " + query, fresh.getQueryURI(query, offset));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int first = t;
+                results.add(executor.submit((Callable<Void>) () -> {
+                    for (int round = 0; round < ROUNDS; round++)
+                        for (int i = 0; i < QUERIES.size(); i++) {
+                            String query = QUERIES.get((first + i) % QUERIES.size());
+                            for (int offset : offsets)
+                                assertEquals(query, expected.get(offset + " " + query), shared.getQueryURI(query, offset));
+                        }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results)
+                result.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void bingUrisAreBuiltConcurrently() throws Exception {
+        int[] offsets = { 0, 50, 100 };
+        BingSearchApiCaller fresh = new BingSearchApiCaller("key").setMarket("it-IT")
+                .setSafeSearch(BingSearchApiCaller.SafeSearchOpt.STRICT);
+        for (String query : QUERIES)
+            for (int offset : offsets)
+                assertEquals(query, new URIBuilder().setScheme("https").setHost("api.cognitive.microsoft.com")
+                        .setPath("/bing/v7.0/search").addParameter("q", query).addParameter("count", "50")
+                        .addParameter("mkt", "it-IT").addParameter("safeSearch", "Strict").addParameter("textDecorations", "true")
+                        .addParameter("offset", Integer.toString(offset)).build(), fresh.getQueryURI(query, offset));
+
+        BingSearchApiCaller shared = new BingSearchApiCaller("key").setMarket("it-IT")
+                .setSafeSearch(BingSearchApiCaller.SafeSearchOpt.STRICT);
+        assertSameUrisConcurrently(fresh, shared, offsets);
+    }
+
+    @Test
+    public void googleUrisAreBuiltConcurrently() throws Exception {
+        int[] offsets = { 0, 10, 20 };
+        GoogleSearchApiCaller fresh = new GoogleSearchApiCaller("cse", "key").setGeolocation("it")
+                .setSafeSearch(GoogleSearchApiCaller.SafeSearchOpt.HIGH);
+        for (String query : QUERIES)
+            for (int offset : offsets)
+                assertEquals(query, new URIBuilder().setScheme("https").setHost("www.googleapis.com").setPath("/customsearch/v1")
+                        .addParameter("q", query).addParameter("gl", "it").addParameter("googleHost", "google.com")
+                        .addParameter("safe", "high").addParameter("start", Integer.toString(offset + 1))
+                        .addParameter("num", "10").build(), fresh.getQueryURI(query, offset));
+
+        GoogleSearchApiCaller shared = new GoogleSearchApiCaller("cse", "key").setGeolocation("it")
+                .setSafeSearch(GoogleSearchApiCaller.SafeSearchOpt.HIGH);
+        assertSameUrisConcurrently(fresh, shared, offsets);
+    }
+}
@@ -0,0 +1,218 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.StubApiCaller;
+
+public class HedgedApiCallerTest {
+    private static final long HEDGE_DELAY_MILLIS = 100;
+    private static final long SLOW_MILLIS = 5000;
+
+    /**
+     * A caller whose n-th call takes the n-th of the given latencies, and returns a response telling which call it was.
+     */
+    private static class SlowCaller extends StubApiCaller {
+        private final long[] latencies;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final Semaphore interrupted = new Semaphore(0);
+
+        private SlowCaller(long... latencies) {
+            super(10);
+            this.latencies = latencies;
+        }
+
+        @Override
+        public JSONObject query(String query, int resultsSoFar) throws Exception {
+            int call = calls.getAndIncrement();
+            try {
+                Thread.sleep(latencies[call]);
+            } catch (InterruptedException e) {
+                interrupted.release();
+                throw e;
+            }
+            return new JSONObject().put("call", call);
+        }
+    }
+
+    private static HedgedApiCaller hedged(SlowCaller caller) {
+        return new HedgedApiCaller(caller, 0.95, 1, HEDGE_DELAY_MILLIS, null);
+    }
+
+    @Test
+    public void fastCallIsNotHedged() throws Exception {
+        SlowCaller caller = new SlowCaller(0, 0);
+        HedgedApiCaller hedged = hedged(caller);
+        assertEquals(0, hedged.query("query", 0).getInt("call"));
+        assertEquals(1, caller.calls.get());
+        assertEquals(0, hedged.getHedges());
+    }
+
+    @Test
+    public void slowCallIsHedgedAfterDelayAndCancelled() throws Exception {
+        SlowCaller caller = new SlowCaller(SLOW_MILLIS, 0);
+        HedgedApiCaller hedged = hedged(caller);
+        long start = System.nanoTime();
+        JSONObject response = hedged.query("query", 0);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, response.getInt("call"));
+        assertTrue(elapsedMillis >= HEDGE_DELAY_MILLIS);
+        assertTrue(elapsedMillis < SLOW_MILLIS);
+        assertEquals(1, hedged.getHedges());
+        assertEquals(1, hedged.getHedgeWins());
+        assertTrue(caller.interrupted.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void losingHedgeIsCancelled() throws Exception {
+        SlowCaller caller = new SlowCaller(3 * HEDGE_DELAY_MILLIS, SLOW_MILLIS);
+        HedgedApiCaller hedged = hedged(caller);
+        long start = System.nanoTime();
+        JSONObject response = hedged.query("query", 0);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(0, response.getInt("call"));
+        assertTrue(elapsedMillis < SLOW_MILLIS);
+        assertEquals(2, caller.calls.get());
+        assertEquals(1, hedged.getHedges());
+        assertEquals(0, hedged.getHedgeWins());
+        assertTrue(caller.interrupted.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void interruptedQueryCancelsItsCalls() throws Exception {
+        SlowCaller caller = new SlowCaller(SLOW_MILLIS, SLOW_MILLIS);
+        HedgedApiCaller hedged = hedged(caller);
+        Thread thread = new Thread(() -> {
+            try {
+                hedged.query("query", 0);
+            } catch (Exception e) {
+            }
+        });
+        thread.start();
+        while (caller.calls.get() < 2)
+            Thread.sleep(10);
+        thread.interrupt();
+        assertTrue(caller.interrupted.tryAcquire(2, 1, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    @Test
+    public void cancelledCallsAreRecordedUntilCancellation() throws Exception {
+        long[] latencies = new long[128];
+        for (int i = 0; i < latencies.length; i += 2)
+            latencies[i] = SLOW_MILLIS;
+        SlowCaller caller = new SlowCaller(latencies);
+        HedgedApiCaller hedged = new HedgedApiCaller(caller, 0.95, 1, 20, null);
+        for (int i = 0; i < latencies.length / 2; i++)
+            assertEquals(i * 2 + 1, hedged.query("query", 0).getInt("call"));
+        assertEquals(latencies.length / 2, hedged.getHedges());
+        assertTrue(hedged.getHedgeDelayMillis() >= 20);
+        assertTrue(hedged.getHedgeDelayMillis() < SLOW_MILLIS);
+    }
+
+    @Test
+    public void failedCallsAreRecorded() throws Exception {
+        long[] latencies = new long[64];
+        SlowCaller caller = new SlowCaller(latencies) {
+            @Override
+            public JSONObject query(String query, int resultsSoFar) throws Exception {
+                super.query(query, resultsSoFar);
+                throw new IOException("failed");
+            }
+        };
+        HedgedApiCaller hedged = new HedgedApiCaller(caller, 0.95, 1, SLOW_MILLIS, null);
+        for (int i = 0; i < latencies.length; i++)
+            try {
+                hedged.query("query", 0);
+                fail();
+            } catch (IOException e) {
+            }
+        assertTrue(hedged.getHedgeDelayMillis() < SLOW_MILLIS);
+    }
+
+    /**
+     * A server that holds the first connection open without answering, and answers all later ones. The first connection may
+     * be opened by either call, as the first call also sets up the HTTP client.
+     */
+    private static class StallingServer implements AutoCloseable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final CountDownLatch stalledClosed = new CountDownLatch(1);
+
+        private StallingServer() throws IOException {
+            Thread thread = new Thread(this::serve);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void serve() {
+            try {
+                Socket stalled = server.accept();
+                Thread drain = new Thread(() -> {
+                    try (InputStream in = stalled.getInputStream()) {
+                        while (in.read() >= 0)
+                            ;
+                    } catch (IOException e) {
+                    }
+                    stalledClosed.countDown();
+                });
+                drain.setDaemon(true);
+                drain.start();
+                while (true)
+                    try (Socket socket = server.accept()) {
+                        InputStream in = socket.getInputStream();
+                        int matched = 0;
+                        while (matched < 4) {
+                            int c = in.read();
+                            if (c < 0)
+                                break;
+                            matched = c == "\r\n\r\n".charAt(matched) ? matched + 1 : c == '\r' ? 1 : 0;
+                        }
+                        byte[] body = StubApiCaller.response("query", 0, 10).toString().getBytes(StandardCharsets.UTF_8);
+                        OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length
+                                + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                        out.write(body);
+                        out.flush();
+                    }
+            } catch (Exception e) {
+            }
+        }
+
+        private String getEndpoint() {
+            return "http://localhost:" + server.getLocalPort() + "/search";
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+
+    @Test
+    public void losingHttpRequestIsAborted() throws Exception {
+        try (StallingServer server = new StallingServer(); ApiHttpClient client = ApiHttpClient.builder().create()) {
+            BingSearchApiCaller bing = new BingSearchApiCaller("key").setEndpoint(server.getEndpoint()).setHttpClient(client);
+            HedgedApiCaller hedged = new HedgedApiCaller(bing, 0.95, 1, HEDGE_DELAY_MILLIS, null);
+            assertEquals(10, bing.countResults(hedged.query("query", 0)));
+            assertEquals(1, hedged.getHedges());
+            assertTrue(server.stalledClosed.await(2, TimeUnit.SECONDS));
+        }
+    }
+}
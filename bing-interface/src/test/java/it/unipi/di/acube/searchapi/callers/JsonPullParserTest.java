@@ -0,0 +1,168 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codehaus.jettison.json.JSONException;
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.callers.JsonPullParser.Token;
+
+public class JsonPullParserTest {
+    private static final String DOCUMENT = "{\"a\": [1, -2.5e3, true, false, null, {\"b\": \"c\"}], "
+            + "\"d\": {\"e\": []}, \"f\": \"g\"}";
+
+    /**
+     * @return the tokens of the text, read up to the end of the input.
+     */
+    private static List<Token> tokens(String json) throws Exception {
+        JsonPullParser parser = new JsonPullParser(new StringReader(json));
+        List<Token> tokens = new ArrayList<>();
+        for (Token token = parser.next(); token != null; token = parser.next())
+            tokens.add(token);
+        return tokens;
+    }
+
+    /**
+     * @return the parser, positioned on the first value of the text, that is an array holding a single string.
+     */
+    private static JsonPullParser string(String json) throws Exception {
+        JsonPullParser parser = new JsonPullParser(new StringReader("[" + json + "]"));
+        assertEquals(Token.START_ARRAY, parser.next());
+        assertEquals(Token.STRING, parser.next());
+        return parser;
+    }
+
+    private static void assertMalformed(String json) throws Exception {
+        try {
+            tokens(json);
+            fail("Accepted: " + json);
+        } catch (JSONException e) {
+        }
+    }
+
+    @Test
+    public void tokensAreReadInOrder() throws Exception {
+        assertEquals(Arrays.asList(Token.START_OBJECT, Token.FIELD_NAME, Token.START_ARRAY, Token.NUMBER, Token.NUMBER,
+                Token.TRUE, Token.FALSE, Token.NULL, Token.START_OBJECT, Token.FIELD_NAME, Token.STRING, Token.END_OBJECT,
+                Token.END_ARRAY, Token.FIELD_NAME, Token.START_OBJECT, Token.FIELD_NAME, Token.START_ARRAY, Token.END_ARRAY,
+                Token.END_OBJECT, Token.FIELD_NAME, Token.STRING, Token.END_OBJECT), tokens(DOCUMENT));
+        assertEquals(Arrays.asList(Token.START_ARRAY, Token.END_ARRAY), tokens(" \t\r\n[ ]\n"));
+        assertEquals(Arrays.asList(Token.START_OBJECT, Token.END_OBJECT), tokens("{}"));
+        assertEquals(Arrays.asList(), tokens(""));
+    }
+
+    @Test
+    public void escapesAreDecoded() throws Exception {
+        assertEquals("a\"b\\c/d\be\ff\ng\rh\ti", string("\"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\"").getText());
+        assertEquals("caff\u00e8 \ue000bold\ue001", string("\"caff\\u00e8 \\uE000bold\\ue001\"").getText());
+        assertEquals("\u0000\u001f", string("\"\\u0000\\u001F\"").getText());
+    }
+
+    @Test
+    public void surrogatePairsAreDecoded() throws Exception {
+        String text = string("\"smile \\ud83d\\ude00!\"").getText();
+        assertEquals("smile \ud83d\ude00!", text);
+        assertEquals(0x1f600, text.codePointAt(6));
+        assertEquals("\ud83d\ude00", string("\"\ud83d\ude00\"").getText());
+    }
+
+    @Test
+    public void stringsLongerThanTheBufferAreRead() throws Exception {
+        StringBuilder json = new StringBuilder("\"");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            json.append("ab\\n\\u00e8");
+            expected.append("ab\n\u00e8");
+        }
+        assertEquals(expected.toString(), string(json.append('"').toString()).getText());
+    }
+
+    @Test
+    public void fieldNamesAreMatched() throws Exception {
+        JsonPullParser parser = new JsonPullParser(new StringReader("{\"na\\u006de\": \"x\"}"));
+        parser.next();
+        assertEquals(Token.FIELD_NAME, parser.next());
+        assertTrue(parser.textEquals("name"));
+        assertEquals("name", parser.getText());
+        assertEquals(Token.STRING, parser.next());
+        assertTrue(parser.textEquals("x"));
+    }
+
+    @Test
+    public void numbersAreParsed() throws Exception {
+        JsonPullParser parser = new JsonPullParser(
+                new StringReader("[0, -12, 12345678901234, 3.75, 1e3, -2.5E-3, 1E+2, 9223372036854775807]"));
+        parser.next();
+        long[] expected = { 0, -12, 12345678901234L, 3, 1000, 0, 100, Long.MAX_VALUE };
+        String[] texts = { "0", "-12", "12345678901234", "3.75", "1e3", "-2.5E-3", "1E+2", "9223372036854775807" };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Token.NUMBER, parser.next());
+            assertEquals(texts[i], parser.getText());
+            assertEquals(expected[i], parser.getLong());
+        }
+        assertEquals(Token.END_ARRAY, parser.next());
+        assertNull(parser.next());
+    }
+
+    @Test
+    public void booleansAndNullAreRead() throws Exception {
+        assertEquals(Arrays.asList(Token.START_OBJECT, Token.FIELD_NAME, Token.TRUE, Token.FIELD_NAME, Token.FALSE,
+                Token.FIELD_NAME, Token.NULL, Token.END_OBJECT), tokens("{\"t\":true,\"f\":false,\"n\":null}"));
+    }
+
+    @Test
+    public void getLongFailsOnOtherTokens() throws Exception {
+        try {
+            string("\"12\"").getLong();
+            fail();
+        } catch (JSONException e) {
+        }
+    }
+
+    @Test
+    public void nestedValuesAreSkipped() throws Exception {
+        JsonPullParser parser = new JsonPullParser(new StringReader(DOCUMENT));
+        assertEquals(Token.START_OBJECT, parser.next());
+        assertEquals(Token.FIELD_NAME, parser.next());
+        assertEquals(Token.START_ARRAY, parser.next());
+        parser.skipValue();
+        assertEquals(Token.END_ARRAY, parser.getToken());
+        assertEquals(Token.FIELD_NAME, parser.next());
+        assertTrue(parser.textEquals("d"));
+        assertEquals(Token.START_OBJECT, parser.next());
+        parser.skipValue();
+        assertEquals(Token.FIELD_NAME, parser.next());
+        assertTrue(parser.textEquals("f"));
+        assertEquals(Token.STRING, parser.next());
+        parser.skipValue();
+        assertEquals(Token.STRING, parser.getToken());
+        assertEquals(Token.END_OBJECT, parser.next());
+        assertNull(parser.next());
+    }
+
+    @Test(timeout = 10000)
+    public void malformedInputIsRejected() throws Exception {
+        for (String json : Arrays.asList("{\"a\":1 \"b\":2}", "[1 2]", "[\"a\" \"b\"]", "{\"a\" 1}", "{1:2}", "{\"a\":}",
+                "{\"a\":1,}", "[1,]", "[,1]", ",", "{,}", "{\"a\":1]", "[1}", "}", "]", "{\"a\":tru}", "{\"a\":nul}",
+                "[\"\\x\"]", "[\"\\u12G4\"]", "[\"\\u12\"]", "{} {}", "{\"a\":1}}", "[1] x", "[01]", "[1.]", "[-]", "[1e]",
+                "[1.2.3]", "[+1]", "[.5]", "[1-2]", "[a]", "{\"a\":1,,\"b\":2}", "[[]"))
+            assertMalformed(json);
+    }
+
+    @Test(timeout = 10000)
+    public void truncatedInputIsRejected() throws Exception {
+        for (int length = 1; length < DOCUMENT.length(); length++)
+            assertMalformed(DOCUMENT.substring(0, length));
+        assertMalformed("[\"unterminated");
+        assertMalformed("[\"escape\\");
+        assertMalformed("[\"\\u00");
+    }
+}
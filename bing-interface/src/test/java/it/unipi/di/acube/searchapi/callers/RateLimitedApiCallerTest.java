@@ -0,0 +1,123 @@
+package it.unipi.di.acube.searchapi.callers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Ticker;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.RetryPolicy;
+import it.unipi.di.acube.searchapi.StubApiCaller;
+import it.unipi.di.acube.searchapi.WebsearchApi;
+
+public class RateLimitedApiCallerTest {
+    private static final long RETRY_AFTER_MILLIS = 300;
+
+    /**
+     * A caller answering with status 429 to the first calls.
+     */
+    private static class ThrottledCaller extends StubApiCaller {
+        private final int throttledCalls;
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        private ThrottledCaller(int throttledCalls) {
+            super(10);
+            this.throttledCalls = throttledCalls;
+        }
+
+        @Override
+        public JSONObject query(String query, int resultsSoFar) throws Exception {
+            if (attempts.incrementAndGet() <= throttledCalls)
+                throw new ApiResponseException(429, RETRY_AFTER_MILLIS);
+            return super.query(query, resultsSoFar);
+        }
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos = 1234567890L;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    private static RetryPolicy retryPolicy() {
+        return RetryPolicy.builder().maxRetries(3).delay(1, 10, TimeUnit.MILLISECONDS).create();
+    }
+
+    @Test
+    public void throttledCallIsRetriedOnceByPolicyAfterPause() throws Exception {
+        ThrottledCaller throttled = new ThrottledCaller(1);
+        WebsearchApi api = new WebsearchApi(new RateLimitedApiCaller(throttled, 100, 1000)).setRetryPolicy(retryPolicy());
+        long start = System.nanoTime();
+        assertEquals(10, api.query("query", 10).getWebEntries().size());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(RETRY_AFTER_MILLIS));
+        assertEquals(2, throttled.attempts.get());
+    }
+
+    @Test
+    public void throttledRetriesDoNotStack() throws Exception {
+        ThrottledCaller throttled = new ThrottledCaller(Integer.MAX_VALUE);
+        RateLimitedApiCaller rateLimited = new RateLimitedApiCaller(throttled, 100, 1000);
+        try {
+            rateLimited.query("query", 0);
+            fail();
+        } catch (ApiResponseException e) {
+            assertEquals(429, e.getStatusCode());
+        }
+        assertEquals(1, throttled.attempts.get());
+
+        WebsearchApi api = new WebsearchApi(rateLimited).setRetryPolicy(retryPolicy());
+        try {
+            api.query("query", 10);
+            fail();
+        } catch (ApiResponseException e) {
+            assertEquals(429, e.getStatusCode());
+        }
+        assertEquals(1 + 4, throttled.attempts.get());
+    }
+
+    @Test
+    public void remainingQuotas() throws Exception {
+        RateLimitedApiCaller rateLimited = new RateLimitedApiCaller(new StubApiCaller(10), 10, 2);
+        assertEquals(10, rateLimited.getRemainingSecondQuota());
+        assertEquals(2, rateLimited.getRemainingDayQuota());
+        rateLimited.query("query", 0);
+        assertEquals(9, rateLimited.getRemainingSecondQuota());
+        assertEquals(1, rateLimited.getRemainingDayQuota());
+    }
+
+    @Test
+    public void dayQuotaHoldsInAnyDay() throws Exception {
+        int callsPerDay = 100;
+        long day = TimeUnit.DAYS.toNanos(1);
+        FakeTicker ticker = new FakeTicker();
+        RateLimitedApiCaller rateLimited = new RateLimitedApiCaller(new StubApiCaller(10), 1000, callsPerDay, ticker);
+        Random random = new Random(0);
+        long start = ticker.nanos;
+        List<Long> calls = new ArrayList<>();
+        while (ticker.nanos - start < 3 * day + TimeUnit.MINUTES.toNanos(3)) {
+            long wait = rateLimited.tryTake();
+            if (wait > 0)
+                ticker.nanos += wait;
+            else {
+                calls.add(ticker.nanos);
+                ticker.nanos += (long) (random.nextDouble() * random.nextDouble() * TimeUnit.MINUTES.toNanos(10));
+            }
+        }
+        for (int i = 0; i + callsPerDay < calls.size(); i++)
+            assertTrue("Call " + (i + callsPerDay) + " issued less than a day after call " + i,
+                    calls.get(i + callsPerDay) - calls.get(i) >= day);
+        assertTrue(calls.size() >= 3 * callsPerDay);
+    }
+}
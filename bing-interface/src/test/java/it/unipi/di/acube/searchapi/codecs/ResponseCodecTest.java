@@ -0,0 +1,147 @@
+package it.unipi.di.acube.searchapi.codecs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Strings;
+
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+import it.unipi.di.acube.searchapi.CachedWebsearchApi.StoreFormat;
+import it.unipi.di.acube.searchapi.StubApiCaller;
+import it.unipi.di.acube.searchapi.interfaces.ResponseCodec;
+import it.unipi.di.acube.searchapi.model.WebsearchResponse;
+import it.unipi.di.acube.searchapi.model.WebsearchResponseEntry;
+import it.unipi.di.acube.searchapi.stores.CountingResponseStore;
+
+public class ResponseCodecTest {
+    private static final String RESPONSE = "{\"_type\": \"SearchResponse\", \"webPages\": {\"value\": []}}";
+    private static final int RESULTS = 10;
+    /**
+     * Offsets in a compact page of the number of entries, and of the length of the first string.
+     */
+    private static final int COMPACT_SIZE_OFFSET = 11;
+    private static final int COMPACT_STRING_OFFSET = 15;
+
+    private static List<ResponseCodec> codecs() {
+        return Arrays.asList(new Lz4Codec(), DictionaryCodec.train(0, Arrays.asList(RESPONSE, RESPONSE, RESPONSE)));
+    }
+
+    @Test
+    public void highlyCompressibleResponsesRoundTrip() throws Exception {
+        for (ResponseCodec codec : codecs())
+            for (int length : new int[] { 0, 1, 1000, 10 << 20 }) {
+                String response = Strings.repeat("a", length);
+                assertEquals(response, codec.decode(codec.encode(response)));
+            }
+    }
+
+    @Test
+    public void corruptLengthIsRejected() throws Exception {
+        for (ResponseCodec codec : codecs())
+            for (int length : new int[] { -1, Integer.MAX_VALUE, 1 << 20 }) {
+                byte[] value = codec.encode(RESPONSE);
+                ByteBuffer.wrap(value, 1, 4).putInt(length);
+                try {
+                    codec.decode(value);
+                    fail();
+                } catch (IOException e) {
+                    assertEquals(codec.getName(), true, e.getMessage().startsWith("Corrupt"));
+                }
+            }
+    }
+
+    private static CachedWebsearchApi compactCache(StubApiCaller caller, CountingResponseStore store) throws Exception {
+        return CachedWebsearchApi.builder().api(caller).store(store).storeFormat(StoreFormat.COMPACT).create();
+    }
+
+    /**
+     * @return the only entry of the store.
+     */
+    private static Map.Entry<String, byte[]> onlyEntry(CountingResponseStore store) {
+        assertEquals(1, store.size());
+        return store.entries().iterator().next();
+    }
+
+    @Test
+    public void compactPagesRoundTrip() throws Exception {
+        for (int results : new int[] { 0, 1, RESULTS }) {
+            StubApiCaller caller = new StubApiCaller(results);
+            CachedWebsearchApi api = compactCache(caller, new CountingResponseStore());
+            try {
+                WebsearchResponse fetched = api.query("query", RESULTS);
+                WebsearchResponse cached = api.query("query", RESULTS);
+                assertEquals(1, caller.getCalls());
+                assertEquals(fetched.getTotalResults(), cached.getTotalResults());
+                assertEquals(results, cached.getWebEntries().size());
+                for (int i = 0; i < results; i++) {
+                    WebsearchResponseEntry expected = fetched.getWebEntries().get(i);
+                    WebsearchResponseEntry actual = cached.getWebEntries().get(i);
+                    assertEquals(expected.getName(), actual.getName());
+                    assertEquals(expected.getDisplayUrl(), actual.getDisplayUrl());
+                    assertEquals(expected.getSnippet(), actual.getSnippet());
+                    assertEquals(expected.getLastCrawled(), actual.getLastCrawled());
+                }
+            } finally {
+                api.close();
+            }
+        }
+    }
+
+    @Test
+    public void corruptCompactPagesAreDropped() throws Exception {
+        int[][] corruptions = { { COMPACT_SIZE_OFFSET, Integer.MAX_VALUE }, { COMPACT_SIZE_OFFSET, -1 },
+                { COMPACT_SIZE_OFFSET, 1 << 28 }, { COMPACT_STRING_OFFSET, Integer.MAX_VALUE },
+                { COMPACT_STRING_OFFSET, -2 }, { COMPACT_STRING_OFFSET, 1 << 30 }, { COMPACT_STRING_OFFSET, 1000 } };
+        for (int[] corruption : corruptions)
+            for (boolean verify : new boolean[] { false, true }) {
+                StubApiCaller caller = new StubApiCaller(RESULTS);
+                CountingResponseStore store = new CountingResponseStore();
+                CachedWebsearchApi api = compactCache(caller, store);
+                try {
+                    api.query("query", RESULTS);
+                    Map.Entry<String, byte[]> entry = onlyEntry(store);
+                    byte[] value = entry.getValue().clone();
+                    int offset = value.length - CachedWebsearchApi.getPayload(value).length;
+                    ByteBuffer.wrap(value).putInt(offset + corruption[0], corruption[1]);
+                    store.put(entry.getKey(), value);
+                    if (verify) {
+                        assertEquals(1, api.verifyCache());
+                        assertNull(store.get(entry.getKey()));
+                    } else {
+                        assertEquals(RESULTS, api.query("query", RESULTS).getWebEntries().size());
+                        assertEquals(2, caller.getCalls());
+                    }
+                    assertEquals(1, api.getCorruptEntries());
+                } finally {
+                    api.close();
+                }
+            }
+    }
+
+    @Test
+    public void truncatedCompactPagesAreDropped() throws Exception {
+        StubApiCaller caller = new StubApiCaller(RESULTS);
+        CountingResponseStore store = new CountingResponseStore();
+        CachedWebsearchApi api = compactCache(caller, store);
+        try {
+            api.query("query", RESULTS);
+            Map.Entry<String, byte[]> entry = onlyEntry(store);
+            int offset = entry.getValue().length - CachedWebsearchApi.getPayload(entry.getValue()).length;
+            for (int length = offset + 2; length < entry.getValue().length; length += 7) {
+                store.put(entry.getKey(), Arrays.copyOf(entry.getValue(), length));
+                assertEquals(1, api.verifyCache());
+            }
+        } finally {
+            api.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package it.unipi.di.acube.searchapi.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+import it.unipi.di.acube.searchapi.StubApiCaller;
+import it.unipi.di.acube.searchapi.interfaces.SearchMetrics.CacheTier;
+
+public class MicrometerSearchMetricsTest {
+    private static final String API = "api.example.com";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private double cacheRequests(CacheTier tier, String result) {
+        return registry.get("websearch.cache.requests").tag("tier", tier.name().toLowerCase()).tag("result", result).counter()
+                .count();
+    }
+
+    private Timer calls(String api, String outcome) {
+        return registry.get("websearch.api.calls").tag("api", api).tag("outcome", outcome).timer();
+    }
+
+    @Test
+    public void cacheMetersAreRegisteredUpFront() {
+        new MicrometerSearchMetrics(registry);
+        assertEquals(2 * CacheTier.values().length, registry.get("websearch.cache.requests").counters().size());
+        assertEquals(0, registry.get("websearch.cache.decode").timer().count());
+        assertEquals(0, registry.get("websearch.cache.commits").timer().count());
+        assertEquals(0, registry.get("websearch.cache.committed").counter().count(), 0);
+        assertEquals(0, registry.find("websearch.api.calls").meters().size());
+    }
+
+    @Test
+    public void eventsUpdateMeters() {
+        MicrometerSearchMetrics metrics = new MicrometerSearchMetrics(registry);
+        metrics.cacheHit(CacheTier.STORE);
+        metrics.cacheHit(CacheTier.STORE);
+        metrics.cacheMiss(CacheTier.MEMORY);
+        metrics.pageDecoded(TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals(2, cacheRequests(CacheTier.STORE, "hit"), 0);
+        assertEquals(0, cacheRequests(CacheTier.STORE, "miss"), 0);
+        assertEquals(1, cacheRequests(CacheTier.MEMORY, "miss"), 0);
+        assertEquals(2, registry.get("websearch.cache.decode").timer().totalTime(TimeUnit.MILLISECONDS), 0);
+
+        metrics.apiCallStarted(API);
+        metrics.apiCallStarted(API);
+        assertEquals(2, registry.get("websearch.api.in.flight").tag("api", API).gauge().value(), 0);
+        metrics.apiCallFinished(API, TimeUnit.MILLISECONDS.toNanos(5), true);
+        metrics.apiCallFinished(API, TimeUnit.MILLISECONDS.toNanos(7), false);
+        metrics.retry(API);
+        metrics.bytesReceived(API, 1000);
+        assertEquals(0, registry.get("websearch.api.in.flight").tag("api", API).gauge().value(), 0);
+        assertEquals(1, calls(API, "success").count());
+        assertEquals(5, calls(API, "success").totalTime(TimeUnit.MILLISECONDS), 0);
+        assertEquals(1, calls(API, "failure").count());
+        assertEquals(1, registry.get("websearch.api.retries").tag("api", API).counter().count(), 0);
+        assertEquals(1000, registry.get("websearch.api.received").tag("api", API).summary().totalAmount(), 0);
+
+        metrics.committed(3, TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(1, registry.get("websearch.cache.commits").timer().count());
+        assertEquals(3, registry.get("websearch.cache.committed").counter().count(), 0);
+    }
+
+    @Test
+    public void cachedApiReportsToRegistry() throws Exception {
+        StubApiCaller caller = new StubApiCaller(10);
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(caller).path(new File(folder.getRoot(), "cache").getPath())
+                .metrics(new MicrometerSearchMetrics(registry)).create();
+        try {
+            api.query("query", 10);
+            api.query("query", 10);
+        } finally {
+            api.close();
+        }
+        String host = caller.getQueryURI("query", 0).getHost();
+        assertEquals(1, calls(host, "success").count());
+        assertEquals(1, registry.get("websearch.cache.requests").tag("result", "hit").counters().stream()
+                .mapToDouble(counter -> counter.count()).sum(), 0);
+        assertEquals(1, registry.get("websearch.cache.committed").counter().count(), 0);
+    }
+}
@@ -0,0 +1,128 @@
+package it.unipi.di.acube.searchapi.stores;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.unipi.di.acube.searchapi.interfaces.ResponseStore;
+
+/**
+ * An in-memory store counting its reads, writes and commits.
+ */
+public class CountingResponseStore implements ResponseStore {
+    private final ResponseStore store;
+    private final AtomicInteger gets = new AtomicInteger();
+    private final AtomicInteger puts = new AtomicInteger();
+    private final AtomicInteger removes = new AtomicInteger();
+    private final AtomicInteger commits = new AtomicInteger();
+
+    public CountingResponseStore() throws IOException {
+        this(MapDbResponseStore.builder().memory().create());
+    }
+
+    /**
+     * @param store
+     *            the store reads and writes are passed to.
+     */
+    public CountingResponseStore(ResponseStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return the number of values read so far.
+     */
+    public int getGets() {
+        return gets.get();
+    }
+
+    /**
+     * @return the number of values written so far, one per entry of {@link #putAll(Map)}.
+     */
+    public int getPuts() {
+        return puts.get();
+    }
+
+    /**
+     * @return the number of values removed so far.
+     */
+    public int getRemoves() {
+        return removes.get();
+    }
+
+    /**
+     * @return the number of commits so far.
+     */
+    public int getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * Set all counts back to zero.
+     */
+    public void reset() {
+        gets.set(0);
+        puts.set(0);
+        removes.set(0);
+        commits.set(0);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        gets.incrementAndGet();
+        return store.get(key);
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+        puts.incrementAndGet();
+        store.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<String, byte[]> entries) throws IOException {
+        puts.addAndGet(entries.size());
+        store.putAll(entries);
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        removes.incrementAndGet();
+        store.remove(key);
+    }
+
+    @Override
+    public Iterable<String> keys() {
+        return store.keys();
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, byte[]>> entries() {
+        return store.entries();
+    }
+
+    @Override
+    public long size() {
+        return store.size();
+    }
+
+    @Override
+    public byte[] getMetadata(String name) throws IOException {
+        return store.getMetadata(name);
+    }
+
+    @Override
+    public void putMetadata(String name, byte[] value) throws IOException {
+        store.putMetadata(name, value);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        commits.incrementAndGet();
+        store.commit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
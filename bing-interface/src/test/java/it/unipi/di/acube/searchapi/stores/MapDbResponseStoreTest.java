@@ -0,0 +1,69 @@
+package it.unipi.di.acube.searchapi.stores;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MapDbResponseStoreTest {
+    private static final int COMMITTED = 100;
+    private static final int UNCOMMITTED = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] value(int seed) {
+        byte[] value = new byte[100];
+        Arrays.fill(value, (byte) seed);
+        return value;
+    }
+
+    /**
+     * Write and commit some entries, overwrite some and write others without committing, then halt the JVM without closing
+     * the store.
+     */
+    public static class CrashingWriter {
+        public static void main(String[] args) throws Exception {
+            MapDbResponseStore store = MapDbResponseStore.builder().path(args[0]).create();
+            for (int i = 0; i < COMMITTED; i++)
+                store.put("committed " + i, value(i));
+            store.putMetadata("metadata", value(1));
+            store.commit();
+            for (int i = 0; i < COMMITTED; i += 2)
+                store.put("committed " + i, value(-1));
+            for (int i = 0; i < UNCOMMITTED; i++)
+                store.put("uncommitted " + i, value(i));
+            store.remove("committed 1");
+            Runtime.getRuntime().halt(0);
+        }
+    }
+
+    @Test
+    public void crashedStoreIsRecoveredToItsLastCommit() throws Exception {
+        String path = new File(folder.getRoot(), "cache").getPath();
+        Process writer = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp",
+                System.getProperty("java.class.path"), CrashingWriter.class.getName(), path).inheritIO().start();
+        if (!writer.waitFor(60, TimeUnit.SECONDS)) {
+            writer.destroyForcibly();
+            throw new AssertionError("The writer did not halt.");
+        }
+        assertEquals(0, writer.exitValue());
+
+        try (MapDbResponseStore store = MapDbResponseStore.builder().path(path).create()) {
+            assertEquals(COMMITTED, store.size());
+            for (int i = 0; i < COMMITTED; i++)
+                assertArrayEquals(value(i), store.get("committed " + i));
+            for (int i = 0; i < UNCOMMITTED; i++)
+                assertNull(store.get("uncommitted " + i));
+            assertArrayEquals(value(1), store.getMetadata("metadata"));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package it.unipi.di.acube.searchapi.stores;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MmapResponseStoreTest {
+    private static final int RECORD_HEADER_LENGTH = 13;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "log");
+    }
+
+    private static byte[] value(int seed, int length) {
+        byte[] value = new byte[length];
+        Arrays.fill(value, (byte) seed);
+        return value;
+    }
+
+    /**
+     * Write three entries of 100 bytes, with keys of one byte, and return the offset of the second one.
+     */
+    private long writeThree() throws Exception {
+        try (MmapResponseStore store = new MmapResponseStore(file.getPath())) {
+            store.put("a", value(1, 100));
+            long second = file.length();
+            store.put("b", value(2, 100));
+            store.put("c", value(3, 100));
+            store.commit();
+            return second;
+        }
+    }
+
+    @Test
+    public void corruptRecordInTheMiddleIsSkipped() throws Exception {
+        long second = writeThree();
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(second + RECORD_HEADER_LENGTH + 1 + 50);
+            raf.write(0x7f);
+        }
+        try (MmapResponseStore store = new MmapResponseStore(file.getPath())) {
+            assertEquals(length, file.length());
+            assertArrayEquals(value(1, 100), store.get("a"));
+            assertNull(store.get("b"));
+            assertArrayEquals(value(3, 100), store.get("c"));
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    public void unknownRecordTypeIsSkipped() throws Exception {
+        long second = writeThree();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(second);
+            raf.write(0x7f);
+        }
+        try (MmapResponseStore store = new MmapResponseStore(file.getPath())) {
+            assertNull(store.get("b"));
+            assertArrayEquals(value(3, 100), store.get("c"));
+        }
+    }
+
+    @Test
+    public void incompleteTailIsTruncated() throws Exception {
+        writeThree();
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 10);
+        }
+        try (MmapResponseStore store = new MmapResponseStore(file.getPath())) {
+            assertEquals(length - (RECORD_HEADER_LENGTH + 1 + 100), file.length());
+            assertArrayEquals(value(2, 100), store.get("b"));
+            assertNull(store.get("c"));
+            store.put("c", value(4, 100));
+        }
+        try (MmapResponseStore store = new MmapResponseStore(file.getPath())) {
+            assertArrayEquals(value(4, 100), store.get("c"));
+            assertEquals(3, store.size());
+        }
+    }
+
+    @Test
+    public void entriesCanBeReadAsTheLogGrows() throws Exception {
+        try (MmapResponseStore store = new MmapResponseStore(file.getPath())) {
+            for (int i = 0; i < 200; i++) {
+                store.put("key" + i, value(i, 1 << 19));
+                assertArrayEquals(value(i, 1 << 19), store.get("key" + i));
+                assertArrayEquals(value(i / 2, 1 << 19), store.get("key" + i / 2));
+            }
+        }
+        try (MmapResponseStore store = new MmapResponseStore(file.getPath())) {
+            for (int i = 0; i < 200; i++)
+                assertArrayEquals(value(i, 1 << 19), store.get("key" + i));
+        }
+    }
+}
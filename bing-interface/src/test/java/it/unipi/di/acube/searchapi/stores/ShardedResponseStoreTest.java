@@ -0,0 +1,86 @@
+package it.unipi.di.acube.searchapi.stores;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import it.unipi.di.acube.searchapi.CachedWebsearchApi;
+import it.unipi.di.acube.searchapi.StubApiCaller;
+
+public class ShardedResponseStoreTest {
+    private static final int SHARDS = 4;
+
+    private CountingResponseStore metadata;
+    private List<CountingResponseStore> shards;
+    private ShardedResponseStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        metadata = new CountingResponseStore();
+        shards = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++)
+            shards.add(new CountingResponseStore());
+        store = new ShardedResponseStore(metadata, shards);
+        metadata.reset();
+    }
+
+    private int shardOf(String key) throws IOException {
+        for (int i = 0; i < SHARDS; i++)
+            if (shards.get(i).get(key) != null)
+                return i;
+        throw new AssertionError(key + " not found.");
+    }
+
+    private int[] commits() {
+        int[] commits = new int[SHARDS];
+        for (int i = 0; i < SHARDS; i++)
+            commits[i] = shards.get(i).getCommits();
+        return commits;
+    }
+
+    private static int[] committed(int shard) {
+        int[] commits = new int[SHARDS];
+        commits[shard] = 1;
+        return commits;
+    }
+
+    @Test
+    public void commitOnlyCommitsWrittenShards() throws Exception {
+        store.put("a", new byte[] { 1 });
+        store.commit();
+        assertArrayEquals(committed(shardOf("a")), commits());
+        assertEquals(0, metadata.getCommits());
+
+        store.commit();
+        assertArrayEquals(committed(shardOf("a")), commits());
+    }
+
+    @Test
+    public void commitOfKeysOnlyCommitsTheirShards() throws Exception {
+        for (int i = 0; i < 10 * SHARDS; i++)
+            store.put("key" + i, new byte[] { 1 });
+        store.commit(Collections.singletonList("key0"));
+        assertArrayEquals(committed(shardOf("key0")), commits());
+    }
+
+    @Test
+    public void queryOnlyCommitsShardOfItsPage() throws Exception {
+        CachedWebsearchApi api = CachedWebsearchApi.builder().api(new StubApiCaller(10)).store(store).create();
+        try {
+            for (CountingResponseStore shard : shards)
+                shard.reset();
+            api.query("query", 10);
+            String key = store.keys().iterator().next();
+            assertArrayEquals(committed(shardOf(key)), commits());
+        } finally {
+            api.close();
+        }
+    }
+}